@@ -1,5 +1,6 @@
 package org.wso2.analytics.apim.rest.api.file;
 
+import io.swagger.annotations.ApiParam;
 import org.osgi.service.component.annotations.Component;
 import org.wso2.analytics.apim.rest.api.file.factories.UsageApiServiceFactory;
 import org.wso2.carbon.analytics.msf4j.interceptor.common.AuthenticationInterceptor;
@@ -12,8 +13,12 @@ import org.wso2.msf4j.interceptor.annotation.RequestInterceptor;
 import java.io.InputStream;
 import javax.ws.rs.ApplicationPath;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
@@ -36,17 +41,23 @@ public class UsageApi implements Microservice  {
     @Path("/upload-file/")
     @Consumes({ "multipart/form-data" })
     @Produces({ "application/json" })
-    @io.swagger.annotations.ApiOperation(value = "Uploading File ", notes = "Reveives analytics data as a zip archive and upload it to persist in data base. ", response = void.class, authorizations = {
+    @io.swagger.annotations.ApiOperation(value = "Uploading File ", notes = "Reveives analytics data as a zip archive, or as a gzip, zstd or LZ4 compressed file, and upload it to persist in data base. ", response = void.class, authorizations = {
         @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
             
         })
     }, tags={  })
     @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 200, message = "OK. File was already uploaded, either with the same name or with the same content. ", response = void.class),
+        
         @io.swagger.annotations.ApiResponse(code = 201, message = "Created. File uploaded successfully. ", response = void.class),
         
+        @io.swagger.annotations.ApiResponse(code = 202, message = "Accepted. File was spooled and will be persisted in the background. The tracking id of the file is returned in the UploadTrackingId header. ", response = void.class),
+        
         @io.swagger.annotations.ApiResponse(code = 400, message = "Bad Request. Invalid request or validation error. ", response = void.class),
         
-        @io.swagger.annotations.ApiResponse(code = 415, message = "Unsupported Media Type. The entity of the request was in a not supported format. ", response = void.class) })
+        @io.swagger.annotations.ApiResponse(code = 415, message = "Unsupported Media Type. The entity of the request was in a not supported format. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 503, message = "Service Unavailable. The upload spool is full. ", response = void.class) })
     public Response usageUploadFilePost(
             @FormDataParam("file") InputStream analyticsInputStream,
             @FormDataParam("file") FileInfo analyticsDetail
@@ -55,4 +66,146 @@ public class UsageApi implements Microservice  {
         
         return delegate.usageUploadFilePost(analyticsInputStream, analyticsDetail,request);
     }
+
+    @POST
+    @Path("/upload-sessions/")
+    @Produces({ "application/json" })
+    @io.swagger.annotations.ApiOperation(value = "Creating Upload Session ", notes = "Creates a session for uploading a file as a sequence of chunks. The id of the session is returned in the UploadSessionId header. ", response = void.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 201, message = "Created. Upload session created. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 400, message = "Bad Request. Invalid request or validation error. ", response = void.class) })
+    public Response usageUploadSessionsPost(@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageUploadSessionsPost(request);
+    }
+
+    @GET
+    @Path("/upload-sessions/{sessionId}/")
+    @Produces({ "application/json" })
+    @io.swagger.annotations.ApiOperation(value = "Getting Upload Session ", notes = "Returns the number of bytes received in the upload session in the UploadOffset header, which is the offset of the next chunk. ", response = void.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 200, message = "OK. Upload offset returned. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 404, message = "Not Found. Upload session does not exist. ", response = void.class) })
+    public Response usageUploadSessionsSessionIdGet(@ApiParam(value = "Id of the upload session. ",required=true) @PathParam("sessionId") String sessionId
+ ,@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageUploadSessionsSessionIdGet(sessionId,request);
+    }
+
+    @PUT
+    @Path("/upload-sessions/{sessionId}/")
+    @Consumes({ "multipart/form-data" })
+    @Produces({ "application/json" })
+    @io.swagger.annotations.ApiOperation(value = "Uploading Chunk ", notes = "Uploads the chunk of the file starting at the ChunkOffset header, whose SHA-256 checksum is given in the ChunkChecksum header. ", response = void.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 200, message = "OK. Chunk uploaded successfully. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 400, message = "Bad Request. Invalid request, empty chunk or checksum mismatch. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 404, message = "Not Found. Upload session does not exist. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 409, message = "Conflict. ChunkOffset does not match the bytes received. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 413, message = "Payload Too Large. The chunk would make the file larger than the maximum size of an upload session. ", response = void.class) })
+    public Response usageUploadSessionsSessionIdPut(@ApiParam(value = "Id of the upload session. ",required=true) @PathParam("sessionId") String sessionId,
+            @FormDataParam("chunk") InputStream chunkInputStream,
+            @FormDataParam("chunk") FileInfo chunkDetail
+ ,@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageUploadSessionsSessionIdPut(sessionId,chunkInputStream, chunkDetail,request);
+    }
+
+    @POST
+    @Path("/upload-sessions/{sessionId}/commit/")
+    @Produces({ "application/json" })
+    @io.swagger.annotations.ApiOperation(value = "Committing Upload Session ", notes = "Persists the chunks of the upload session as a single uploaded file, which is then published like an uploaded file. ", response = void.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 201, message = "Created. File uploaded successfully. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 404, message = "Not Found. Upload session does not exist. ", response = void.class) })
+    public Response usageUploadSessionsSessionIdCommitPost(@ApiParam(value = "Id of the upload session. ",required=true) @PathParam("sessionId") String sessionId
+ ,@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageUploadSessionsSessionIdCommitPost(sessionId,request);
+    }
+
+    @DELETE
+    @Path("/upload-sessions/{sessionId}/")
+    @Produces({ "application/json" })
+    @io.swagger.annotations.ApiOperation(value = "Deleting Upload Session ", notes = "Deletes the upload session and the chunks received in it. ", response = void.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 204, message = "No Content. Upload session deleted. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 404, message = "Not Found. Upload session does not exist. ", response = void.class) })
+    public Response usageUploadSessionsSessionIdDelete(@ApiParam(value = "Id of the upload session. ",required=true) @PathParam("sessionId") String sessionId
+ ,@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageUploadSessionsSessionIdDelete(sessionId,request);
+    }
+
+    @GET
+    @Path("/upload-status/{trackingId}/")
+    @Produces({ "application/json" })
+    @io.swagger.annotations.ApiOperation(value = "Getting Upload Status ", notes = "Returns the progress of a file accepted with a tracking id in the UploadStatus header, which is one of SPOOLED, PERSISTED, CLAIMED, PROCESSED, DUPLICATE and CHECKSUM_MISMATCH. ", response = void.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 200, message = "OK. Upload status returned. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 404, message = "Not Found. Tracking id is not known. ", response = void.class) })
+    public Response usageUploadStatusTrackingIdGet(@ApiParam(value = "Tracking id of the uploaded file. ",required=true) @PathParam("trackingId") String trackingId
+ ,@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageUploadStatusTrackingIdGet(trackingId,request);
+    }
+
+    @GET
+    @Path("/metrics/")
+    @Produces({ "text/plain; version=0.0.4" })
+    @io.swagger.annotations.ApiOperation(value = "Usage File Ingestion Metrics ", notes = "Returns the metrics of the ingestion of uploaded usage files in the Prometheus text format. ", response = String.class, authorizations = {
+        @io.swagger.annotations.Authorization(value = "OAuth2Security", scopes = {
+            
+        })
+    }, tags={  })
+    @io.swagger.annotations.ApiResponses(value = { 
+        @io.swagger.annotations.ApiResponse(code = 200, message = "OK. Metrics returned. ", response = String.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 400, message = "Bad Request. Invalid request or validation error. ", response = void.class),
+        
+        @io.swagger.annotations.ApiResponse(code = 401, message = "Unauthorized. The Authorization header is missing. ", response = void.class) })
+    public Response usageMetricsGet(@Context Request request)
+    throws NotFoundException {
+        
+        return delegate.usageMetricsGet(request);
+    }
 }
@@ -10,4 +10,12 @@ import javax.ws.rs.core.Response;
 public abstract class UsageApiService {
     public abstract Response usageUploadFilePost(InputStream analyticsInputStream, FileInfo analyticsDetail
   ,Request request) throws NotFoundException;
+    public abstract Response usageUploadSessionsPost(Request request) throws NotFoundException;
+    public abstract Response usageUploadSessionsSessionIdGet(String sessionId, Request request) throws NotFoundException;
+    public abstract Response usageUploadSessionsSessionIdPut(String sessionId, InputStream chunkInputStream, FileInfo chunkDetail
+  ,Request request) throws NotFoundException;
+    public abstract Response usageUploadSessionsSessionIdCommitPost(String sessionId, Request request) throws NotFoundException;
+    public abstract Response usageUploadSessionsSessionIdDelete(String sessionId, Request request) throws NotFoundException;
+    public abstract Response usageUploadStatusTrackingIdGet(String trackingId, Request request) throws NotFoundException;
+    public abstract Response usageMetricsGet(Request request) throws NotFoundException;
 }
@@ -20,6 +20,7 @@ import org.slf4j.LoggerFactory;
 import org.wso2.analytics.apim.rest.api.file.NotFoundException;
 import org.wso2.analytics.apim.rest.api.file.UsageApiService;
 import org.wso2.analytics.apim.rest.api.file.internal.ServiceHolder;
+import org.wso2.analytics.apim.rest.api.file.util.AuthorizationCache;
 import org.wso2.analytics.apim.rest.api.file.util.UploadServiceConstants;
 import org.wso2.carbon.analytics.idp.client.core.api.IdPClient;
 import org.wso2.carbon.analytics.idp.client.core.exception.IdPClientException;
@@ -27,14 +28,22 @@ import org.wso2.carbon.analytics.idp.client.core.models.Role;
 import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
 import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
 import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderScheduler;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileSpoolWriter;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileCompression;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSessionUtil;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSpoolUtil;
 import org.wso2.msf4j.Request;
 import org.wso2.msf4j.formparam.FileInfo;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Base64;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.UUID;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
@@ -51,36 +60,29 @@ public class UsageApiServiceImpl extends UsageApiService {
         String uploadedFileName = httpHeaders.getHeaderString(UploadServiceConstants.FILE_NAME_HEADER);
 
         try {
-            List<String> authorization = httpHeaders.getRequestHeader("Authorization");
-            //If no authorization information present; block access
-            if (authorization == null || authorization.isEmpty()) {
-                String errorMsg = "Received a request to micro gateway REST API without Authorization header";
-                log.error(errorMsg);
-                return Response.status(Response.Status.UNAUTHORIZED).entity(errorMsg).build();
+            Response authorizationError = authorize(httpHeaders);
+            if (authorizationError != null) {
+                return authorizationError;
             }
-            String userName = extractUsernameFromAuthHeader(authorization);
-            boolean isAdmin = isUserAdmin(userName);
-            if (!isAdmin) {
-                String errorMessage = "Authenticated user does not have admin role.\n";
-                log.error(errorMessage);
-                return Response.status(Response.Status.BAD_REQUEST).entity(errorMessage).build();
-            }
-            if (uploadedFileName == null || uploadedFileName.isEmpty()) {
-                String errorMessage = "FileName Header is missing.\n";
-                log.error(errorMessage);
-                return Response.status(Response.Status.BAD_REQUEST).entity(errorMessage).build();
+            Response fileNameError = validateFileName(uploadedFileName);
+            if (fileNameError != null) {
+                return fileNameError;
             }
-            if (!uploadedFileName.matches(UploadServiceConstants.FILE_NAME_REGEX)) {
-                return Response.status(Response.Status.BAD_REQUEST).entity("FileName Header is in incorrect format.\n")
-                        .build();
+
+            String fileChecksum = httpHeaders.getHeaderString(UploadServiceConstants.FILE_CHECKSUM_HEADER);
+            if (fileChecksum != null && !fileChecksum.matches(UploadServiceConstants.CHECKSUM_REGEX)) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("FileChecksum Header is in incorrect format.\n").build();
             }
 
-            //Add the uploaded file into the database
-            long timeStamp = Long.parseLong(uploadedFileName.split("\\.")[2]);
-            MGWFileInfoDTO dto = new MGWFileInfoDTO(uploadedFileName, timeStamp);
-            MGWFileSourceDAO.persistUploadedFile(dto, analyticsInputStream);
-            log.info("Successfully uploaded the API Usage file [" + uploadedFileName + "]");
-            return Response.status(Response.Status.CREATED).entity("File uploaded successfully.\n").build();
+            MGWFileInfoDTO dto = createFileInfo(uploadedFileName);
+            dto.setContentHash(fileChecksum);
+            if (MGWFileUploadSpoolUtil.isSpoolEnabled()) {
+                return spoolUploadedFile(dto, analyticsInputStream);
+            }
+            //Add the uploaded file into the database, unless it was already uploaded
+            MGWFileSourceDAO.UploadStatus status = MGWFileSourceDAO.persistUploadedFile(dto, analyticsInputStream);
+            return createUploadResponse(status, dto);
 
         } catch (MGWFileSourceException e) {
             String msg = "Error occurred while uploading API Usage file : " + uploadedFileName;
@@ -89,6 +91,330 @@ public class UsageApiServiceImpl extends UsageApiService {
         }
     }
 
+    @Override
+    public Response usageUploadSessionsPost(Request request) throws NotFoundException {
+        HttpHeaders httpHeaders = request.getHeaders();
+        String uploadedFileName = httpHeaders.getHeaderString(UploadServiceConstants.FILE_NAME_HEADER);
+        try {
+            Response authorizationError = authorize(httpHeaders);
+            if (authorizationError != null) {
+                return authorizationError;
+            }
+            Response fileNameError = validateFileName(uploadedFileName);
+            if (fileNameError != null) {
+                return fileNameError;
+            }
+            String sessionId = MGWFileUploadSessionUtil.createSession(uploadedFileName);
+            log.info("Started upload session [" + sessionId + "] of the API Usage file [" + uploadedFileName + "]");
+            return Response.status(Response.Status.CREATED)
+                    .header(UploadServiceConstants.UPLOAD_SESSION_ID_HEADER, sessionId)
+                    .header(UploadServiceConstants.UPLOAD_OFFSET_HEADER, 0)
+                    .entity("Upload session created.\n").build();
+        } catch (MGWFileSourceException e) {
+            String msg = "Error occurred while creating an upload session for API Usage file : " + uploadedFileName;
+            log.error(msg, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(msg).build();
+        }
+    }
+
+    @Override
+    public Response usageUploadSessionsSessionIdGet(String sessionId, Request request) throws NotFoundException {
+        try {
+            Response authorizationError = authorize(request.getHeaders());
+            if (authorizationError != null) {
+                return authorizationError;
+            }
+            long offset = MGWFileUploadSessionUtil.isValidSessionId(sessionId)
+                    ? MGWFileUploadSessionUtil.getOffset(sessionId) : -1;
+            if (offset < 0) {
+                return sessionNotFound(sessionId);
+            }
+            return Response.status(Response.Status.OK).header(UploadServiceConstants.UPLOAD_OFFSET_HEADER, offset)
+                    .entity("Received " + offset + " bytes.\n").build();
+        } catch (MGWFileSourceException e) {
+            String msg = "Error occurred while reading upload session : " + sessionId;
+            log.error(msg, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(msg).build();
+        }
+    }
+
+    @Override
+    public Response usageUploadSessionsSessionIdPut(String sessionId, InputStream chunkInputStream,
+            FileInfo chunkDetail, Request request) throws NotFoundException {
+        HttpHeaders httpHeaders = request.getHeaders();
+        try {
+            Response authorizationError = authorize(httpHeaders);
+            if (authorizationError != null) {
+                return authorizationError;
+            }
+            if (!MGWFileUploadSessionUtil.isValidSessionId(sessionId)) {
+                return sessionNotFound(sessionId);
+            }
+            String offsetHeader = httpHeaders.getHeaderString(UploadServiceConstants.CHUNK_OFFSET_HEADER);
+            if (offsetHeader == null || !offsetHeader.matches(UploadServiceConstants.CHUNK_OFFSET_REGEX)) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("ChunkOffset Header is missing or in incorrect format.\n").build();
+            }
+            String checksum = httpHeaders.getHeaderString(UploadServiceConstants.CHUNK_CHECKSUM_HEADER);
+            if (checksum == null || !checksum.matches(UploadServiceConstants.CHECKSUM_REGEX)) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("ChunkChecksum Header is missing or in incorrect format.\n").build();
+            }
+            long offset = Long.parseLong(offsetHeader);
+            MGWFileUploadSessionUtil.ChunkStatus status = MGWFileUploadSessionUtil.writeChunk(sessionId, offset,
+                    checksum, chunkInputStream);
+            switch (status) {
+                case ACCEPTED:
+                    return Response.status(Response.Status.OK)
+                            .header(UploadServiceConstants.UPLOAD_OFFSET_HEADER,
+                                    MGWFileUploadSessionUtil.getOffset(sessionId))
+                            .entity("Chunk uploaded successfully.\n").build();
+                case OFFSET_MISMATCH:
+                    return Response.status(Response.Status.CONFLICT)
+                            .header(UploadServiceConstants.UPLOAD_OFFSET_HEADER,
+                                    MGWFileUploadSessionUtil.getOffset(sessionId))
+                            .entity("ChunkOffset does not match the bytes received in the session.\n").build();
+                case CHECKSUM_MISMATCH:
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Content of the chunk does not match ChunkChecksum.\n").build();
+                case EMPTY_CHUNK:
+                    return Response.status(Response.Status.BAD_REQUEST).entity("Chunk is empty.\n").build();
+                case SESSION_TOO_LARGE:
+                    return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                            .entity("Uploaded file exceeds the maximum size of an upload session.\n").build();
+                default:
+                    return sessionNotFound(sessionId);
+            }
+        } catch (MGWFileSourceException e) {
+            String msg = "Error occurred while uploading a chunk of upload session : " + sessionId;
+            log.error(msg, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(msg).build();
+        }
+    }
+
+    @Override
+    public Response usageUploadSessionsSessionIdCommitPost(String sessionId, Request request)
+            throws NotFoundException {
+        Response authorizationError = authorize(request.getHeaders());
+        if (authorizationError != null) {
+            return authorizationError;
+        }
+        if (!MGWFileUploadSessionUtil.isValidSessionId(sessionId)) {
+            return sessionNotFound(sessionId);
+        }
+        String fileChecksum = request.getHeaders().getHeaderString(UploadServiceConstants.FILE_CHECKSUM_HEADER);
+        if (fileChecksum != null && !fileChecksum.matches(UploadServiceConstants.CHECKSUM_REGEX)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("FileChecksum Header is in incorrect format.\n")
+                    .build();
+        }
+        try {
+            String uploadedFileName = MGWFileUploadSessionUtil.getFileName(sessionId);
+            InputStream contentStream = uploadedFileName != null ? MGWFileUploadSessionUtil.beginCommit(sessionId)
+                    : null;
+            if (contentStream == null) {
+                // not found, or committed or deleted meanwhile
+                return sessionNotFound(sessionId);
+            }
+            MGWFileInfoDTO dto = createFileInfo(uploadedFileName);
+            dto.setContentHash(fileChecksum);
+            MGWFileSourceDAO.UploadStatus status = null;
+            try {
+                //Add the uploaded file into the database, which makes it visible to the reader at once
+                status = MGWFileSourceDAO.persistUploadedFile(dto, contentStream);
+            } finally {
+                closeQuietly(contentStream);
+                if (status == null || status == MGWFileSourceDAO.UploadStatus.CHECKSUM_MISMATCH) {
+                    // the chunks are kept, so that the commit can be retried
+                    MGWFileUploadSessionUtil.abortCommit(sessionId);
+                }
+            }
+            if (status != MGWFileSourceDAO.UploadStatus.CHECKSUM_MISMATCH) {
+                MGWFileUploadSessionUtil.completeCommit(sessionId);
+            }
+            return createUploadResponse(status, dto);
+        } catch (MGWFileSourceException e) {
+            String msg = "Error occurred while committing upload session : " + sessionId;
+            log.error(msg, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(msg).build();
+        }
+    }
+
+    @Override
+    public Response usageUploadSessionsSessionIdDelete(String sessionId, Request request) throws NotFoundException {
+        try {
+            Response authorizationError = authorize(request.getHeaders());
+            if (authorizationError != null) {
+                return authorizationError;
+            }
+            if (!MGWFileUploadSessionUtil.isValidSessionId(sessionId)
+                    || !MGWFileUploadSessionUtil.deleteSession(sessionId)) {
+                return sessionNotFound(sessionId);
+            }
+            log.info("Deleted upload session [" + sessionId + "]");
+            return Response.status(Response.Status.NO_CONTENT).build();
+        } catch (MGWFileSourceException e) {
+            String msg = "Error occurred while deleting upload session : " + sessionId;
+            log.error(msg, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(msg).build();
+        }
+    }
+
+    @Override
+    public Response usageUploadStatusTrackingIdGet(String trackingId, Request request) throws NotFoundException {
+        try {
+            Response authorizationError = authorize(request.getHeaders());
+            if (authorizationError != null) {
+                return authorizationError;
+            }
+            MGWFileUploadSpoolUtil.UploadState state = null;
+            if (MGWFileUploadSpoolUtil.isSpoolEnabled() && MGWFileUploadSpoolUtil.isValidTrackingId(trackingId)) {
+                state = MGWFileUploadSpoolUtil.getUploadState(trackingId);
+            }
+            if (state == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                        .entity("Upload tracking id not found : " + trackingId + "\n").build();
+            }
+            return Response.status(Response.Status.OK).header(UploadServiceConstants.UPLOAD_STATUS_HEADER, state)
+                    .entity(state + "\n").build();
+        } catch (MGWFileSourceException e) {
+            String msg = "Error occurred while reading the upload status of tracking id : " + trackingId;
+            log.error(msg, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(msg).build();
+        }
+    }
+
+    @Override
+    public Response usageMetricsGet(Request request) throws NotFoundException {
+        Response authorizationError = authorize(request.getHeaders());
+        if (authorizationError != null) {
+            return authorizationError;
+        }
+        String metrics = MGWFileSourceMetrics.toPrometheusText()
+                + ServiceHolder.getInstance().getAuthorizationCache().toPrometheusText();
+        return Response.ok(metrics, UploadServiceConstants.PROMETHEUS_CONTENT_TYPE).build();
+    }
+
+    /**
+     * Validates the name of an uploaded file.
+     * @param uploadedFileName value of the FileName header
+     * @return error response to be returned, or null if the name is valid
+     */
+    private Response validateFileName(String uploadedFileName) {
+        if (uploadedFileName == null || uploadedFileName.isEmpty()) {
+            String errorMessage = "FileName Header is missing.\n";
+            log.error(errorMessage);
+            return Response.status(Response.Status.BAD_REQUEST).entity(errorMessage).build();
+        }
+        if (!uploadedFileName.matches(UploadServiceConstants.FILE_NAME_REGEX)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("FileName Header is in incorrect format.\n")
+                    .build();
+        }
+        // zstd and LZ4 files are only accepted when their codecs are installed, as they could not be published
+        String extension = uploadedFileName.substring(uploadedFileName.lastIndexOf('.') + 1);
+        if (!MGWFileCompression.fromExtension(extension).isAvailable()) {
+            return Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+                    .entity("Files compressed as " + extension + " are not supported by this server.\n").build();
+        }
+        return null;
+    }
+
+    private MGWFileInfoDTO createFileInfo(String uploadedFileName) {
+        long timeStamp = Long.parseLong(uploadedFileName.split("\\.")[2]);
+        return new MGWFileInfoDTO(uploadedFileName, timeStamp);
+    }
+
+    /**
+     * Creates the response of persisting an uploaded file. A file which was already uploaded is acknowledged without
+     * being persisted again, so that an upload can be safely retried.
+     * @param status outcome of persisting the file
+     * @param dto    uploaded file
+     * @return response to be returned
+     */
+    private Response createUploadResponse(MGWFileSourceDAO.UploadStatus status, MGWFileInfoDTO dto) {
+        switch (status) {
+            case PERSISTED:
+                log.info("Successfully uploaded the API Usage file [" + dto.getFileName() + "]");
+                //Signal the reader, so that the file is published without waiting for the next poll
+                MGWFileReaderScheduler.notifyFileUploaded();
+                return Response.status(Response.Status.CREATED).entity("File uploaded successfully.\n").build();
+            case DUPLICATE:
+                return Response.status(Response.Status.OK).entity("File was already uploaded.\n").build();
+            default:
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Content of the file does not match FileChecksum.\n").build();
+        }
+    }
+
+    /**
+     * Accepts an uploaded file into the spool, from which it is persisted in the background, so that the upload does
+     * not wait for the database.
+     * @param dto                 uploaded file
+     * @param uploadedInputStream content of the uploaded file
+     * @return response to be returned
+     * @throws MGWFileSourceException if the file cannot be spooled
+     */
+    private Response spoolUploadedFile(MGWFileInfoDTO dto, InputStream uploadedInputStream)
+            throws MGWFileSourceException {
+        String trackingId = UUID.randomUUID().toString();
+        switch (MGWFileUploadSpoolUtil.spool(trackingId, dto, uploadedInputStream)) {
+            case SPOOLED:
+                log.info("Accepted the API Usage file [" + dto.getFileName() + "] with tracking id [" + trackingId
+                        + "]");
+                //Signal the spool writer, so that the file is persisted without waiting for the next write
+                MGWFileSpoolWriter.notifyFileSpooled();
+                return Response.status(Response.Status.ACCEPTED)
+                        .header(UploadServiceConstants.UPLOAD_TRACKING_ID_HEADER, trackingId)
+                        .entity("File accepted for uploading.\n").build();
+            case SPOOL_FULL:
+                log.warn("Upload spool is full. Rejected the API Usage file [" + dto.getFileName() + "]");
+                return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("Upload spool is full.\n").build();
+            default:
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Content of the file does not match FileChecksum.\n").build();
+        }
+    }
+
+    private void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.warn("Failed to close the content of an upload session.", e);
+        }
+    }
+
+    private Response sessionNotFound(String sessionId) {
+        return Response.status(Response.Status.NOT_FOUND).entity("Upload session not found : " + sessionId + "\n")
+                .build();
+    }
+
+    /**
+     * Checks whether the request is made by a user with the admin role.
+     * @param httpHeaders headers of the request
+     * @return error response to be returned, or null if the user is authorized
+     */
+    private Response authorize(HttpHeaders httpHeaders) {
+        List<String> authorization = httpHeaders.getRequestHeader("Authorization");
+        //If no authorization information present; block access
+        if (authorization == null || authorization.isEmpty()) {
+            String errorMsg = "Received a request to micro gateway REST API without Authorization header";
+            log.error(errorMsg);
+            return Response.status(Response.Status.UNAUTHORIZED).entity(errorMsg).build();
+        }
+        AuthorizationCache authorizationCache = ServiceHolder.getInstance().getAuthorizationCache();
+        Boolean isAdmin = authorizationCache.get(authorization.get(0));
+        if (isAdmin == null) {
+            String userName = extractUsernameFromAuthHeader(authorization);
+            isAdmin = isUserAdmin(userName);
+            authorizationCache.put(authorization.get(0), userName, isAdmin);
+        }
+        if (!isAdmin) {
+            String errorMessage = "Authenticated user does not have admin role.\n";
+            log.error(errorMessage);
+            return Response.status(Response.Status.BAD_REQUEST).entity(errorMessage).build();
+        }
+        return null;
+    }
+
     /**
      * This method will return a boolean on whether the user has admin role or not.
      * @param userName username of the user who invoked the API
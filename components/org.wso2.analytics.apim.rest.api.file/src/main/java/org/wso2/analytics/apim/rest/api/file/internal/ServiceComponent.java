@@ -35,10 +35,12 @@ import org.wso2.carbon.analytics.idp.client.core.api.IdPClient;
 public class ServiceComponent {
     @Activate
     protected void start(BundleContext bundleContext) {
+        ServiceHolder.getInstance().getAuthorizationCache().register();
     }
 
     @Deactivate
     protected void stop() {
+        ServiceHolder.getInstance().getAuthorizationCache().unregister();
     }
 
     @Reference(
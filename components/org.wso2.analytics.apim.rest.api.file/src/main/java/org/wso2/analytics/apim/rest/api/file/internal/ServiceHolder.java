@@ -15,6 +15,7 @@
 */
 package org.wso2.analytics.apim.rest.api.file.internal;
 
+import org.wso2.analytics.apim.rest.api.file.util.AuthorizationCache;
 import org.wso2.carbon.analytics.idp.client.core.api.IdPClient;
 
 /**
@@ -23,6 +24,7 @@ import org.wso2.carbon.analytics.idp.client.core.api.IdPClient;
 public class ServiceHolder {
     private static ServiceHolder instance = new ServiceHolder();
     private IdPClient idPClient;
+    private final AuthorizationCache authorizationCache = new AuthorizationCache();
 
     private ServiceHolder() {
     }
@@ -42,6 +44,12 @@ public class ServiceHolder {
 
     public void setIdPClient(IdPClient idPClient) {
         this.idPClient = idPClient;
+        // authorizations resolved by a previous identity provider are no longer valid
+        authorizationCache.invalidateAll();
+    }
+
+    public AuthorizationCache getAuthorizationCache() {
+        return authorizationCache;
     }
 
 
@@ -0,0 +1,239 @@
+/*
+* Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.wso2.analytics.apim.rest.api.file.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileChecksumUtil;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Cache of the admin role resolution of the users invoking the usage API, so that the identity provider is not
+ * called on every upload. Entries are keyed by a SHA-256 hash of the Authorization header, so neither the credential
+ * nor a decision made for a different credential of the same user is kept. Granted authorizations are kept for
+ * {@code usage.upload.authorization.cache.ttl} milliseconds, while denied ones, including those denied as the
+ * identity provider failed, are kept for {@code usage.upload.authorization.cache.negative.ttl} milliseconds. The least
+ * recently used entry is evicted once {@code usage.upload.authorization.cache.size} entries are cached.
+ */
+public class AuthorizationCache implements AuthorizationCacheMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AuthorizationCache.class);
+
+    public static final String OBJECT_NAME = "org.wso2.analytics.apim:type=UsageAuthorizationCache";
+
+    private final long ttl;
+    private final long negativeTtl;
+    private final int maxSize;
+    private final Map<String, CachedAuthorization> entries;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public AuthorizationCache() {
+        this(Long.getLong(UploadServiceConstants.AUTHORIZATION_CACHE_TTL_PROPERTY,
+                UploadServiceConstants.DEFAULT_AUTHORIZATION_CACHE_TTL),
+                Long.getLong(UploadServiceConstants.AUTHORIZATION_CACHE_NEGATIVE_TTL_PROPERTY,
+                        UploadServiceConstants.DEFAULT_AUTHORIZATION_CACHE_NEGATIVE_TTL),
+                Integer.getInteger(UploadServiceConstants.AUTHORIZATION_CACHE_SIZE_PROPERTY,
+                        UploadServiceConstants.DEFAULT_AUTHORIZATION_CACHE_SIZE));
+    }
+
+    public AuthorizationCache(long ttl, long negativeTtl, int maxSize) {
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, CachedAuthorization>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAuthorization> eldest) {
+                if (size() > AuthorizationCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached authorization of the given credential.
+     *
+     * @param authorizationHeader value of the Authorization header
+     * @return whether the user has the admin role, or null if it is not cached
+     */
+    public Boolean get(String authorizationHeader) {
+        String key = hash(authorizationHeader);
+        synchronized (entries) {
+            CachedAuthorization entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiryTime > System.currentTimeMillis()) {
+                    hitCount.incrementAndGet();
+                    return entry.admin;
+                }
+                entries.remove(key);
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the authorization of the given credential.
+     *
+     * @param authorizationHeader value of the Authorization header
+     * @param userName            name of the user of the credential
+     * @param admin               whether the user has the admin role
+     */
+    public void put(String authorizationHeader, String userName, boolean admin) {
+        long entryTtl = admin ? ttl : negativeTtl;
+        if (entryTtl <= 0 || maxSize <= 0) {
+            return;
+        }
+        CachedAuthorization entry = new CachedAuthorization(userName, admin, System.currentTimeMillis() + entryTtl);
+        String key = hash(authorizationHeader);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    @Override
+    public int invalidateUser(String userName) {
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<CachedAuthorization> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().userName.equals(userName)) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Writes the metrics of the cache in the Prometheus text exposition format.
+     *
+     * @return metrics in the format of version 0.0.4
+     */
+    public String toPrometheusText() {
+        return "# HELP mgwfile_authorization_cache_hits_total Authorizations resolved from the cache.\n"
+                + "# TYPE mgwfile_authorization_cache_hits_total counter\n"
+                + "mgwfile_authorization_cache_hits_total " + getHitCount() + "\n"
+                + "# HELP mgwfile_authorization_cache_misses_total Authorizations resolved by the identity provider.\n"
+                + "# TYPE mgwfile_authorization_cache_misses_total counter\n"
+                + "mgwfile_authorization_cache_misses_total " + getMissCount() + "\n"
+                + "# HELP mgwfile_authorization_cache_evictions_total Authorizations evicted as the cache was full.\n"
+                + "# TYPE mgwfile_authorization_cache_evictions_total counter\n"
+                + "mgwfile_authorization_cache_evictions_total " + getEvictionCount() + "\n"
+                + "# HELP mgwfile_authorization_cache_size Authorizations in the cache.\n"
+                + "# TYPE mgwfile_authorization_cache_size gauge\n"
+                + "mgwfile_authorization_cache_size " + getSize() + "\n";
+    }
+
+    /**
+     * Registers the cache with the platform MBean server.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(this, AuthorizationCacheMXBean.class, true), name);
+            }
+        } catch (JMException e) {
+            log.error("Error occurred while registering the authorization cache with JMX.", e);
+        }
+    }
+
+    public void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.error("Error occurred while unregistering the authorization cache from JMX.", e);
+        }
+    }
+
+    private static String hash(String authorizationHeader) {
+        return MGWFileChecksumUtil.toHex(MGWFileChecksumUtil.newDigest()
+                .digest(authorizationHeader.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Cached authorization of a credential.
+     */
+    private static class CachedAuthorization {
+
+        private final String userName;
+        private final boolean admin;
+        private final long expiryTime;
+
+        CachedAuthorization(String userName, boolean admin, long expiryTime) {
+            this.userName = userName;
+            this.admin = admin;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+* Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.wso2.analytics.apim.rest.api.file.util;
+
+/**
+ * Management interface of the {@link AuthorizationCache}, registered as {@value AuthorizationCache#OBJECT_NAME}.
+ */
+public interface AuthorizationCacheMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    /**
+     * Ratio of the authorizations resolved from the cache.
+     *
+     * @return hit rate between 0 and 1, or 0 if there were no authorizations
+     */
+    double getHitRate();
+
+    long getEvictionCount();
+
+    int getSize();
+
+    /**
+     * Removes the cached authorizations of the given user, such as after changing the roles of the user.
+     *
+     * @param userName name of the user
+     * @return number of authorizations removed
+     */
+    int invalidateUser(String userName);
+
+    void invalidateAll();
+}
@@ -24,9 +24,50 @@ package org.wso2.analytics.apim.rest.api.file.util;
  */
 public final class UploadServiceConstants {
 
+    // The extension is the format of the file, which is detected from its content when it is published. zst and lz4
+    // files are rejected unless their codecs are installed
     public static final String FILE_NAME_REGEX =
-            "^api-usage-data\\.dat\\.(\\d{13})\\.([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}).zip$";
+            "^api-usage-data\\.dat\\.(\\d{13})\\.([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})"
+                    + "\\.(zip|gz|zst|lz4)$";
 
     public static final String FILE_NAME_HEADER = "FileName";
 
+    // Optional hex encoded SHA-256 checksum of the uploaded file, which lets duplicates be detected before reading it
+    public static final String FILE_CHECKSUM_HEADER = "FileChecksum";
+
+    // Headers of the resumable upload sessions
+    public static final String UPLOAD_SESSION_ID_HEADER = "UploadSessionId";
+
+    public static final String UPLOAD_OFFSET_HEADER = "UploadOffset";
+
+    public static final String CHUNK_OFFSET_HEADER = "ChunkOffset";
+
+    public static final String CHUNK_CHECKSUM_HEADER = "ChunkChecksum";
+
+    public static final String CHUNK_OFFSET_REGEX = "^\\d{1,18}$";
+
+    // Headers of the uploads accepted into the spool, which are persisted in the background
+    public static final String UPLOAD_TRACKING_ID_HEADER = "UploadTrackingId";
+
+    public static final String UPLOAD_STATUS_HEADER = "UploadStatus";
+
+    // Hex encoded SHA-256 checksum of a file or a chunk
+    public static final String CHECKSUM_REGEX = "^[0-9a-fA-F]{64}$";
+
+    // Cache of the admin role resolution of the users invoking the API. Times are in milliseconds
+    public static final String AUTHORIZATION_CACHE_TTL_PROPERTY = "usage.upload.authorization.cache.ttl";
+
+    public static final long DEFAULT_AUTHORIZATION_CACHE_TTL = 300000;
+
+    public static final String AUTHORIZATION_CACHE_NEGATIVE_TTL_PROPERTY =
+            "usage.upload.authorization.cache.negative.ttl";
+
+    public static final long DEFAULT_AUTHORIZATION_CACHE_NEGATIVE_TTL = 30000;
+
+    public static final String AUTHORIZATION_CACHE_SIZE_PROPERTY = "usage.upload.authorization.cache.size";
+
+    public static final int DEFAULT_AUTHORIZATION_CACHE_SIZE = 1000;
+
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+
+/**
+ * Persists the number of lines of a usage file which have been published, so that a file reclaimed after a node
+ * stopped is resumed after the last checkpoint instead of being published from the first line. The events are
+ * flushed to the listeners before each checkpoint, so only the events published after the last checkpoint can be
+ * published twice.
+ */
+public class MGWFileCheckpoint {
+
+    private static final Log log = LogFactory.getLog(MGWFileCheckpoint.class);
+
+    private final MGWFileInfoDTO infoDTO;
+    private final MGWFileEventPublisher eventPublisher;
+    private final long interval;
+    private long lastCheckpoint;
+
+    /**
+     * Constructor.
+     *
+     * @param infoDTO        file being published
+     * @param eventPublisher publisher of the events of the file, or null if the events are flushed before the lines
+     *                       are reported as published
+     * @param interval       number of lines between checkpoints, or zero to disable checkpoints
+     */
+    public MGWFileCheckpoint(MGWFileInfoDTO infoDTO, MGWFileEventPublisher eventPublisher, long interval) {
+        this.infoDTO = infoDTO;
+        this.eventPublisher = eventPublisher;
+        this.interval = interval;
+        this.lastCheckpoint = infoDTO.getCheckpoint();
+    }
+
+    /**
+     * Number of lines published before the file was reclaimed, which have to be skipped.
+     *
+     * @return line number to resume from
+     */
+    public long getResumeLine() {
+        return infoDTO.getCheckpoint();
+    }
+
+    /**
+     * Records that the lines up to the given line number have been handed over to the event publisher, persisting a
+     * checkpoint once the interval has passed since the last one.
+     *
+     * @param lineNumber number of lines of the file handed over to the event publisher
+     * @throws MGWFileSourceException if the lease of the file has been reclaimed by another node or the publishing
+     *                                thread has been interrupted
+     */
+    public void linesPublished(long lineNumber) throws MGWFileSourceException {
+        if (interval <= 0 || lineNumber - lastCheckpoint < interval) {
+            return;
+        }
+        if (eventPublisher != null) {
+            eventPublisher.flush();
+        }
+        boolean leaseHeld = true;
+        try {
+            leaseHeld = MGWFileSourceDAO.updateCheckpoint(infoDTO, lineNumber);
+        } catch (MGWFileSourceException e) {
+            // the next checkpoint is attempted after another interval, rather than failing the file
+            log.warn("Error occurred while persisting the checkpoint of file : " + infoDTO, e);
+        }
+        if (!leaseHeld) {
+            throw new MGWFileSourceException("Lease of file : " + infoDTO + " has been reclaimed. Stopped "
+                    + "publishing at line number : " + lineNumber);
+        }
+        lastCheckpoint = lineNumber;
+        if (Thread.currentThread().isInterrupted()) {
+            throw new MGWFileSourceException("Publishing of file : " + infoDTO + " has been interrupted. Stopped "
+                    + "publishing at line number : " + lineNumber);
+        }
+    }
+}
@@ -18,24 +18,40 @@
 
 package org.wso2.extension.siddhi.io.mgwfile;
 
-import io.siddhi.core.stream.input.source.SourceEventListener;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.databridge.commons.Event;
 import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
 import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
 import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderScheduler;
 import org.wso2.extension.siddhi.io.mgwfile.util.FileDataRetrieverUtil;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileBinaryEventReader;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileBinaryFormat;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileCompression;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileEventReader;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileEventTokenizer;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileProtobufEventReader;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileStagingUtil;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.util.Arrays;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -45,6 +61,9 @@ public class MGWFileDataRetriever implements Runnable {
 
     private static final Log log = LogFactory.getLog(MGWFileDataRetriever.class);
 
+    private static final Pattern DATA_ENTRY_PATTERN = Pattern
+            .compile(MGWFileSourceConstants.API_USAGE_OUTPUT_FILE_NAME_PATTERN);
+
     private MGWFileInfoDTO infoDTO;
 
     public MGWFileDataRetriever(MGWFileInfoDTO infoDTO) throws MGWFileSourceException {
@@ -59,95 +78,308 @@ public class MGWFileDataRetriever implements Runnable {
 
     private void publishEvents() {
 
-        InputStreamReader inputStreamReader = null;
-        BufferedReader bufferedReader = null;
+        long startTime = System.currentTimeMillis();
         InputStream fileContentStream = null;
-        ZipInputStream zipInputStream = null;
+        InputStream dataStream = null;
+        ZipFile zipFile = null;
         try {
-            //Get Content of the file and start processing
-            fileContentStream = MGWFileSourceDAO.getFileContent(infoDTO);
-            if (fileContentStream == null) {
-                log.warn("No content available in the file : " + infoDTO.toString()
-                        + ". Therefore, not publishing the record.");
-                MGWFileSourceDAO.updateCompletion(infoDTO);
-                return;
-            }
-            zipInputStream = new ZipInputStream(fileContentStream);
-            ZipEntry zipEntry = zipInputStream.getNextEntry();
-            String uploadedZipFileName = zipEntry.getName();
-            if (!uploadedZipFileName.isEmpty()) {
-                File name = new File(uploadedZipFileName);
-                uploadedZipFileName = name.getName();
+            MGWFileEventPublisher eventPublisher = new MGWFileEventPublisher(
+                    Integer.parseInt(MGWFileSourceDS.getEventBatchSize()));
+            MGWFileCheckpoint checkpoint = new MGWFileCheckpoint(infoDTO, eventPublisher,
+                    Long.parseLong(MGWFileSourceDS.getCheckpointInterval()));
+            int parallelism = Integer.parseInt(MGWFileSourceDS.getParseParallelism());
+            if (checkpoint.getResumeLine() > 0) {
+                log.info("Resuming publishing API usage in file : " + infoDTO.toString() + " after line number : "
+                        + checkpoint.getResumeLine());
+            } else if (parallelism > 1 && MGWFileStagingUtil.isStagingEnabled()) {
+                // entries of a staged file can be inflated independently
+                zipFile = openStagedZipFile();
             }
-
-            if (MGWFileSourceConstants.API_USAGE_OUTPUT_FILE_NAME.equals(uploadedZipFileName)) {
-                InputStream inputStream = zipInputStream;
-                inputStreamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-                bufferedReader = new BufferedReader(inputStreamReader);
-                String readLine;
-                String streamId, timeStamp, metaData, correlationData, payloadData;
-                String[] elements;
-                long lineNumber = 0;
-                while ((readLine = bufferedReader.readLine()) != null) {
-                    lineNumber++;
-                    try {
-                        elements = readLine.split(MGWFileSourceConstants.EVENT_SEPARATOR);
-                        //StreamID
-                        streamId = elements[0].split(MGWFileSourceConstants.KEY_VALUE_SEPARATOR)[1];
-                        //Timestamp
-                        timeStamp = elements[1].split(MGWFileSourceConstants.KEY_VALUE_SEPARATOR)[1];
-                        //MetaData
-                        metaData = elements[2].split(MGWFileSourceConstants.KEY_VALUE_SEPARATOR)[1];
-                        //correlationData
-                        correlationData = elements[3].split(MGWFileSourceConstants.KEY_VALUE_SEPARATOR)[1];
-                        //PayloadData
-                        payloadData = elements[4].split(MGWFileSourceConstants.KEY_VALUE_SEPARATOR)[1];
-                    } catch (RuntimeException e) {
-                        log.error("Event format does not match with the expected format in line number : " + lineNumber
-                                + " on file : " + infoDTO);
-                        // skip this line and continue with the next event in the file
-                        continue;
-                    }
-                    SourceEventListener eventSource = MGWFileSourceRegistrationManager.
-                            getStreamSpecificEventListenerMap().get(streamId);
-                    if (eventSource != null) {
-                        try {
-                            if (log.isDebugEnabled()) {
-                                log.debug("Sending events to the stream id: " + streamId);
-                            }
-                            eventSource.onEvent(new Event(streamId, Long.parseLong(timeStamp),
-                                    (Object[]) FileDataRetrieverUtil.createMetaData(metaData),
-                                    (Object[]) FileDataRetrieverUtil.createMetaData(correlationData),
-                                    FileDataRetrieverUtil.createPayload(streamId, payloadData)), null);
-                        } catch (NumberFormatException e) {
-                            log.error("Error occurred while executing onEvent for event : " + Arrays.toString(elements),
-                                    e);
-                        }
-                    } else {
-                        log.error("Unable to find eventsource for stream id: " + streamId);
+            List<ZipEntry> dataEntries = zipFile != null ? getDataEntries(zipFile) : Collections.<ZipEntry>emptyList();
+            if (dataEntries.size() > 1) {
+                new MGWFileEntryPipeline(infoDTO, checkpoint, parallelism,
+                        Integer.parseInt(MGWFileSourceDS.getEventBatchSize())).process(zipFile, dataEntries);
+            } else {
+                //Get Content of the file and start processing
+                fileContentStream = MGWFileSourceDAO.getFileContent(infoDTO);
+                if (fileContentStream == null) {
+                    log.warn("No content available in the file : " + infoDTO.toString()
+                            + ". Therefore, not publishing the record.");
+                    MGWFileReaderScheduler.completeFile(infoDTO);
+                    MGWFileSourceMetrics.fileProcessed(System.currentTimeMillis() - startTime);
+                    return;
+                }
+                PushbackInputStream contentStream = MGWFileCompression.wrap(fileContentStream);
+                MGWFileCompression compression = MGWFileCompression.detect(contentStream);
+                if (compression == MGWFileCompression.ZIP) {
+                    ZipInputStream zipInputStream = new ZipInputStream(contentStream);
+                    dataStream = zipInputStream;
+                    publishEntries(zipInputStream, eventPublisher, checkpoint, parallelism);
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Decompressing file : " + infoDTO.toString() + " as " + compression);
                     }
+                    dataStream = compression.decompress(contentStream);
+                    publishStream(dataStream, null, createParsePipeline(-1, 0, eventPublisher, checkpoint,
+                            parallelism), eventPublisher, checkpoint, 0, infoDTO.toString());
                 }
-            } else {
-                log.error(
-                        "Uploaded zip file name is: [ " + uploadedZipFileName + "], but the expected file name is: [ " +
-                        MGWFileSourceConstants.API_USAGE_OUTPUT_FILE_NAME + "]");
-                throw new MGWFileSourceException(
-                        "Error occurred since the uploaded zip file name is different from what is expected.");
-
+                eventPublisher.flush();
             }
-            //Update the database
-            MGWFileSourceDAO.updateCompletion(infoDTO);
+            // release the connection held by the content stream before updating the status
+            IOUtils.closeQuietly(dataStream);
+            IOUtils.closeQuietly(fileContentStream);
+            //Update the database along with the other files completed at the same time
+            MGWFileReaderScheduler.completeFile(infoDTO);
+            MGWFileSourceMetrics.fileProcessed(System.currentTimeMillis() - startTime);
             log.info("Completed publishing API Usage from file : " + infoDTO.toString());
         } catch (IOException e) {
             log.error("Error occurred while reading the API Usage file.", e);
+            abandonFile();
         } catch (MGWFileSourceException e) {
             log.error("Error occurred while publishing events to streams", e);
+            abandonFile();
+        } catch (RejectedExecutionException e) {
+            log.error("Error occurred while handing over the API Usage file : " + infoDTO.toString()
+                    + " to the parsing pool.", e);
+            abandonFile();
         } finally {
-            IOUtils.closeQuietly(inputStreamReader);
-            IOUtils.closeQuietly(bufferedReader);
             IOUtils.closeQuietly(fileContentStream);
-            IOUtils.closeQuietly(zipInputStream);
+            IOUtils.closeQuietly(dataStream);
+            IOUtils.closeQuietly(zipFile);
+        }
+    }
+
+    /**
+     * Publishes the usage data entries of the zip stream one after the other. Lines are numbered across the entries,
+     * so that a checkpoint refers to the lines of all the entries in the order they are stored.
+     */
+    private void publishEntries(ZipInputStream zipInputStream, MGWFileEventPublisher eventPublisher,
+                                MGWFileCheckpoint checkpoint, int parallelism)
+            throws IOException, MGWFileSourceException {
+        long lineOffset = 0;
+        int dataEntryCount = 0;
+        ZipEntry zipEntry;
+        while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+            if (!isDataEntry(zipEntry)) {
+                log.warn("Skipping entry : " + zipEntry.getName() + " of file : " + infoDTO.toString()
+                        + " as it is not a usage data entry.");
+                continue;
+            }
+            dataEntryCount++;
+            MGWFileParsePipeline parsePipeline = createParsePipeline(zipEntry.getSize(), lineOffset, eventPublisher,
+                    checkpoint, parallelism);
+            lineOffset += publishStream(zipInputStream, zipEntry.getName(), parsePipeline, eventPublisher,
+                    checkpoint, lineOffset, infoDTO.toString());
+        }
+        if (dataEntryCount == 0) {
+            log.error("Uploaded zip file does not contain an entry matching the expected file name: [ "
+                    + MGWFileSourceConstants.API_USAGE_OUTPUT_FILE_NAME_PATTERN + "]");
+            throw new MGWFileSourceException(
+                    "Error occurred since the uploaded zip file name is different from what is expected.");
+        }
+    }
+
+    /**
+     * Creates the pipeline parsing a text entry in parallel, if parallel parsing is enabled and the entry is larger
+     * than a chunk.
+     *
+     * @param size size of the inflated entry, or -1 if it is not known
+     * @return pipeline or null if the entry is parsed by the publishing thread
+     */
+    private MGWFileParsePipeline createParsePipeline(long size, long lineOffset, MGWFileEventPublisher eventPublisher,
+                                                     MGWFileCheckpoint checkpoint, int parallelism) {
+        int chunkSize = Integer.parseInt(MGWFileSourceDS.getParseChunkSize());
+        if (parallelism > 1 && (size < 0 || size > chunkSize)) {
+            return new MGWFileParsePipeline(infoDTO, eventPublisher, checkpoint, lineOffset, parallelism, chunkSize);
+        }
+        return null;
+    }
+
+    private ZipFile openStagedZipFile() throws MGWFileSourceException {
+        try {
+            return MGWFileStagingUtil.openStagedZipFile(infoDTO.getFileName());
+        } catch (IOException e) {
+            // not a zip file, such as a file compressed as a single stream
+            if (log.isDebugEnabled()) {
+                log.debug("Staged file : " + infoDTO.toString() + " is not a zip file.", e);
+            }
+            return null;
+        }
+    }
+
+    private List<ZipEntry> getDataEntries(ZipFile zipFile) {
+        List<ZipEntry> dataEntries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry zipEntry = entries.nextElement();
+            if (isDataEntry(zipEntry)) {
+                dataEntries.add(zipEntry);
+            }
+        }
+        return dataEntries;
+    }
+
+    private static boolean isDataEntry(ZipEntry zipEntry) {
+        if (zipEntry.isDirectory()) {
+            return false;
+        }
+        String entryName = new File(zipEntry.getName()).getName();
+        return DATA_ENTRY_PATTERN.matcher(entryName).matches();
+    }
+
+    /**
+     * Clears the lease of a file which could not be published, so that it is not reclaimed and published again. A
+     * file whose publishing thread was interrupted, as the scheduler is stopping, is released instead, so that it is
+     * published again from its last checkpoint.
+     */
+    private void abandonFile() {
+        MGWFileSourceMetrics.fileFailed();
+        // cleared while updating the database, as some drivers fail on an interrupted thread
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (interrupted) {
+                MGWFileSourceDAO.releaseFile(infoDTO);
+            } else {
+                MGWFileSourceDAO.clearLease(infoDTO);
+            }
+        } catch (MGWFileSourceException e) {
+            log.error("Error occurred while clearing the lease of file : " + infoDTO.toString(), e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Publishes the events of the given usage data stream, in the protobuf, binary or text format. Text is parsed by
+     * the given pipeline, or on the calling thread if there is none.
+     *
+     * @param inputStream    stream of the usage data, which is not closed as it may be a zip stream
+     * @param entryName      name of the usage data entry, or null if the usage data is not stored in an entry
+     * @param parsePipeline  pipeline parsing text in parallel, or null to parse it on the calling thread
+     * @param eventPublisher publisher of the events
+     * @param checkpoint     checkpoint of the file, or null if the lines are not checkpointed
+     * @param lineOffset     number of lines of the file read before the lines of the stream
+     * @param source         description of the usage data used when logging errors
+     * @return number of lines, or events of the protobuf and binary formats, read
+     * @throws IOException            if an error occurs while reading the file
+     * @throws MGWFileSourceException if the lease of the file has been reclaimed by another node
+     */
+    static long publishStream(InputStream inputStream, String entryName, MGWFileParsePipeline parsePipeline,
+                              MGWFileEventPublisher eventPublisher, MGWFileCheckpoint checkpoint, long lineOffset,
+                              String source) throws IOException, MGWFileSourceException {
+        // counts the inflated bytes
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        try {
+            PushbackInputStream dataStream = MGWFileBinaryFormat.wrap(countingStream);
+            MGWFileEventReader eventReader = openReader(entryName, dataStream);
+            if (eventReader != null) {
+                return publishEvents(eventReader, eventPublisher, checkpoint, lineOffset, source);
+            }
+            Reader reader = new InputStreamReader(dataStream, StandardCharsets.UTF_8);
+            if (parsePipeline != null) {
+                return parsePipeline.process(reader);
+            }
+            return publishSequentially(reader, eventPublisher, checkpoint, lineOffset, source);
+        } finally {
+            MGWFileSourceMetrics.bytesInflated(countingStream.getByteCount());
+        }
+    }
+
+    /**
+     * Opens a reader of the usage data stored as encoded events, the protobuf format being told by the entry name
+     * and the binary format by its magic bytes.
+     *
+     * @param entryName   name of the usage data entry, or null if the usage data is not stored in an entry
+     * @param inputStream stream of the usage data, the bytes read to detect the format are pushed back
+     * @return reader of the events, or null if the usage data is in the text format
+     * @throws IOException if an error occurs while reading the stream
+     */
+    private static MGWFileEventReader openReader(String entryName, PushbackInputStream inputStream)
+            throws IOException {
+        if (FileDataRetrieverUtil.isProtobufEntry(entryName)) {
+            return new MGWFileProtobufEventReader(inputStream);
+        }
+        if (MGWFileBinaryFormat.isBinaryFormat(inputStream)) {
+            return new MGWFileBinaryEventReader(inputStream);
+        }
+        return null;
+    }
+
+    /**
+     * Publishes the events of usage data stored as encoded events. Each event is counted as a line of the file.
+     */
+    private static long publishEvents(MGWFileEventReader reader, MGWFileEventPublisher eventPublisher,
+                                      MGWFileCheckpoint checkpoint, long lineOffset, String source)
+            throws IOException, MGWFileSourceException {
+        long resumeLine = checkpoint != null ? checkpoint.getResumeLine() : 0;
+        Event event = reader.next();
+        // skip the events published before the file was claimed again. The count is checked after reading, as the
+        // events of a skipped block are counted before the next event is returned
+        while (event != null && lineOffset + reader.getEventCount() <= resumeLine) {
+            event = reader.next();
+        }
+        while (event != null) {
+            if (checkpoint != null) {
+                // the events before the current one have been handed over to the publisher
+                checkpoint.linesPublished(lineOffset + reader.getEventCount() - 1);
+            }
+            if (!eventPublisher.add(event.getStreamId(), event)) {
+                log.error("Unable to find eventsource for stream id: " + event.getStreamId() + " on file : "
+                        + source);
+            }
+            event = reader.next();
+        }
+        return reader.getEventCount();
+    }
+
+    /**
+     * Publishes the events of the given reader on the calling thread.
+     *
+     * @param reader         reader of the inflated usage data
+     * @param eventPublisher publisher of the events
+     * @param checkpoint     checkpoint of the file, or null if the lines are not checkpointed
+     * @param lineOffset     number of lines of the file read before the lines of the reader
+     * @param source         description of the usage data used when logging errors
+     * @return number of lines read
+     * @throws IOException            if an error occurs while reading the file
+     * @throws MGWFileSourceException if the lease of the file has been reclaimed by another node
+     */
+    static long publishSequentially(Reader reader, MGWFileEventPublisher eventPublisher,
+                                    MGWFileCheckpoint checkpoint, long lineOffset, String source)
+            throws IOException, MGWFileSourceException {
+        MGWFileEventTokenizer tokenizer = new MGWFileEventTokenizer(reader);
+        long resumeLine = checkpoint != null ? checkpoint.getResumeLine() : 0;
+        while (lineOffset + tokenizer.getLineNumber() < resumeLine && tokenizer.skip()) {
+            // skip the lines published before the file was claimed again
+        }
+        while (tokenizer.next()) {
+            long lineNumber = lineOffset + tokenizer.getLineNumber();
+            if (checkpoint != null) {
+                // the lines before the current one have been handed over to the publisher
+                checkpoint.linesPublished(lineNumber - 1);
+            }
+            if (!tokenizer.isValid()) {
+                log.error("Event format does not match with the expected format in line number : "
+                        + lineNumber + " on file : " + source);
+                MGWFileSourceMetrics.parseErrors(1);
+                // skip this line and continue with the next event in the file
+                continue;
+            }
+            Event event;
+            try {
+                event = FileDataRetrieverUtil.createEvent(tokenizer);
+            } catch (NumberFormatException e) {
+                log.error("Error occurred while executing onEvent for event : " + tokenizer, e);
+                MGWFileSourceMetrics.parseErrors(1);
+                continue;
+            }
+            if (!eventPublisher.add(event.getStreamId(), event)) {
+                log.error("Unable to find eventsource for stream id: " + event.getStreamId());
+            }
         }
+        return tokenizer.getLineNumber();
     }
 
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile;
+
+import org.apache.commons.io.IOUtils;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Publishes the usage data entries of an uploaded zip file in parallel. Each entry is inflated, parsed and published
+ * by its own thread of a shared pool, with its own {@link MGWFileEventPublisher}, so the order of events is only kept
+ * within an entry. The file is completed once all its entries are published, and fails if any of them fails. A
+ * checkpoint is recorded as the entries complete in the order they are stored.
+ * <p>
+ * Entries are only read independently from a staged file, with a parse parallelism above 1, and unless the file is
+ * resumed from a checkpoint. The entries of a file read from the database are inflated one after the other, as they
+ * are read from a single stream.
+ */
+public class MGWFileEntryPipeline {
+
+    private static ExecutorService entryPool;
+
+    private final MGWFileInfoDTO infoDTO;
+    private final MGWFileCheckpoint checkpoint;
+    private final int batchSize;
+    private final ExecutorService pool;
+
+    public MGWFileEntryPipeline(MGWFileInfoDTO infoDTO, MGWFileCheckpoint checkpoint, int parallelism,
+                                int batchSize) {
+        this.infoDTO = infoDTO;
+        this.checkpoint = checkpoint;
+        this.batchSize = batchSize;
+        this.pool = getEntryPool(parallelism);
+    }
+
+    private static synchronized ExecutorService getEntryPool(int parallelism) {
+        if (entryPool == null) {
+            entryPool = Executors.newFixedThreadPool(parallelism,
+                    new MGWFileDataRetrieverThreadFactory("mgwfile-entry-thread"));
+        }
+        return entryPool;
+    }
+
+    /**
+     * Shuts down the shared entry pool. A new pool is created when a file is published again.
+     */
+    public static synchronized void shutdownPool() {
+        if (entryPool != null) {
+            entryPool.shutdownNow();
+            entryPool = null;
+        }
+    }
+
+    /**
+     * Publishes the given entries of the zip file and waits until all of them are published.
+     *
+     * @param zipFile uploaded zip file
+     * @param entries usage data entries of the zip file
+     * @throws MGWFileSourceException if publishing an entry fails or the thread is interrupted
+     */
+    public void process(ZipFile zipFile, List<ZipEntry> entries) throws MGWFileSourceException {
+        List<Future<Long>> entriesInFlight = new ArrayList<>(entries.size());
+        try {
+            for (ZipEntry entry : entries) {
+                entriesInFlight.add(pool.submit(new EntryPublisher(zipFile, entry)));
+            }
+            long publishedLineCount = 0;
+            for (int i = 0; i < entriesInFlight.size(); i++) {
+                publishedLineCount += getLineCount(entriesInFlight.get(i), entries.get(i));
+                checkpoint.linesPublished(publishedLineCount);
+            }
+        } finally {
+            for (Future<Long> entry : entriesInFlight) {
+                entry.cancel(true);
+            }
+        }
+    }
+
+    private long getLineCount(Future<Long> future, ZipEntry entry) throws MGWFileSourceException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MGWFileSourceException("Interrupted while publishing events of file : " + infoDTO, e);
+        } catch (ExecutionException e) {
+            throw new MGWFileSourceException("Error occurred while publishing entry : " + entry.getName()
+                    + " of file : " + infoDTO, e.getCause());
+        }
+    }
+
+    /**
+     * Inflates and publishes a single entry.
+     */
+    private class EntryPublisher implements Callable<Long> {
+
+        private final ZipFile zipFile;
+        private final ZipEntry entry;
+
+        EntryPublisher(ZipFile zipFile, ZipEntry entry) {
+            this.zipFile = zipFile;
+            this.entry = entry;
+        }
+
+        @Override
+        public Long call() throws IOException, MGWFileSourceException {
+            InputStream inputStream = zipFile.getInputStream(entry);
+            try {
+                MGWFileEventPublisher eventPublisher = new MGWFileEventPublisher(batchSize);
+                long lineCount = MGWFileDataRetriever.publishStream(inputStream, entry.getName(), null,
+                        eventPublisher, null, 0, infoDTO + " entry : " + entry.getName());
+                eventPublisher.flush();
+                return lineCount;
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+    }
+}
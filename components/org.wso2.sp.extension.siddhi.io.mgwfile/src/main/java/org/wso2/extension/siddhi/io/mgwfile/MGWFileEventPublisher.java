@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile;
+
+import io.siddhi.core.stream.input.source.SourceEventListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.databridge.commons.Event;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects the events read from an uploaded usage file into per stream batches and delivers each batch to the
+ * registered {@link SourceEventListener}s with a single onEvent call each. The routing table is resolved once when
+ * the publisher is created, so sources registered while a file is being published receive the events of the next
+ * file. Instances are not thread safe and are meant to be used by a single {@link MGWFileDataRetriever}.
+ */
+public class MGWFileEventPublisher {
+
+    private static final Log log = LogFactory.getLog(MGWFileEventPublisher.class);
+
+    private final int batchSize;
+    private final Map<String, SourceEventListener[]> eventListeners;
+    private final Map<String, EventBatch> batches = new HashMap<>();
+    // events of streams without a listener, recorded in the metrics when flushed
+    private final Map<String, long[]> unroutedEventCounts = new HashMap<>();
+
+    public MGWFileEventPublisher(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        this.eventListeners = MGWFileSourceRegistrationManager.getStreamSpecificEventListenerMap();
+    }
+
+    /**
+     * Adds an event to the batch of its stream, publishing the batch once it is full.
+     *
+     * @param streamId stream id of the event
+     * @param event    event to be published
+     * @return false if there is no event listener registered for the stream
+     * @throws MGWFileSourceException if the publishing thread is interrupted while publishing is paused
+     */
+    public boolean add(String streamId, Event event) throws MGWFileSourceException {
+        EventBatch batch = batches.get(streamId);
+        if (batch == null) {
+            SourceEventListener[] eventSources = eventListeners.get(streamId);
+            if (eventSources == null) {
+                long[] count = unroutedEventCounts.get(streamId);
+                if (count == null) {
+                    count = new long[1];
+                    unroutedEventCounts.put(streamId, count);
+                }
+                count[0]++;
+                return false;
+            }
+            batch = new EventBatch(streamId, eventSources, batchSize);
+            batches.put(streamId, batch);
+        }
+        batch.add(event);
+        if (batch.isFull()) {
+            batch.publish();
+        }
+        return true;
+    }
+
+    /**
+     * Publishes the remaining events of all the streams.
+     *
+     * @throws MGWFileSourceException if the publishing thread is interrupted while publishing is paused
+     */
+    public void flush() throws MGWFileSourceException {
+        for (EventBatch batch : batches.values()) {
+            batch.publish();
+        }
+        for (Map.Entry<String, long[]> entry : unroutedEventCounts.entrySet()) {
+            MGWFileSourceMetrics.eventsParsed(entry.getKey(), entry.getValue()[0]);
+        }
+        unroutedEventCounts.clear();
+    }
+
+    /**
+     * Events of a single stream waiting to be published.
+     */
+    private static class EventBatch {
+
+        private final String streamId;
+        private final SourceEventListener[] eventSources;
+        private Event[] events;
+        private int size;
+
+        EventBatch(String streamId, SourceEventListener[] eventSources, int batchSize) {
+            this.streamId = streamId;
+            this.eventSources = eventSources;
+            this.events = new Event[batchSize];
+        }
+
+        void add(Event event) {
+            events[size++] = event;
+        }
+
+        boolean isFull() {
+            return size == events.length;
+        }
+
+        void publish() throws MGWFileSourceException {
+            if (size == 0) {
+                return;
+            }
+            // hold back the batch while Siddhi is paused
+            try {
+                MGWFilePublishGate.awaitOpen();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MGWFileSourceException("Interrupted while publishing of events to the stream id: "
+                        + streamId + " is paused", e);
+            }
+            Event[] batch = size == events.length ? events : Arrays.copyOf(events, size);
+            if (log.isDebugEnabled()) {
+                log.debug("Sending " + size + " events to the stream id: " + streamId);
+            }
+            // a new array is used for the next batch as the listeners may still hold a reference to this one
+            events = new Event[events.length];
+            MGWFileSourceMetrics.eventsParsed(streamId, size);
+            size = 0;
+            // the listeners only read the batch, so the same array is delivered to all of them
+            for (SourceEventListener eventSource : eventSources) {
+                eventSource.onEvent(batch, null);
+            }
+            MGWFileSourceMetrics.eventsPublished(streamId, batch.length);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.databridge.commons.Event;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
+import org.wso2.extension.siddhi.io.mgwfile.util.FileDataRetrieverUtil;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileEventTokenizer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Staged pipeline used to publish large usage files. The calling thread inflates the file and slices it into chunks
+ * of whole lines, the chunks are parsed in parallel on a shared {@link ForkJoinPool}, and the parsed chunks are
+ * published by the calling thread in the order they were read. The number of chunks in flight is bounded, so the
+ * memory used by a file does not depend on its size. Lines published before the file was claimed again are dropped
+ * while slicing, and a checkpoint is recorded as the chunks are published.
+ */
+public class MGWFileParsePipeline {
+
+    private static final Log log = LogFactory.getLog(MGWFileParsePipeline.class);
+
+    private static ForkJoinPool parsePool;
+
+    private final MGWFileInfoDTO infoDTO;
+    private final MGWFileEventPublisher eventPublisher;
+    private final MGWFileCheckpoint checkpoint;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final ForkJoinPool pool;
+    private long publishedLineCount;
+    private long linesToSkip;
+
+    /**
+     * Constructor.
+     *
+     * @param infoDTO        file being published
+     * @param eventPublisher publisher of the events of the file
+     * @param checkpoint     checkpoint of the file
+     * @param lineOffset     number of lines of the file read before the lines to be processed
+     * @param parallelism    number of threads parsing the chunks
+     * @param chunkSize      number of characters in a chunk
+     */
+    public MGWFileParsePipeline(MGWFileInfoDTO infoDTO, MGWFileEventPublisher eventPublisher,
+                                MGWFileCheckpoint checkpoint, long lineOffset, int parallelism, int chunkSize) {
+        this.infoDTO = infoDTO;
+        this.eventPublisher = eventPublisher;
+        this.checkpoint = checkpoint;
+        this.publishedLineCount = lineOffset;
+        this.linesToSkip = Math.max(0, checkpoint.getResumeLine() - lineOffset);
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = 2 * parallelism;
+        this.pool = getParsePool(parallelism);
+    }
+
+    private static synchronized ForkJoinPool getParsePool(int parallelism) {
+        if (parsePool == null) {
+            parsePool = new ForkJoinPool(parallelism);
+        }
+        return parsePool;
+    }
+
+    /**
+     * Shuts down the shared parse pool. A new pool is created when a file is published again.
+     */
+    public static synchronized void shutdownPool() {
+        if (parsePool != null) {
+            parsePool.shutdownNow();
+            parsePool = null;
+        }
+    }
+
+    /**
+     * Reads all the lines of the given reader and publishes the events through the event publisher.
+     *
+     * @param reader reader of the inflated usage data
+     * @return number of lines read
+     * @throws IOException            if an error occurs while reading the file
+     * @throws MGWFileSourceException if parsing a chunk fails unexpectedly or the thread is interrupted
+     */
+    public long process(Reader reader) throws IOException, MGWFileSourceException {
+        long lineOffset = publishedLineCount;
+        Deque<Future<ParsedChunk>> chunksInFlight = new ArrayDeque<>();
+        try {
+            char[] buffer = new char[chunkSize];
+            int length = 0;
+            boolean endOfStream = false;
+            while (!endOfStream) {
+                int read = reader.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    endOfStream = true;
+                } else {
+                    length += read;
+                    if (length < buffer.length) {
+                        continue;
+                    }
+                }
+                int chunkEnd = endOfStream ? length : lastLineEnd(buffer, length);
+                if (chunkEnd == 0) {
+                    if (endOfStream) {
+                        break;
+                    }
+                    // a single line does not fit in the buffer
+                    char[] newBuffer = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                    continue;
+                }
+                char[] nextBuffer = new char[Math.max(chunkSize, length - chunkEnd)];
+                System.arraycopy(buffer, chunkEnd, nextBuffer, 0, length - chunkEnd);
+                int chunkStart = skipLines(buffer, chunkEnd);
+                if (chunkStart > 0 && chunkStart < chunkEnd) {
+                    System.arraycopy(buffer, chunkStart, buffer, 0, chunkEnd - chunkStart);
+                }
+                if (chunkStart < chunkEnd) {
+                    submit(chunksInFlight, buffer, chunkEnd - chunkStart);
+                }
+                buffer = nextBuffer;
+                length = length - chunkEnd;
+            }
+            while (!chunksInFlight.isEmpty()) {
+                publish(chunksInFlight.poll());
+            }
+            return publishedLineCount - lineOffset;
+        } finally {
+            for (Future<ParsedChunk> chunk : chunksInFlight) {
+                chunk.cancel(false);
+            }
+        }
+    }
+
+    private void submit(Deque<Future<ParsedChunk>> chunksInFlight, char[] data, int length)
+            throws MGWFileSourceException {
+        while (!chunksInFlight.isEmpty()
+                && (chunksInFlight.size() >= maxChunksInFlight || chunksInFlight.peek().isDone())) {
+            publish(chunksInFlight.poll());
+        }
+        chunksInFlight.add(pool.submit(new ChunkParser(data, length)));
+    }
+
+    private void publish(Future<ParsedChunk> future) throws MGWFileSourceException {
+        ParsedChunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MGWFileSourceException("Interrupted while publishing events of file : " + infoDTO, e);
+        } catch (ExecutionException e) {
+            throw new MGWFileSourceException("Error occurred while parsing events of file : " + infoDTO,
+                    e.getCause());
+        }
+        MGWFileSourceMetrics.parseErrors(chunk.errors.size());
+        for (ParseError error : chunk.errors) {
+            parseError(publishedLineCount + error.lineNumber, error.cause);
+        }
+        for (Event event : chunk.events) {
+            if (!eventPublisher.add(event.getStreamId(), event)) {
+                log.error("Unable to find eventsource for stream id: " + event.getStreamId());
+            }
+        }
+        publishedLineCount += chunk.lineCount;
+        checkpoint.linesPublished(publishedLineCount);
+    }
+
+    /**
+     * Reports a line which could not be parsed.
+     *
+     * @param lineNumber line number from the start of the file
+     * @param cause      error raised while creating the event, or null if the line does not match the event format
+     */
+    void parseError(long lineNumber, Exception cause) {
+        if (cause == null) {
+            log.error("Event format does not match with the expected format in line number : " + lineNumber
+                    + " on file : " + infoDTO);
+        } else {
+            log.error("Error occurred while executing onEvent for event in line number : " + lineNumber
+                    + " on file : " + infoDTO, cause);
+        }
+    }
+
+    /**
+     * Skips the lines at the start of a chunk which were published before the file was claimed again. Skipped lines
+     * are counted as published, so that line numbers stay relative to the start of the file.
+     *
+     * @return offset of the first line to be published
+     */
+    private int skipLines(char[] buffer, int length) {
+        int start = 0;
+        while (linesToSkip > 0 && start < length) {
+            int lineEnd = start;
+            while (lineEnd < length && buffer[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            start = lineEnd + 1;
+            linesToSkip--;
+            publishedLineCount++;
+        }
+        return Math.min(start, length);
+    }
+
+    private static int lastLineEnd(char[] buffer, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parses the events of a chunk of whole lines.
+     */
+    private static class ChunkParser implements Callable<ParsedChunk> {
+
+        private final char[] data;
+        private final int length;
+
+        ChunkParser(char[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        @Override
+        public ParsedChunk call() throws IOException {
+            ParsedChunk chunk = new ParsedChunk();
+            MGWFileEventTokenizer tokenizer = new MGWFileEventTokenizer(data, length);
+            while (tokenizer.next()) {
+                if (!tokenizer.isValid()) {
+                    chunk.errors.add(new ParseError(tokenizer.getLineNumber(), null));
+                    continue;
+                }
+                try {
+                    chunk.events.add(FileDataRetrieverUtil.createEvent(tokenizer));
+                } catch (NumberFormatException e) {
+                    chunk.errors.add(new ParseError(tokenizer.getLineNumber(), e));
+                }
+            }
+            chunk.lineCount = tokenizer.getLineNumber();
+            return chunk;
+        }
+    }
+
+    /**
+     * Events and errors of a parsed chunk.
+     */
+    private static class ParsedChunk {
+        private final List<Event> events = new ArrayList<>();
+        private final List<ParseError> errors = new ArrayList<>();
+        private long lineCount;
+    }
+
+    /**
+     * A line of a chunk which could not be parsed.
+     */
+    private static class ParseError {
+        private final long lineNumber;
+        private final Exception cause;
+
+        ParseError(long lineNumber, Exception cause) {
+            this.lineNumber = lineNumber;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gate shared by all the mgwfile sources, closed while any of them is paused by Siddhi. Publishing threads wait at
+ * the gate before delivering each batch of events, so files being published stop at a batch boundary instead of
+ * pushing events into a paused Siddhi app, and continue where they stopped once the gate is opened. Since a batch is
+ * delivered to all the sources of its stream, a single paused source holds back all the publishing threads.
+ * <p>
+ * Checking an open gate is a single volatile read. The leases of the files held back are still renewed by the
+ * {@link org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderTask}, so they are not reclaimed by other nodes.
+ */
+public class MGWFilePublishGate {
+
+    private static final Log log = LogFactory.getLog(MGWFilePublishGate.class);
+
+    private static final Object lock = new Object();
+    private static volatile int pausedSourceCount;
+    private static long pausedSince;
+    private static long pausedTime;
+
+    private static final AtomicLong pauseCount = new AtomicLong();
+    private static final AtomicLong blockedTime = new AtomicLong();
+    private static final AtomicInteger blockedPublisherCount = new AtomicInteger();
+
+    private MGWFilePublishGate() {
+    }
+
+    /**
+     * Closes the gate on behalf of a source. Each call must be followed by a call to {@link #resume()}.
+     */
+    public static void pause() {
+        synchronized (lock) {
+            if (pausedSourceCount++ == 0) {
+                pausedSince = System.currentTimeMillis();
+                pauseCount.incrementAndGet();
+                log.info("Paused publishing micro-gateway API Usage data.");
+            }
+        }
+    }
+
+    /**
+     * Opens the gate on behalf of a source, releasing the waiting publishing threads once no source is paused.
+     */
+    public static void resume() {
+        synchronized (lock) {
+            if (pausedSourceCount == 0) {
+                return;
+            }
+            if (--pausedSourceCount == 0) {
+                long duration = System.currentTimeMillis() - pausedSince;
+                pausedTime += duration;
+                log.info("Resumed publishing micro-gateway API Usage data after being paused for " + duration
+                        + " ms.");
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public static boolean isPaused() {
+        return pausedSourceCount > 0;
+    }
+
+    /**
+     * Blocks the calling publishing thread while the gate is closed.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting, in which case the events held back must
+     *                              not be published
+     */
+    public static void awaitOpen() throws InterruptedException {
+        if (pausedSourceCount == 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        blockedPublisherCount.incrementAndGet();
+        try {
+            synchronized (lock) {
+                while (pausedSourceCount > 0) {
+                    lock.wait();
+                }
+            }
+        } finally {
+            blockedPublisherCount.decrementAndGet();
+            blockedTime.addAndGet(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Total time the gate has been closed, including the current pause.
+     *
+     * @return paused time in milliseconds
+     */
+    public static long getPausedTime() {
+        synchronized (lock) {
+            return pausedSourceCount > 0 ? pausedTime + System.currentTimeMillis() - pausedSince : pausedTime;
+        }
+    }
+
+    /**
+     * Number of times the gate has been closed.
+     *
+     * @return pause count
+     */
+    public static long getPauseCount() {
+        return pauseCount.get();
+    }
+
+    /**
+     * Total time publishing threads have spent waiting at the gate.
+     *
+     * @return blocked time in milliseconds
+     */
+    public static long getBlockedTime() {
+        return blockedTime.get();
+    }
+
+    /**
+     * Number of publishing threads waiting at the gate.
+     *
+     * @return blocked publisher count
+     */
+    public static int getBlockedPublisherCount() {
+        return blockedPublisherCount.get();
+    }
+}
@@ -26,6 +26,18 @@ public class MGWFileSourceConstants {
 
     public static final String API_USAGE_OUTPUT_FILE_NAME = "api-usage-data.dat";
 
+    // Usage data entries of an uploaded zip file, such as api-usage-data.dat or api-usage-data-0001.pb
+    public static final String API_USAGE_OUTPUT_FILE_NAME_PATTERN = "api-usage-data(-\\d+)?\\.(dat|bin|pb)";
+
+    // Extension of the usage data entries holding length delimited protobuf messages
+    public static final String PROTOBUF_ENTRY_EXTENSION = ".pb";
+
+    public static final String REQUEST_STREAM_ID = "org.wso2.apimgt.statistics.request:3.0.0";
+
+    public static final String THROTTLE_STREAM_ID = "org.wso2.apimgt.statistics.throttle:3.0.0";
+
+    public static final String FAULT_STREAM_ID = "org.wso2.apimgt.statistics.fault:3.0.0";
+
     public static final String UPLOADED_USAGE_PUBLISH_FREQUENCY_PROPERTY = "usage.publishing.frequency";
 
     public static final String UPLOADED_USAGE_CLEANUP_FREQUENCY_PROPERTY = "usage.cleanup.frequency";
@@ -36,49 +48,169 @@ public class MGWFileSourceConstants {
 
     public static final String WORKER_THREAD_COUNT_PROPERTY = "usage.publishing.thread.count";
 
+    public static final String EVENT_BATCH_SIZE_PROPERTY = "usage.publishing.batch.size";
+
+    public static final String DEFAULT_EVENT_BATCH_SIZE = "100";
+
+    public static final String PARSE_PARALLELISM_PROPERTY = "usage.publishing.parse.parallelism";
+
+    public static final String DEFAULT_PARSE_PARALLELISM = "1";
+
+    public static final String PARSE_CHUNK_SIZE_PROPERTY = "usage.publishing.parse.chunk.size";
+
+    public static final String DEFAULT_PARSE_CHUNK_SIZE = "262144";
+
+    public static final String CHECKPOINT_INTERVAL_PROPERTY = "usage.publishing.checkpoint.interval";
+
+    public static final String DEFAULT_CHECKPOINT_INTERVAL = "10000";
+
     public static final String DEFAULT_UPLOADED_USAGE_PUBLISH_FREQUENCY = "300000";
 
     public static final String DEFAULT_UPLOADED_USAGE_CLEANUP_FREQUENCY = "1800000";
 
+    public static final String CLEANUP_CHUNK_SIZE_PROPERTY = "usage.cleanup.chunk.size";
+
+    public static final String DEFAULT_CLEANUP_CHUNK_SIZE = "100";
+
+    public static final String CLEANUP_CHUNK_INTERVAL_PROPERTY = "usage.cleanup.chunk.interval";
+
+    public static final String DEFAULT_CLEANUP_CHUNK_INTERVAL = "1000";
+
     public static final String INSERT_UPLOADED_FILE_INFO_QUERY = "INSERT INTO AM_USAGE_UPLOADED_FILES "
-            + "(FILE_NAME,FILE_TIMESTAMP,FILE_CONTENT) VALUES(?,?,?)";
+            + "(FILE_NAME,FILE_TIMESTAMP,FILE_CONTENT,FILE_CONTENT_HASH) VALUES(?,?,?,?)";
+
+    public static final String INSERT_UPLOADED_FILE_METADATA_QUERY = "INSERT INTO AM_USAGE_UPLOADED_FILES "
+            + "(FILE_NAME,FILE_TIMESTAMP,FILE_CONTENT_HASH) VALUES(?,?,?)";
+
+    // The checksum is only known once the content is read, so it replaces a placeholder after inserting the file.
+    // The unique index on the checksum makes a concurrent upload of the same content fail
+    public static final String UPDATE_FILE_CONTENT_HASH_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_CONTENT_HASH=? WHERE FILE_NAME=?";
+
+    public static final String GET_UPLOADED_FILE_BY_NAME_QUERY = "SELECT FILE_NAME FROM AM_USAGE_UPLOADED_FILES "
+            + "WHERE FILE_NAME=?";
+
+    public static final String GET_UPLOADED_FILE_STATE_QUERY = "SELECT FILE_PROCESSED FROM AM_USAGE_UPLOADED_FILES "
+            + "WHERE FILE_NAME=?";
+
+    public static final String GET_UPLOADED_FILE_BY_CONTENT_HASH_QUERY = "SELECT FILE_NAME "
+            + "FROM AM_USAGE_UPLOADED_FILES WHERE FILE_CONTENT_HASH=? AND FILE_NAME<>?";
+
+    // Claims are made with a single statement per dialect, marking the next files with a unique lease owner
+    public static final String CLAIM_NEXT_FILES_QUERY_DEFAULT = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=1, FILE_OWNER=?, FILE_LEASE_EXPIRY=? WHERE FILE_PROCESSED=0 "
+            + "ORDER BY FILE_TIMESTAMP LIMIT ?";
+
+    public static final String CLAIM_NEXT_FILES_QUERY_POSTGRESQL = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=1, FILE_OWNER=?, FILE_LEASE_EXPIRY=? WHERE FILE_PROCESSED=0 AND FILE_NAME IN "
+            + "(SELECT FILE_NAME FROM AM_USAGE_UPLOADED_FILES WHERE FILE_PROCESSED=0 "
+            + "ORDER BY FILE_TIMESTAMP LIMIT ? FOR UPDATE SKIP LOCKED)";
+
+    public static final String CLAIM_NEXT_FILES_QUERY_MSSQL = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=1, FILE_OWNER=?, FILE_LEASE_EXPIRY=? WHERE FILE_PROCESSED=0 AND FILE_NAME IN "
+            + "(SELECT TOP (?) FILE_NAME FROM AM_USAGE_UPLOADED_FILES WITH (UPDLOCK, READPAST, ROWLOCK) "
+            + "WHERE FILE_PROCESSED=0 ORDER BY FILE_TIMESTAMP)";
 
-    public static final String GET_NEXT_FILES_TO_PROCESS_QUERY_DEFAULT =
-            "SELECT FILE_NAME,FILE_TIMESTAMP FROM AM_USAGE_UPLOADED_FILES "
-                    + "WHERE FILE_PROCESSED=0 ORDER BY FILE_TIMESTAMP LIMIT ? FOR UPDATE;";
+    public static final String CLAIM_NEXT_FILES_QUERY_DB2 = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=1, FILE_OWNER=?, FILE_LEASE_EXPIRY=? WHERE FILE_PROCESSED=0 AND FILE_NAME IN "
+            + "(SELECT FILE_NAME FROM AM_USAGE_UPLOADED_FILES WHERE FILE_PROCESSED=0 "
+            + "ORDER BY FILE_TIMESTAMP FETCH FIRST ? ROWS ONLY)";
 
-    public static final String GET_NEXT_FILES_TO_PROCESS_QUERY_ORACLE = "SELECT FILE_NAME,FILE_TIMESTAMP "
-            + "FROM AM_USAGE_UPLOADED_FILES WHERE rownum<=? AND "
-            + "FILE_PROCESSED=0 ORDER BY FILE_TIMESTAMP FOR UPDATE";
+    // Informix allows neither FIRST in a subquery nor a host variable for FIRST, so the next files are selected
+    // with the limit formatted into the query and then claimed by name
+    public static final String SELECT_NEXT_FILES_QUERY_INFORMIX = "SELECT FIRST %d FILE_NAME "
+            + "FROM AM_USAGE_UPLOADED_FILES WHERE FILE_PROCESSED=0 ORDER BY FILE_TIMESTAMP";
 
-    public static final String GET_NEXT_FILES_TO_PROCESS_QUERY_MSSQL = "SELECT TOP (?) FILE_NAME,"
-            + "FILE_TIMESTAMP FROM AM_USAGE_UPLOADED_FILES WITH (UPDLOCK) "
-            + "WHERE FILE_PROCESSED=0 ORDER BY FILE_TIMESTAMP";
+    // Oracle allows neither FOR UPDATE on a subquery limited with ROWNUM nor a row limit with SKIP LOCKED, so the
+    // waiting files are locked as they are fetched, skipping the files locked by another node, and only the first
+    // ones are claimed by name
+    public static final String SELECT_NEXT_FILES_QUERY_ORACLE = "SELECT FILE_NAME FROM AM_USAGE_UPLOADED_FILES "
+            + "WHERE FILE_PROCESSED=0 ORDER BY FILE_TIMESTAMP FOR UPDATE SKIP LOCKED";
 
-    public static final String GET_NEXT_FILES_TO_PROCESS_QUERY_DB2 =
-            "SELECT FILE_NAME,FILE_TIMESTAMP FROM AM_USAGE_UPLOADED_FILES WHERE FILE_PROCESSED IN " +
-                    "(SELECT FILE_PROCESSED FROM AM_USAGE_UPLOADED_FILES WHERE FILE_PROCESSED=0 " +
-                    "ORDER BY FILE_TIMESTAMP LIMIT ?) FOR UPDATE";
+    public static final String CLAIM_FILE_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=1, FILE_OWNER=?, FILE_LEASE_EXPIRY=? WHERE FILE_PROCESSED=0 AND FILE_NAME=?";
 
-    public static final String UPDATE_FILE_PROCESSING_STARTED_STATUS = "UPDATE AM_USAGE_UPLOADED_FILES "
-            + "SET FILE_PROCESSED=1 WHERE FILE_PROCESSED=0 AND FILE_NAME = ?";
+    public static final String GET_CLAIMED_FILES_QUERY = "SELECT FILE_NAME,FILE_TIMESTAMP,FILE_CHECKPOINT "
+            + "FROM AM_USAGE_UPLOADED_FILES WHERE FILE_OWNER=? AND FILE_PROCESSED=1 ORDER BY FILE_TIMESTAMP";
 
-    public static final String DELETE_OLD_UPLOAD_COMPLETED_FILES = "DELETE FROM AM_USAGE_UPLOADED_FILES "
-            + "WHERE FILE_PROCESSED=2 AND FILE_TIMESTAMP < ?";
+    public static final String RENEW_FILE_LEASE_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_LEASE_EXPIRY=? WHERE FILE_PROCESSED=1 AND FILE_NAME=? AND FILE_OWNER=?";
+
+    public static final String UPDATE_FILE_CHECKPOINT_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_CHECKPOINT=? WHERE FILE_PROCESSED=1 AND FILE_NAME=? AND FILE_OWNER=?";
+
+    public static final String RECLAIM_EXPIRED_FILE_LEASES_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=0, FILE_OWNER=NULL, FILE_LEASE_EXPIRY=NULL "
+            + "WHERE FILE_PROCESSED=1 AND FILE_LEASE_EXPIRY < ?";
+
+    public static final String GET_OLDEST_UNPROCESSED_FILE_QUERY = "SELECT MIN(FILE_TIMESTAMP) "
+            + "FROM AM_USAGE_UPLOADED_FILES WHERE FILE_PROCESSED=0";
+
+    public static final String RELEASE_FILE_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_PROCESSED=0, FILE_OWNER=NULL, FILE_LEASE_EXPIRY=NULL "
+            + "WHERE FILE_PROCESSED=1 AND FILE_NAME=? AND FILE_OWNER=?";
+
+    public static final String CLEAR_FILE_LEASE_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
+            + "SET FILE_LEASE_EXPIRY=NULL WHERE FILE_NAME=? AND FILE_OWNER=?";
+
+    public static final String DELETE_UPLOAD_COMPLETED_FILE = "DELETE FROM AM_USAGE_UPLOADED_FILES "
+            + "WHERE FILE_NAME=? AND FILE_PROCESSED=2";
+
+    public static final String GET_OLD_UPLOAD_COMPLETED_FILES = "SELECT FILE_NAME FROM AM_USAGE_UPLOADED_FILES "
+            + "WHERE FILE_PROCESSED=2 AND FILE_TIMESTAMP < ? ORDER BY FILE_TIMESTAMP";
 
     public static final String GET_UPLOADED_FILE_CONTENT_QUERY = "SELECT FILE_CONTENT "
             + "FROM AM_USAGE_UPLOADED_FILES WHERE FILE_NAME=?";
 
+    // Size of the chunks in bytes, in which the content of an uploaded file is read from the database
+    public static final int FILE_CONTENT_CHUNK_SIZE = 65536;
+
     public static final String UPDATE_COMPETITION_QUERY = "UPDATE AM_USAGE_UPLOADED_FILES "
-            + "SET FILE_PROCESSED=2 WHERE FILE_NAME=?";
+            + "SET FILE_PROCESSED=2, FILE_LEASE_EXPIRY=NULL WHERE FILE_NAME=? AND FILE_OWNER=?";
 
     public static final String DEFAULT_WORKER_THREAD_COUNT = "3";
 
+    public static final String LEASE_TIMEOUT_PROPERTY = "usage.publishing.lease.timeout";
+
+    public static final String DEFAULT_LEASE_TIMEOUT = "1800000";
+
+    public static final String NODE_ID_PROPERTY = "usage.publishing.node.id";
+
+    public static final String STAGING_DIRECTORY_PROPERTY = "usage.staging.directory";
+
+    public static final String UPLOAD_SESSION_DIRECTORY_PROPERTY = "usage.upload.session.directory";
+
+    // Directory created in the temporary directory of the Java runtime when the session directory is not set
+    public static final String DEFAULT_UPLOAD_SESSION_DIRECTORY_NAME = "mgwfile-upload-sessions";
+
+    public static final String UPLOAD_SESSION_TIMEOUT_PROPERTY = "usage.upload.session.timeout";
+
+    public static final String DEFAULT_UPLOAD_SESSION_TIMEOUT = "86400000";
+
+    public static final String UPLOAD_SESSION_MAX_SIZE_PROPERTY = "usage.upload.session.max.size";
+
+    public static final String DEFAULT_UPLOAD_SESSION_MAX_SIZE = "1073741824";
+
+    // Uploaded files are accepted into the spool and persisted in the background when the spool directory is set
+    public static final String UPLOAD_SPOOL_DIRECTORY_PROPERTY = "usage.upload.spool.directory";
+
+    public static final String UPLOAD_SPOOL_SIZE_PROPERTY = "usage.upload.spool.size";
+
+    public static final String DEFAULT_UPLOAD_SPOOL_SIZE = "1073741824";
+
+    public static final String UPLOAD_SPOOL_BATCH_SIZE_PROPERTY = "usage.upload.spool.batch.size";
+
+    public static final String DEFAULT_UPLOAD_SPOOL_BATCH_SIZE = "20";
+
+    public static final String UPLOAD_SPOOL_WRITE_FREQUENCY_PROPERTY = "usage.upload.spool.write.frequency";
+
+    public static final String DEFAULT_UPLOAD_SPOOL_WRITE_FREQUENCY = "10000";
+
     public static final String DEFAULT_DATASOURCE = "APIM_ANALYTICS_DB";
 
     public static final String DATASOURCE_PROPERTY = "usage.datasource.name";
 
-    public static final String TABLE_EXISTENCE_SQL = "SELECT 1 FROM AM_USAGE_UPLOADED_FILES";
+    public static final String TABLE_EXISTENCE_SQL = "SELECT 1 FROM AM_USAGE_UPLOADED_FILES WHERE 1=0";
 
     // Separators used for persisting events
     public static final String EVENT_SEPARATOR = "-ES-";
@@ -30,9 +30,16 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 import org.wso2.carbon.datasource.core.api.DataSourceService;
 import org.wso2.carbon.datasource.core.exception.DataSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
 import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileCleanUpTask;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderScheduler;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileSpoolWriter;
 import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileSourceDBUtil;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSpoolUtil;
 
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -51,7 +58,25 @@ public class MGWFileSourceDS {
     private static String fileRetentionDays;
     private static String fileCleanupFrequency;
     private static String workerThreadCount;
+    private static String eventBatchSize;
+    private static String parseParallelism;
+    private static String parseChunkSize;
+    private static String stagingDirectory;
+    private static String uploadSessionDirectory;
+    private static String uploadSessionTimeout;
+    private static String uploadSessionMaxSize;
+    private static String uploadSpoolDirectory;
+    private static String uploadSpoolSize;
+    private static String uploadSpoolBatchSize;
+    private static String uploadSpoolWriteFrequency;
+    private static String nodeId;
+    private static String leaseTimeout;
+    private static String checkpointInterval;
+    private static String cleanupChunkSize;
+    private static String cleanupChunkInterval;
     private HikariDataSource dsObject;
+    private Timer cleanupTimer;
+    private TimerTask fileCleanupTask;
 
     /**
      * This is the activation method of MGWFileSource service. This will be called when its references are
@@ -66,10 +91,15 @@ public class MGWFileSourceDS {
             log.debug("MGWFileSource Component is started");
         }
         initializeSystemProperties();
+        MGWFileSourceMetrics.register();
         if (dsObject != null) {
-            TimerTask fileCleanupTask = new MGWFileCleanUpTask();
-            Timer cleanupTimer = new Timer();
+            fileCleanupTask = new MGWFileCleanUpTask();
+            cleanupTimer = new Timer("mgwfile-cleanup-timer", true);
             cleanupTimer.schedule(fileCleanupTask, 1000, Long.parseLong(fileCleanupFrequency));
+            if (MGWFileUploadSpoolUtil.isSpoolEnabled()) {
+                MGWFileUploadSpoolUtil.initialize();
+                MGWFileSpoolWriter.start();
+            }
         } else {
             log.warn("MGW file cleanup task is not scheduled as data source '" + MGWFileSourceDBUtil.getDatasourceName()
                     + "' is not present. Please disregard this warning if you are not utilizing API Manager Analytics "
@@ -88,6 +118,15 @@ public class MGWFileSourceDS {
         if (log.isDebugEnabled()) {
             log.debug("MGWFileSource Component is stopped");
         }
+        if (cleanupTimer != null) {
+            // the task is cancelled as well, to stop a run which is deleting files
+            fileCleanupTask.cancel();
+            cleanupTimer.cancel();
+            cleanupTimer = null;
+        }
+        MGWFileSpoolWriter.shutdown();
+        MGWFileReaderScheduler.shutdown();
+        MGWFileSourceMetrics.unregister();
     }
 
     private void initializeSystemProperties() {
@@ -105,6 +144,18 @@ public class MGWFileSourceDS {
             log.debug("Default cleanup frequency will be used");
             fileCleanupFrequency = MGWFileSourceConstants.DEFAULT_UPLOADED_USAGE_CLEANUP_FREQUENCY;
         }
+        //initialize cleanupChunkSize
+        cleanupChunkSize = System.getProperty(MGWFileSourceConstants.CLEANUP_CHUNK_SIZE_PROPERTY);
+        if (StringUtils.isEmpty(cleanupChunkSize)) {
+            log.debug("Default cleanup chunk size will be used");
+            cleanupChunkSize = MGWFileSourceConstants.DEFAULT_CLEANUP_CHUNK_SIZE;
+        }
+        //initialize cleanupChunkInterval
+        cleanupChunkInterval = System.getProperty(MGWFileSourceConstants.CLEANUP_CHUNK_INTERVAL_PROPERTY);
+        if (StringUtils.isEmpty(cleanupChunkInterval)) {
+            log.debug("Default cleanup chunk interval will be used");
+            cleanupChunkInterval = MGWFileSourceConstants.DEFAULT_CLEANUP_CHUNK_INTERVAL;
+        }
         //initialize fileRetentionDays
         fileRetentionDays = System.getProperty(MGWFileSourceConstants.FILE_RETENTION_DAYS_PROPERTY);
         if (StringUtils.isEmpty(fileRetentionDays)) {
@@ -119,6 +170,111 @@ public class MGWFileSourceDS {
             log.debug("Default worker thread count will be used");
             workerThreadCount = MGWFileSourceConstants.DEFAULT_WORKER_THREAD_COUNT;
         }
+
+        //initialize eventBatchSize
+        eventBatchSize = System.getProperty(MGWFileSourceConstants.EVENT_BATCH_SIZE_PROPERTY);
+        if (StringUtils.isEmpty(eventBatchSize)) {
+            log.debug("Default event batch size will be used");
+            eventBatchSize = MGWFileSourceConstants.DEFAULT_EVENT_BATCH_SIZE;
+        }
+
+        //initialize parseParallelism
+        parseParallelism = System.getProperty(MGWFileSourceConstants.PARSE_PARALLELISM_PROPERTY);
+        if (StringUtils.isEmpty(parseParallelism)) {
+            log.debug("Default parse parallelism will be used");
+            parseParallelism = MGWFileSourceConstants.DEFAULT_PARSE_PARALLELISM;
+        }
+
+        //initialize parseChunkSize
+        parseChunkSize = System.getProperty(MGWFileSourceConstants.PARSE_CHUNK_SIZE_PROPERTY);
+        if (StringUtils.isEmpty(parseChunkSize)) {
+            log.debug("Default parse chunk size will be used");
+            parseChunkSize = MGWFileSourceConstants.DEFAULT_PARSE_CHUNK_SIZE;
+        }
+
+        //initialize checkpointInterval
+        checkpointInterval = System.getProperty(MGWFileSourceConstants.CHECKPOINT_INTERVAL_PROPERTY);
+        if (StringUtils.isEmpty(checkpointInterval)) {
+            log.debug("Default checkpoint interval will be used");
+            checkpointInterval = MGWFileSourceConstants.DEFAULT_CHECKPOINT_INTERVAL;
+        }
+
+        //initialize leaseTimeout
+        leaseTimeout = System.getProperty(MGWFileSourceConstants.LEASE_TIMEOUT_PROPERTY);
+        if (StringUtils.isEmpty(leaseTimeout)) {
+            log.debug("Default lease timeout will be used");
+            leaseTimeout = MGWFileSourceConstants.DEFAULT_LEASE_TIMEOUT;
+        }
+        if (Long.parseLong(leaseTimeout) <= Long.parseLong(fileReaderFrequency)) {
+            log.warn("Usage publishing lease timeout " + leaseTimeout + " ms is not greater than the publishing "
+                    + "frequency " + fileReaderFrequency + " ms. Files being published may be reclaimed by "
+                    + "other nodes before their lease is renewed.");
+        }
+
+        //initialize nodeId. Only used to identify the node owning a claimed file
+        nodeId = System.getProperty(MGWFileSourceConstants.NODE_ID_PROPERTY);
+        if (StringUtils.isEmpty(nodeId)) {
+            log.debug("Runtime name will be used as the node id");
+            nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+
+        //initialize stagingDirectory. Uploaded files are kept in the database when it is not set
+        stagingDirectory = System.getProperty(MGWFileSourceConstants.STAGING_DIRECTORY_PROPERTY);
+        if (StringUtils.isNotEmpty(stagingDirectory)) {
+            log.info("Uploaded usage files will be staged in : " + stagingDirectory);
+        }
+
+        //initialize uploadSessionDirectory
+        uploadSessionDirectory = System.getProperty(MGWFileSourceConstants.UPLOAD_SESSION_DIRECTORY_PROPERTY);
+        if (StringUtils.isEmpty(uploadSessionDirectory)) {
+            uploadSessionDirectory = Paths.get(System.getProperty("java.io.tmpdir"),
+                    MGWFileSourceConstants.DEFAULT_UPLOAD_SESSION_DIRECTORY_NAME).toString();
+            log.warn("Resumable uploads will be kept in the temporary directory : " + uploadSessionDirectory
+                    + ", which is local to this node. Set " + MGWFileSourceConstants.UPLOAD_SESSION_DIRECTORY_PROPERTY
+                    + " to a persistent directory shared by all the nodes, so that uploads can be resumed after a "
+                    + "restart or on another node.");
+        }
+
+        //initialize uploadSessionTimeout
+        uploadSessionTimeout = System.getProperty(MGWFileSourceConstants.UPLOAD_SESSION_TIMEOUT_PROPERTY);
+        if (StringUtils.isEmpty(uploadSessionTimeout)) {
+            log.debug("Default upload session timeout will be used");
+            uploadSessionTimeout = MGWFileSourceConstants.DEFAULT_UPLOAD_SESSION_TIMEOUT;
+        }
+
+        //initialize uploadSessionMaxSize
+        uploadSessionMaxSize = System.getProperty(MGWFileSourceConstants.UPLOAD_SESSION_MAX_SIZE_PROPERTY);
+        if (StringUtils.isEmpty(uploadSessionMaxSize)) {
+            log.debug("Default upload session max size will be used");
+            uploadSessionMaxSize = MGWFileSourceConstants.DEFAULT_UPLOAD_SESSION_MAX_SIZE;
+        }
+
+        //initialize uploadSpoolDirectory. Uploaded files are persisted before responding when it is not set
+        uploadSpoolDirectory = System.getProperty(MGWFileSourceConstants.UPLOAD_SPOOL_DIRECTORY_PROPERTY);
+        if (StringUtils.isNotEmpty(uploadSpoolDirectory)) {
+            log.info("Uploaded usage files will be spooled in : " + uploadSpoolDirectory);
+        }
+
+        //initialize uploadSpoolSize
+        uploadSpoolSize = System.getProperty(MGWFileSourceConstants.UPLOAD_SPOOL_SIZE_PROPERTY);
+        if (StringUtils.isEmpty(uploadSpoolSize)) {
+            log.debug("Default upload spool size will be used");
+            uploadSpoolSize = MGWFileSourceConstants.DEFAULT_UPLOAD_SPOOL_SIZE;
+        }
+
+        //initialize uploadSpoolBatchSize
+        uploadSpoolBatchSize = System.getProperty(MGWFileSourceConstants.UPLOAD_SPOOL_BATCH_SIZE_PROPERTY);
+        if (StringUtils.isEmpty(uploadSpoolBatchSize)) {
+            log.debug("Default upload spool batch size will be used");
+            uploadSpoolBatchSize = MGWFileSourceConstants.DEFAULT_UPLOAD_SPOOL_BATCH_SIZE;
+        }
+
+        //initialize uploadSpoolWriteFrequency
+        uploadSpoolWriteFrequency = System.getProperty(MGWFileSourceConstants.UPLOAD_SPOOL_WRITE_FREQUENCY_PROPERTY);
+        if (StringUtils.isEmpty(uploadSpoolWriteFrequency)) {
+            log.debug("Default upload spool write frequency will be used");
+            uploadSpoolWriteFrequency = MGWFileSourceConstants.DEFAULT_UPLOAD_SPOOL_WRITE_FREQUENCY;
+        }
     }
 
     public static String getFileReaderFrequency() {
@@ -129,10 +285,74 @@ public class MGWFileSourceDS {
         return fileRetentionDays;
     }
 
+    public static String getCleanupChunkSize() {
+        return cleanupChunkSize;
+    }
+
+    public static String getCleanupChunkInterval() {
+        return cleanupChunkInterval;
+    }
+
     public static String getWorkerThreadCount() {
         return workerThreadCount;
     }
 
+    public static String getEventBatchSize() {
+        return eventBatchSize;
+    }
+
+    public static String getParseParallelism() {
+        return parseParallelism;
+    }
+
+    public static String getParseChunkSize() {
+        return parseChunkSize;
+    }
+
+    public static String getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public static String getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    public static String getNodeId() {
+        return nodeId;
+    }
+
+    public static String getStagingDirectory() {
+        return stagingDirectory;
+    }
+
+    public static String getUploadSessionDirectory() {
+        return uploadSessionDirectory;
+    }
+
+    public static String getUploadSessionTimeout() {
+        return uploadSessionTimeout;
+    }
+
+    public static String getUploadSessionMaxSize() {
+        return uploadSessionMaxSize;
+    }
+
+    public static String getUploadSpoolDirectory() {
+        return uploadSpoolDirectory;
+    }
+
+    public static String getUploadSpoolSize() {
+        return uploadSpoolSize;
+    }
+
+    public static String getUploadSpoolBatchSize() {
+        return uploadSpoolBatchSize;
+    }
+
+    public static String getUploadSpoolWriteFrequency() {
+        return uploadSpoolWriteFrequency;
+    }
+
     @Reference(
             name = "org.wso2.carbon.datasource.DataSourceService",
             service = DataSourceService.class,
@@ -145,6 +365,7 @@ public class MGWFileSourceDS {
         try {
             dsObject = (HikariDataSource) service.getDataSource(MGWFileSourceDBUtil.getDatasourceName());
             MGWFileSourceDBUtil.setDataSource(dsObject);
+            MGWFileSourceDAO.initialize();
         } catch (DataSourceException e) {
             log.error("Error occurred while fetching the data source. Please disregard this warning if you are not "
                               + "utilizing API Manager Analytics capabilities.", e);
@@ -20,26 +20,74 @@ package org.wso2.extension.siddhi.io.mgwfile;
 
 import io.siddhi.core.stream.input.source.SourceEventListener;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class which manages the Databridge receiver connections.
+ * <p>
+ * Several sources, such as the sources of different Siddhi apps, may consume the same stream. The listeners of each
+ * stream are kept in an array, and both the arrays and the map holding them are copied when a listener is registered
+ * or unregistered. Readers therefore get an immutable routing table without any locking.
  */
 public class MGWFileSourceRegistrationManager {
 
-    private static Map<String, SourceEventListener> streamSpecificEventListenerMap = new ConcurrentHashMap<>();
+    private static final SourceEventListener[] NO_LISTENERS = new SourceEventListener[0];
 
-    static Map<String, SourceEventListener> getStreamSpecificEventListenerMap() {
+    private static volatile Map<String, SourceEventListener[]> streamSpecificEventListenerMap =
+            Collections.emptyMap();
+
+    /**
+     * Returns the current routing table of stream ids to the listeners of the stream. The returned map and arrays
+     * are never modified, so the table may be cached while a file is being published.
+     *
+     * @return immutable map of stream ids to listeners
+     */
+    static Map<String, SourceEventListener[]> getStreamSpecificEventListenerMap() {
         return streamSpecificEventListenerMap;
     }
 
-    public static void registerEventConsumer(String streamId, SourceEventListener sourceEventListener) {
-        streamSpecificEventListenerMap.put(streamId, sourceEventListener);
+    public static synchronized void registerEventConsumer(String streamId, SourceEventListener sourceEventListener) {
+        SourceEventListener[] listeners = getListeners(streamId);
+        for (SourceEventListener listener : listeners) {
+            if (listener == sourceEventListener) {
+                return;
+            }
+        }
+        SourceEventListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+        newListeners[listeners.length] = sourceEventListener;
+        setListeners(streamId, newListeners);
+    }
+
+    public static synchronized void unregisterEventConsumer(String streamId,
+                                                            SourceEventListener sourceEventListener) {
+        SourceEventListener[] listeners = getListeners(streamId);
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == sourceEventListener) {
+                SourceEventListener[] newListeners = new SourceEventListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                setListeners(streamId, newListeners);
+                return;
+            }
+        }
+    }
+
+    private static SourceEventListener[] getListeners(String streamId) {
+        SourceEventListener[] listeners = streamSpecificEventListenerMap.get(streamId);
+        return listeners != null ? listeners : NO_LISTENERS;
     }
 
-    public static void unregisterEventConsumer(String streamId) {
-            streamSpecificEventListenerMap.remove(streamId);
+    private static void setListeners(String streamId, SourceEventListener[] listeners) {
+        Map<String, SourceEventListener[]> listenerMap = new HashMap<>(streamSpecificEventListenerMap);
+        if (listeners.length == 0) {
+            listenerMap.remove(streamId);
+        } else {
+            listenerMap.put(streamId, listeners);
+        }
+        streamSpecificEventListenerMap = Collections.unmodifiableMap(listenerMap);
     }
 
 }
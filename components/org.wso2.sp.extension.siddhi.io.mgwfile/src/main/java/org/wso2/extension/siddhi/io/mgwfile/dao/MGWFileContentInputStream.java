@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.dao;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileSourceDBUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Input stream over the content of an uploaded file which keeps the database connection open until the stream is
+ * closed. BLOB content is read in fixed size chunks, so with drivers returning BLOB locators only a single chunk of
+ * the file is held in memory at a time. Drivers which read the row as a whole already hold the content, see
+ * {@link MGWFileSourceDialect#getFileContentFetchSize()}. The connection, statement and result set are released
+ * when the stream is closed.
+ */
+class MGWFileContentInputStream extends InputStream {
+
+    private static final Log log = LogFactory.getLog(MGWFileContentInputStream.class);
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final Blob blob;
+    private final InputStream binaryStream;
+    private final int chunkSize;
+    private final long length;
+    // BLOB positions start from 1
+    private long position = 1;
+    private byte[] chunk = new byte[0];
+    private int chunkPosition;
+    private boolean closed;
+
+    /**
+     * Creates a stream which reads the given BLOB in chunks of the given size.
+     */
+    MGWFileContentInputStream(Connection connection, PreparedStatement statement, ResultSet resultSet, Blob blob,
+                              int chunkSize) throws SQLException {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.blob = blob;
+        this.binaryStream = null;
+        this.chunkSize = chunkSize;
+        this.length = blob.length();
+    }
+
+    /**
+     * Creates a stream which delegates to a binary stream of the result set, for databases which do not support
+     * reading the content as a BLOB.
+     */
+    MGWFileContentInputStream(Connection connection, PreparedStatement statement, ResultSet resultSet,
+                              InputStream binaryStream) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.blob = null;
+        this.binaryStream = binaryStream;
+        this.chunkSize = 0;
+        this.length = -1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (binaryStream != null) {
+            return binaryStream.read();
+        }
+        if (!fillChunk()) {
+            return -1;
+        }
+        return chunk[chunkPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        ensureOpen();
+        if (binaryStream != null) {
+            return binaryStream.read(bytes, offset, len);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillChunk()) {
+            return -1;
+        }
+        int count = Math.min(len, chunk.length - chunkPosition);
+        System.arraycopy(chunk, chunkPosition, bytes, offset, count);
+        chunkPosition += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        if (binaryStream != null) {
+            return binaryStream.available();
+        }
+        return chunk.length - chunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (binaryStream != null) {
+                binaryStream.close();
+            }
+            if (blob != null) {
+                blob.free();
+            }
+        } catch (SQLException e) {
+            log.debug("Could not free the BLOB of the uploaded file content.", e);
+        } finally {
+            MGWFileSourceDBUtil.closeAllConnections(statement, connection, resultSet);
+        }
+    }
+
+    private boolean fillChunk() throws IOException {
+        if (chunkPosition < chunk.length) {
+            return true;
+        }
+        if (position > length) {
+            return false;
+        }
+        try {
+            chunk = blob.getBytes(position, (int) Math.min(chunkSize, length - position + 1));
+        } catch (SQLException e) {
+            throw new IOException("Error occurred while reading the content of the uploaded file.", e);
+        }
+        chunkPosition = 0;
+        position += chunk.length;
+        return chunk.length > 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed.");
+        }
+    }
+}
@@ -21,22 +21,32 @@ package org.wso2.extension.siddhi.io.mgwfile.dao;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
 import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
 import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileChecksumUtil;
 import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileSourceDBUtil;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileStagingUtil;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.sql.Blob;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * This class contains methods DB access for FileEventAdapter.
@@ -45,66 +55,273 @@ public class MGWFileSourceDAO {
 
     private static final Log log = LogFactory.getLog(MGWFileSourceDAO.class);
 
+    private static volatile MGWFileSourceDialect dialect;
+    // cached once the table is found, and checked again after a failure in a query on the table
+    private static volatile boolean usageTableExists;
+
+    /**
+     * Resolves the dialect of the data source and whether the usage table exists, so that they are not looked up on
+     * every poll. Called once the data source is available. Failures are logged and the lookups are done again on
+     * the first use.
+     */
+    public static void initialize() {
+        dialect = null;
+        usageTableExists = false;
+        Connection connection = null;
+        try {
+            connection = MGWFileSourceDBUtil.getConnection();
+            dialect = MGWFileSourceDialect.resolve(connection.getMetaData());
+            if (log.isDebugEnabled()) {
+                log.debug("Resolved " + dialect + " dialect for '" + MGWFileSourceDBUtil.getDatasourceName() + "'");
+            }
+            isUsageTableExist(connection);
+        } catch (SQLException e) {
+            log.warn("Error occurred while resolving the dialect of '" + MGWFileSourceDBUtil.getDatasourceName()
+                    + "'. It will be resolved again on the first use.", e);
+        } finally {
+            MGWFileSourceDBUtil.closeAllConnections(null, connection, null);
+        }
+    }
+
+    /**
+     * Outcome of persisting an uploaded file.
+     */
+    public enum UploadStatus {
+        /**
+         * The file was persisted and will be published.
+         */
+        PERSISTED,
+        /**
+         * A file with the same name or content was already uploaded, so the file was not persisted.
+         */
+        DUPLICATE,
+        /**
+         * The content of the file does not match the checksum expected by the uploader.
+         */
+        CHECKSUM_MISMATCH
+    }
+
     /**
-     * Adds a record into the database with uploaded file's information.
+     * Adds a record into the database with uploaded file's information. When the staging mode is enabled the content
+     * is written to the staging directory and only the file information is added to the database.
+     * <p>
+     * The SHA-256 checksum of the content is computed while it is persisted and stored with the file, and the file is
+     * not persisted if a file with the same content was already uploaded, so that a retried upload does not publish
+     * its events twice. A file whose name was already uploaded, or whose checksum is set in the given
+     * {@link MGWFileInfoDTO} and matches an uploaded file, is detected before its content is read. Concurrent uploads
+     * of the same file are serialized by the primary key and the unique checksum index, and the ones which lose the
+     * race are rolled back as duplicates.
      *
-     * @param dto                 Uploaded File Information represented by {@link MGWFileInfoDTO}
+     * @param dto                 Uploaded File Information represented by {@link MGWFileInfoDTO}, which is updated
+     *                            with the checksum of the content
      * @param uploadedInputStream Input stream with the uploaded file content
+     * @return outcome of persisting the file
      * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
      */
-    public static void persistUploadedFile(MGWFileInfoDTO dto, InputStream uploadedInputStream)
+    public static UploadStatus persistUploadedFile(MGWFileInfoDTO dto, InputStream uploadedInputStream)
             throws MGWFileSourceException {
+        String expectedHash = dto.getContentHash();
+        if (isUploaded(dto.getFileName(), expectedHash)) {
+            return UploadStatus.DUPLICATE;
+        }
+        MessageDigest digest = MGWFileChecksumUtil.newDigest();
+        InputStream contentStream = new DigestInputStream(uploadedInputStream, digest);
         Connection connection = null;
         boolean autoCommitStatus = false;
         PreparedStatement statement = null;
+        PreparedStatement hashStatement = null;
+        // staged under a name of its own, so that a racing upload of the same file never touches it
+        Path stagedFile = null;
+        boolean published = false;
+        boolean persisted = false;
+        if (MGWFileStagingUtil.isStagingEnabled()) {
+            stagedFile = MGWFileStagingUtil.stage(dto.getFileName(), contentStream);
+        }
         try {
             connection = MGWFileSourceDBUtil.getConnection();
             autoCommitStatus = connection.getAutoCommit();
             connection.setAutoCommit(false);
-            statement = connection.prepareStatement(MGWFileSourceConstants.INSERT_UPLOADED_FILE_INFO_QUERY);
-            statement.setString(1, dto.getFileName());
-            statement.setTimestamp(2, new Timestamp(dto.getTimeStamp()));
-            statement.setBinaryStream(3, uploadedInputStream);
+            // the checksum is only known once the content is read, so a placeholder unique to this upload is inserted
+            String placeholderHash = UUID.randomUUID().toString();
+            if (stagedFile != null) {
+                statement = connection.prepareStatement(MGWFileSourceConstants.INSERT_UPLOADED_FILE_METADATA_QUERY);
+                statement.setString(1, dto.getFileName());
+                statement.setTimestamp(2, new Timestamp(dto.getTimeStamp()));
+                statement.setString(3, placeholderHash);
+            } else {
+                statement = connection.prepareStatement(MGWFileSourceConstants.INSERT_UPLOADED_FILE_INFO_QUERY);
+                statement.setString(1, dto.getFileName());
+                statement.setTimestamp(2, new Timestamp(dto.getTimeStamp()));
+                statement.setBinaryStream(3, contentStream);
+                statement.setString(4, placeholderHash);
+            }
             statement.executeUpdate();
+            String contentHash = MGWFileChecksumUtil.toHex(digest.digest());
+            dto.setContentHash(contentHash);
+            if (expectedHash != null && !expectedHash.equalsIgnoreCase(contentHash)) {
+                log.warn("Content of uploaded file : " + dto.toString() + " does not match the checksum : "
+                        + expectedHash);
+                connection.rollback();
+                return UploadStatus.CHECKSUM_MISMATCH;
+            }
+            hashStatement = connection.prepareStatement(MGWFileSourceConstants.UPDATE_FILE_CONTENT_HASH_QUERY);
+            hashStatement.setString(1, contentHash);
+            hashStatement.setString(2, dto.getFileName());
+            hashStatement.executeUpdate();
+            if (stagedFile != null) {
+                // the uncommitted row holds the file name, so no other upload publishes a staged file meanwhile
+                MGWFileStagingUtil.publishStagedFile(stagedFile, dto.getFileName());
+                published = true;
+            }
             connection.commit();
+            persisted = true;
             if (log.isDebugEnabled()) {
-                log.debug("Persisted Uploaded File info : " + dto.toString());
+                log.debug("Persisted Uploaded File info : " + dto.toString() + " with checksum : " + contentHash);
             }
+            return UploadStatus.PERSISTED;
         } catch (SQLException e) {
-            try {
-                if (connection != null) {
-                    connection.rollback();
-                }
-            } catch (SQLException e1) {
-                log.error("Error occurred while rolling back inserting uploaded information into db transaction,", e1);
+            if (published) {
+                // removed while the row still holds the file name
+                MGWFileStagingUtil.deleteStagedFile(dto.getFileName());
+                published = false;
+            }
+            rollback(connection, "inserting uploaded information into db");
+            if (isConstraintViolation(e)) {
+                log.info("Uploaded file : " + dto.toString() + " was uploaded concurrently with the same name or "
+                        + "content. Therefore, not persisting the file.");
+                return UploadStatus.DUPLICATE;
             }
             throw new MGWFileSourceException("Error occurred while inserting uploaded information into database", e);
+        } catch (MGWFileSourceException e) {
+            rollback(connection, "inserting uploaded information into db");
+            throw e;
         } finally {
-            try {
-                if (connection != null) {
-                    connection.setAutoCommit(autoCommitStatus);
-                }
-            } catch (SQLException e) {
-                log.warn("Failed to reset auto commit state of database connection to the previous state.", e);
+            if (stagedFile != null && !published) {
+                MGWFileStagingUtil.discardStagedFile(stagedFile);
             }
+            resetAutoCommit(connection, autoCommitStatus);
+            MGWFileSourceDBUtil.closeStatement(hashStatement);
             MGWFileSourceDBUtil.closeAllConnections(statement, connection, null);
         }
     }
 
     /**
-     * Returns the next set of files to bre processed by the worker threads.
+     * Whether the given error is the violation of an integrity constraint, such as inserting a duplicate key. The
+     * SQLSTATE class of the violations is 23 in every supported database.
+     */
+    private static boolean isConstraintViolation(SQLException e) {
+        for (SQLException error = e; error != null; error = error.getNextException()) {
+            if (error instanceof SQLIntegrityConstraintViolationException
+                    || (error.getSQLState() != null && error.getSQLState().startsWith("23"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a file with the given name, or with the given checksum, was already uploaded.
      *
-     * @param limit number of records to be retrieved
+     * @param fileName    name of the uploaded file
+     * @param contentHash hex encoded SHA-256 checksum of the content, or null if it is not known
+     * @return true if the file was already uploaded
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static boolean isUploaded(String fileName, String contentHash) throws MGWFileSourceException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = MGWFileSourceDBUtil.getConnection();
+            statement = connection.prepareStatement(MGWFileSourceConstants.GET_UPLOADED_FILE_BY_NAME_QUERY);
+            statement.setString(1, fileName);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                log.info("Uploaded file : " + fileName + " was already uploaded. Therefore, not persisting the file.");
+                return true;
+            }
+            if (contentHash != null) {
+                String duplicateFileName = findFileByContentHash(connection, contentHash.toLowerCase(), fileName);
+                if (duplicateFileName != null) {
+                    log.info("Content of uploaded file : " + fileName + " was already uploaded as : "
+                            + duplicateFileName + ". Therefore, not persisting the file.");
+                    return true;
+                }
+            }
+            return false;
+        } catch (SQLException e) {
+            throw new MGWFileSourceException("Error occurred while checking whether file : " + fileName
+                    + " was already uploaded.", e);
+        } finally {
+            MGWFileSourceDBUtil.closeAllConnections(statement, connection, resultSet);
+        }
+    }
+
+    /**
+     * Gets the processing state of an uploaded file, which is 0 while the file waits to be published, 1 while it is
+     * claimed for publishing and 2 once it is published.
+     *
+     * @param fileName name of the uploaded file
+     * @return processing state of the file or -1 if the file does not exist
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static int getFileProcessedState(String fileName) throws MGWFileSourceException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = MGWFileSourceDBUtil.getConnection();
+            statement = connection.prepareStatement(MGWFileSourceConstants.GET_UPLOADED_FILE_STATE_QUERY);
+            statement.setString(1, fileName);
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getInt("FILE_PROCESSED") : -1;
+        } catch (SQLException e) {
+            throw new MGWFileSourceException("Error occurred while reading the state of file : " + fileName, e);
+        } finally {
+            MGWFileSourceDBUtil.closeAllConnections(statement, connection, resultSet);
+        }
+    }
+
+    /**
+     * Finds a file other than the given one with the given content.
+     *
+     * @return name of the file or null if there is none
+     */
+    private static String findFileByContentHash(Connection connection, String contentHash, String fileName)
+            throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            statement = connection.prepareStatement(MGWFileSourceConstants.GET_UPLOADED_FILE_BY_CONTENT_HASH_QUERY);
+            statement.setString(1, contentHash);
+            statement.setString(2, fileName);
+            resultSet = statement.executeQuery();
+            return resultSet.next() ? resultSet.getString("FILE_NAME") : null;
+        } finally {
+            MGWFileSourceDBUtil.closeAllConnections(statement, null, resultSet);
+        }
+    }
+
+    /**
+     * Claims the next set of files to bre processed by the worker threads. The files are claimed with a single
+     * statement where the dialect allows it, marking them with a lease owner unique to this claim and leasing them
+     * until the given time.
+     * Several nodes can claim files concurrently, as a file is only claimed if it is still not being processed.
+     *
+     * @param limit           number of records to be retrieved
+     * @param leaseExpiryTime time in milliseconds until which the claimed files are leased
      * @return list of {@link MGWFileInfoDTO}
      * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
      */
-    public static List<MGWFileInfoDTO> getNextFilesToProcess(int limit) throws MGWFileSourceException {
+    public static List<MGWFileInfoDTO> getNextFilesToProcess(int limit, long leaseExpiryTime)
+            throws MGWFileSourceException {
         Connection connection = null;
+        PreparedStatement claimStatement = null;
         PreparedStatement selectStatement = null;
-        PreparedStatement updateStatement = null;
         ResultSet resultSet = null;
         boolean autoCommitStatus = false;
         List<MGWFileInfoDTO> usageFileList = new ArrayList<>();
+        String leaseOwner = MGWFileSourceDS.getNodeId() + "/" + UUID.randomUUID();
         try {
             connection = MGWFileSourceDBUtil.getConnection();
             if (!isUsageTableExist(connection)) {
@@ -114,59 +331,95 @@ public class MGWFileSourceDAO {
             }
             autoCommitStatus = connection.getAutoCommit();
             connection.setAutoCommit(false);
-            if ((connection.getMetaData().getDriverName()).contains("Oracle")) {
-                selectStatement = connection
-                        .prepareStatement(MGWFileSourceConstants.GET_NEXT_FILES_TO_PROCESS_QUERY_ORACLE);
-            } else if (connection.getMetaData().getDatabaseProductName().contains("Microsoft")) {
-                selectStatement = connection
-                        .prepareStatement(MGWFileSourceConstants.GET_NEXT_FILES_TO_PROCESS_QUERY_MSSQL);
-            } else if (connection.getMetaData().getDatabaseProductName().contains("DB2")) {
-                selectStatement = connection
-                        .prepareStatement(MGWFileSourceConstants.GET_NEXT_FILES_TO_PROCESS_QUERY_DB2);
+            MGWFileSourceDialect resolvedDialect = getDialect(connection);
+            int claimedFileCount;
+            if (resolvedDialect.getClaimNextFilesQuery() != null) {
+                claimStatement = connection.prepareStatement(resolvedDialect.getClaimNextFilesQuery());
+                claimStatement.setString(1, leaseOwner);
+                claimStatement.setTimestamp(2, new Timestamp(leaseExpiryTime));
+                claimStatement.setInt(3, limit);
+                claimedFileCount = claimStatement.executeUpdate();
             } else {
-                selectStatement = connection
-                        .prepareStatement(MGWFileSourceConstants.GET_NEXT_FILES_TO_PROCESS_QUERY_DEFAULT);
+                claimedFileCount = claimSelectedFiles(connection, resolvedDialect.getSelectNextFilesQuery(limit),
+                        limit, leaseOwner, leaseExpiryTime);
             }
-            selectStatement.setInt(1, limit);
-            resultSet = selectStatement.executeQuery();
-            while (resultSet.next()) {
-                String fileName = resultSet.getString("FILE_NAME");
-                long timeStamp = resultSet.getTimestamp("FILE_TIMESTAMP").getTime();
-                updateStatement = connection
-                        .prepareStatement(MGWFileSourceConstants.UPDATE_FILE_PROCESSING_STARTED_STATUS);
-                updateStatement.setString(1, fileName);
-                updateStatement.executeUpdate();
-                //File content (Blob) is not stored in memory. Will retrieve one by one when processing.
-                MGWFileInfoDTO dto = new MGWFileInfoDTO(fileName, timeStamp);
-                usageFileList.add(dto);
-                if (log.isDebugEnabled()) {
-                    log.debug("Added File to list : " + dto.toString());
+            if (claimedFileCount > 0) {
+                selectStatement = connection.prepareStatement(MGWFileSourceConstants.GET_CLAIMED_FILES_QUERY);
+                selectStatement.setString(1, leaseOwner);
+                resultSet = selectStatement.executeQuery();
+                while (resultSet.next()) {
+                    //File content (Blob) is not stored in memory. Will retrieve one by one when processing.
+                    MGWFileInfoDTO dto = new MGWFileInfoDTO(resultSet.getString("FILE_NAME"),
+                            resultSet.getTimestamp("FILE_TIMESTAMP").getTime(), leaseOwner,
+                            resultSet.getLong("FILE_CHECKPOINT"));
+                    usageFileList.add(dto);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Added File to list : " + dto.toString());
+                    }
                 }
             }
             connection.commit();
         } catch (SQLException e) {
-            try {
-                if (connection != null) {
-                    connection.rollback();
-                }
-            } catch (SQLException e1) {
-                log.error("Error occurred while rolling back getting the next files to process transaction.", e1);
-            }
+            usageTableExists = false;
+            rollback(connection, "getting the next files to process");
             throw new MGWFileSourceException("Error occurred while getting the next files to process.", e);
         } finally {
-            try {
-                if (connection != null) {
-                    connection.setAutoCommit(autoCommitStatus);
-                }
-            } catch (SQLException e) {
-                log.warn("Failed to reset auto commit state of database connection to the previous state.", e);
-            }
-            MGWFileSourceDBUtil.closeStatement(updateStatement);
+            resetAutoCommit(connection, autoCommitStatus);
+            MGWFileSourceDBUtil.closeStatement(claimStatement);
             MGWFileSourceDBUtil.closeAllConnections(selectStatement, connection, resultSet);
         }
         return usageFileList;
     }
 
+    /**
+     * Claims the first files selected by the given query by name, with a single batch. A file is only claimed if it
+     * is still waiting, so files claimed by another node between the select and the update are skipped. Only a single
+     * fetch of the limit is made, so that a query locking the rows it fetches only locks the files it claims.
+     *
+     * @return number of files claimed
+     */
+    private static int claimSelectedFiles(Connection connection, String selectQuery, int limit, String leaseOwner,
+            long leaseExpiryTime) throws SQLException {
+        PreparedStatement selectStatement = null;
+        PreparedStatement claimStatement = null;
+        ResultSet resultSet = null;
+        try {
+            selectStatement = connection.prepareStatement(selectQuery);
+            selectStatement.setFetchSize(limit);
+            resultSet = selectStatement.executeQuery();
+            claimStatement = connection.prepareStatement(MGWFileSourceConstants.CLAIM_FILE_QUERY);
+            int selectedFileCount = 0;
+            while (selectedFileCount < limit && resultSet.next()) {
+                claimStatement.setString(1, leaseOwner);
+                claimStatement.setTimestamp(2, new Timestamp(leaseExpiryTime));
+                claimStatement.setString(3, resultSet.getString("FILE_NAME"));
+                claimStatement.addBatch();
+                selectedFileCount++;
+            }
+            if (selectedFileCount == 0) {
+                return 0;
+            }
+            int claimedFileCount = 0;
+            for (int updatedRows : claimStatement.executeBatch()) {
+                // drivers which do not report the count of each statement claim the files all the same
+                claimedFileCount += updatedRows == Statement.SUCCESS_NO_INFO ? 1 : updatedRows;
+            }
+            return claimedFileCount;
+        } finally {
+            MGWFileSourceDBUtil.closeStatement(claimStatement);
+            MGWFileSourceDBUtil.closeAllConnections(selectStatement, null, resultSet);
+        }
+    }
+
+    private static MGWFileSourceDialect getDialect(Connection connection) throws SQLException {
+        MGWFileSourceDialect resolvedDialect = dialect;
+        if (resolvedDialect == null) {
+            resolvedDialect = MGWFileSourceDialect.resolve(connection.getMetaData());
+            dialect = resolvedDialect;
+        }
+        return resolvedDialect;
+    }
+
     /**
      * Updates the completion of processing a uploaded usage file.
      *
@@ -174,27 +427,175 @@ public class MGWFileSourceDAO {
      * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
      */
     public static void updateCompletion(MGWFileInfoDTO dto) throws MGWFileSourceException {
+        updateCompletion(Collections.singletonList(dto));
+    }
+
+    /**
+     * Updates the completion of processing a set of uploaded usage files with a single batch.
+     *
+     * @param files Processed files represented by {@link MGWFileInfoDTO}
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static void updateCompletion(Collection<MGWFileInfoDTO> files) throws MGWFileSourceException {
+        if (files.isEmpty()) {
+            return;
+        }
         Connection connection = null;
         PreparedStatement statement = null;
+        boolean autoCommitStatus = false;
         try {
             connection = MGWFileSourceDBUtil.getConnection();
+            autoCommitStatus = connection.getAutoCommit();
             connection.setAutoCommit(false);
             statement = connection.prepareStatement(MGWFileSourceConstants.UPDATE_COMPETITION_QUERY);
-            statement.setString(1, dto.getFileName());
-            statement.executeUpdate();
+            List<MGWFileInfoDTO> batch = new ArrayList<>(files);
+            for (MGWFileInfoDTO dto : batch) {
+                statement.setString(1, dto.getFileName());
+                statement.setString(2, dto.getLeaseOwner());
+                statement.addBatch();
+            }
+            int[] updatedRows = statement.executeBatch();
             connection.commit();
+            for (int i = 0; i < updatedRows.length; i++) {
+                if (updatedRows[i] == 0) {
+                    log.warn("Lease of file : " + batch.get(i).getFileName() + " was lost before its completion "
+                            + "was updated. The file may be published again by the node which reclaimed it.");
+                }
+            }
             if (log.isDebugEnabled()) {
-                log.debug("Updated completion for file : " + dto.toString());
+                log.debug("Updated completion for files : " + files.toString());
             }
         } catch (SQLException e) {
+            rollback(connection, "updating the completion state");
             throw new MGWFileSourceException("Error occurred while updating the completion state.", e);
         } finally {
+            resetAutoCommit(connection, autoCommitStatus);
+            MGWFileSourceDBUtil.closeAllConnections(statement, connection, null);
+        }
+    }
+
+    /**
+     * Extends the lease of the given files which are still being processed.
+     *
+     * @param files           files being processed, represented by {@link MGWFileInfoDTO}
+     * @param leaseExpiryTime time in milliseconds until which the files are leased
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static void renewLeases(Collection<MGWFileInfoDTO> files, long leaseExpiryTime)
+            throws MGWFileSourceException {
+        if (files.isEmpty()) {
+            return;
+        }
+        Connection connection = null;
+        PreparedStatement statement = null;
+        boolean autoCommitStatus = false;
+        try {
+            connection = MGWFileSourceDBUtil.getConnection();
+            autoCommitStatus = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(MGWFileSourceConstants.RENEW_FILE_LEASE_QUERY);
+            for (MGWFileInfoDTO dto : files) {
+                statement.setTimestamp(1, new Timestamp(leaseExpiryTime));
+                statement.setString(2, dto.getFileName());
+                statement.setString(3, dto.getLeaseOwner());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback(connection, "renewing the lease of files being processed");
+            throw new MGWFileSourceException("Error occurred while renewing the lease of files being processed.", e);
+        } finally {
+            resetAutoCommit(connection, autoCommitStatus);
             MGWFileSourceDBUtil.closeAllConnections(statement, connection, null);
         }
     }
 
     /**
-     * Get the content of the file based on the file information.
+     * Persists the number of lines of a file which have been published, if the file is still leased to this node.
+     *
+     * @param dto        File being processed represented by {@link MGWFileInfoDTO}
+     * @param checkpoint number of lines published
+     * @return false if the lease of the file is no longer held
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static boolean updateCheckpoint(MGWFileInfoDTO dto, long checkpoint) throws MGWFileSourceException {
+        return updateFileStatus(MGWFileSourceConstants.UPDATE_FILE_CHECKPOINT_QUERY,
+                "updating the checkpoint of a file", checkpoint, dto.getFileName(), dto.getLeaseOwner()) > 0;
+    }
+
+    /**
+     * Makes the files whose lease has expired available for processing again. These are files claimed by a node
+     * which stopped before completing them.
+     *
+     * @param currentTime current time in milliseconds
+     * @return number of files reclaimed
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static int reclaimExpiredLeases(long currentTime) throws MGWFileSourceException {
+        return updateFileStatus(MGWFileSourceConstants.RECLAIM_EXPIRED_FILE_LEASES_QUERY,
+                "reclaiming files with expired leases", new Timestamp(currentTime));
+    }
+
+    /**
+     * Gets the upload time of the oldest file which is waiting to be published.
+     *
+     * @return upload time in milliseconds, or -1 if no file is waiting
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static long getOldestUnprocessedFileTimestamp() throws MGWFileSourceException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            connection = MGWFileSourceDBUtil.getConnection();
+            if (!isUsageTableExist(connection)) {
+                return -1;
+            }
+            statement = connection.prepareStatement(MGWFileSourceConstants.GET_OLDEST_UNPROCESSED_FILE_QUERY);
+            resultSet = statement.executeQuery();
+            if (resultSet.next()) {
+                Timestamp timestamp = resultSet.getTimestamp(1);
+                if (timestamp != null) {
+                    return timestamp.getTime();
+                }
+            }
+            return -1;
+        } catch (SQLException e) {
+            usageTableExists = false;
+            throw new MGWFileSourceException("Error occurred while getting the oldest unprocessed file.", e);
+        } finally {
+            MGWFileSourceDBUtil.closeAllConnections(statement, connection, resultSet);
+        }
+    }
+
+    /**
+     * Makes a claimed file available for processing again, when it could not be scheduled.
+     *
+     * @param dto Claimed file represented by {@link MGWFileInfoDTO}
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static void releaseFile(MGWFileInfoDTO dto) throws MGWFileSourceException {
+        updateFileStatus(MGWFileSourceConstants.RELEASE_FILE_QUERY, "releasing a claimed file", dto.getFileName(),
+                dto.getLeaseOwner());
+    }
+
+    /**
+     * Clears the lease of a file whose processing failed, so that it is not reclaimed and published again.
+     *
+     * @param dto Failed file represented by {@link MGWFileInfoDTO}
+     * @throws MGWFileSourceException if there is an error while getting a connection or executing the query
+     */
+    public static void clearLease(MGWFileInfoDTO dto) throws MGWFileSourceException {
+        updateFileStatus(MGWFileSourceConstants.CLEAR_FILE_LEASE_QUERY, "clearing the lease of a failed file",
+                dto.getFileName(), dto.getLeaseOwner());
+    }
+
+    /**
+     * Get the content of the file based on the file information. Staged content is read from the staging directory,
+     * otherwise the returned stream holds the database connection until it is closed, therefore the caller must
+     * always close it. Whether the content is streamed from the database depends on the driver, see
+     * {@link MGWFileSourceDialect#getFileContentFetchSize()}.
      *
      * @param dto Processed file represented by {@link MGWFileInfoDTO}
      * @return InputStream with the content of the file of null if there is no content
@@ -205,22 +606,40 @@ public class MGWFileSourceDAO {
         PreparedStatement statement = null;
         ResultSet resultSet = null;
         InputStream fileContentInputStream = null;
+        if (MGWFileStagingUtil.isStagingEnabled()) {
+            fileContentInputStream = MGWFileStagingUtil.openStagedFile(dto.getFileName());
+            if (fileContentInputStream != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Retrieved staged content of file : " + dto.toString());
+                }
+                return fileContentInputStream;
+            }
+        }
         try {
             connection = MGWFileSourceDBUtil.getConnection();
             connection.setAutoCommit(false);
-            statement = connection.prepareStatement(MGWFileSourceConstants.GET_UPLOADED_FILE_CONTENT_QUERY);
+            MGWFileSourceDialect dialect = getDialect(connection);
+            // forward only and read only, so that drivers can stream the content instead of buffering it
+            statement = connection.prepareStatement(MGWFileSourceConstants.GET_UPLOADED_FILE_CONTENT_QUERY,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (dialect.getFileContentFetchSize() != 0) {
+                statement.setFetchSize(dialect.getFileContentFetchSize());
+            }
             statement.setString(1, dto.getFileName());
             resultSet = statement.executeQuery();
-            while (resultSet.next()) {
-                //Postgres bytea data doesn't support getBlob operation
-                if (connection.getMetaData().getDriverName().contains("PostgreSQL")) {
-                    fileContentInputStream = resultSet.getBinaryStream(MGWFileSourceConstants.API_USAGE_FILE_CONTENT);
+            if (resultSet.next()) {
+                if (dialect.isBinaryFileContent()) {
+                    InputStream binaryStream = resultSet.getBinaryStream(MGWFileSourceConstants.API_USAGE_FILE_CONTENT);
+                    if (binaryStream != null) {
+                        fileContentInputStream = new MGWFileContentInputStream(connection, statement, resultSet,
+                                binaryStream);
+                    }
                 } else {
                     Blob content = resultSet.getBlob(MGWFileSourceConstants.API_USAGE_FILE_CONTENT);
-                    fileContentInputStream = content.getBinaryStream();
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug("Added File to list : " + dto.toString());
+                    if (content != null) {
+                        fileContentInputStream = new MGWFileContentInputStream(connection, statement, resultSet,
+                                content, MGWFileSourceConstants.FILE_CONTENT_CHUNK_SIZE);
+                    }
                 }
             }
             if (log.isDebugEnabled()) {
@@ -230,66 +649,136 @@ public class MGWFileSourceDAO {
             throw new MGWFileSourceException(
                     "Error occurred while retrieving the content of the file: " + dto.toString(), e);
         } finally {
-            MGWFileSourceDBUtil.closeAllConnections(statement, connection, resultSet);
+            // resources are released by the content stream once it is closed
+            if (fileContentInputStream == null) {
+                MGWFileSourceDBUtil.closeAllConnections(statement, connection, resultSet);
+            }
         }
         return fileContentInputStream;
     }
 
     /**
-     * Delete obsolete usage records in the dbG.
+     * Deletes a chunk of the oldest processed files which are no longer retained, in a transaction of its own, so that
+     * deleting a large number of files does not hold a single long transaction on the table.
      *
      * @param lastKeptDate up to which files should be retained
-     * @throws MGWFileSourceException
+     * @param chunkSize    maximum number of files deleted
+     * @return number of files deleted, less than the chunk size once there are no more files to delete
+     * @throws MGWFileSourceException if an error occurs while deleting the files
      */
-    public static void deleteProcessedOldFiles(Date lastKeptDate) throws MGWFileSourceException {
+    public static int deleteProcessedOldFiles(Date lastKeptDate, int chunkSize) throws MGWFileSourceException {
         Connection connection = null;
+        PreparedStatement selectStatement = null;
         PreparedStatement delStatement = null;
+        ResultSet resultSet = null;
         boolean autoCommitStatus = false;
+        List<String> fileNames = new ArrayList<>();
         try {
             connection = MGWFileSourceDBUtil.getConnection();
             if (!isUsageTableExist(connection)) {
                 log.debug("Table 'AM_USAGE_UPLOADED_FILES' not found in '" + MGWFileSourceDBUtil.getDatasourceName()
                         + "'. Skip publishing usage data assuming Micro GW is not configured.");
-                return;
+                return 0;
             }
             autoCommitStatus = connection.getAutoCommit();
             connection.setAutoCommit(false);
-            delStatement = connection.prepareStatement(MGWFileSourceConstants.DELETE_OLD_UPLOAD_COMPLETED_FILES);
-            delStatement.setTimestamp(1, new Timestamp(lastKeptDate.getTime()));
-            delStatement.executeUpdate();
+            // the row limit is applied through JDBC, which is supported by all the drivers
+            selectStatement = connection.prepareStatement(MGWFileSourceConstants.GET_OLD_UPLOAD_COMPLETED_FILES);
+            selectStatement.setMaxRows(chunkSize);
+            selectStatement.setTimestamp(1, new Timestamp(lastKeptDate.getTime()));
+            resultSet = selectStatement.executeQuery();
+            while (resultSet.next()) {
+                fileNames.add(resultSet.getString("FILE_NAME"));
+            }
+            if (fileNames.isEmpty()) {
+                connection.commit();
+                return 0;
+            }
+            delStatement = connection.prepareStatement(MGWFileSourceConstants.DELETE_UPLOAD_COMPLETED_FILE);
+            for (String fileName : fileNames) {
+                delStatement.setString(1, fileName);
+                delStatement.addBatch();
+            }
+            delStatement.executeBatch();
             connection.commit();
-        } catch (SQLException e) {
-            try {
-                if (connection != null) {
-                    connection.rollback();
+            if (MGWFileStagingUtil.isStagingEnabled()) {
+                for (String fileName : fileNames) {
+                    MGWFileStagingUtil.deleteStagedFile(fileName);
                 }
-            } catch (SQLException e1) {
-                log.error("Error occurred while rolling back deleting old uploaded files transaction.", e1);
             }
+            return fileNames.size();
+        } catch (SQLException e) {
+            usageTableExists = false;
+            rollback(connection, "deleting old uploaded files");
             throw new MGWFileSourceException("Error occurred while deleting old uploaded files.", e);
         } finally {
-            try {
-                if (connection != null) {
-                    connection.setAutoCommit(autoCommitStatus);
-                }
-            } catch (SQLException e) {
-                log.warn("Failed to reset auto commit state of database connection to the previous state.", e);
+            resetAutoCommit(connection, autoCommitStatus);
+            MGWFileSourceDBUtil.closeStatement(selectStatement);
+            MGWFileSourceDBUtil.closeAllConnections(delStatement, connection, resultSet);
+        }
+    }
+
+    private static int updateFileStatus(String query, String operation, Object... parameters)
+            throws MGWFileSourceException {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        boolean autoCommitStatus = false;
+        try {
+            connection = MGWFileSourceDBUtil.getConnection();
+            autoCommitStatus = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(query);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
             }
-            MGWFileSourceDBUtil.closeAllConnections(delStatement, connection, null);
+            int updatedRows = statement.executeUpdate();
+            connection.commit();
+            return updatedRows;
+        } catch (SQLException e) {
+            rollback(connection, operation);
+            throw new MGWFileSourceException("Error occurred while " + operation + ".", e);
+        } finally {
+            resetAutoCommit(connection, autoCommitStatus);
+            MGWFileSourceDBUtil.closeAllConnections(statement, connection, null);
+        }
+    }
+
+    private static void rollback(Connection connection, String operation) {
+        try {
+            if (connection != null) {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            log.error("Error occurred while rolling back " + operation + " transaction.", e);
+        }
+    }
+
+    private static void resetAutoCommit(Connection connection, boolean autoCommitStatus) {
+        try {
+            if (connection != null) {
+                connection.setAutoCommit(autoCommitStatus);
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to reset auto commit state of database connection to the previous state.", e);
         }
     }
 
     /**
-     * Check whether given table is exist
+     * Check whether given table is exist. The table is only looked up until it is found, unless a later query on the
+     * table fails.
      *
      * @param conn Connection
      * @return existence
      * @throws SQLException throw if an error occurred
      */
     private static boolean isUsageTableExist(Connection conn) throws SQLException {
+        if (usageTableExists) {
+            return true;
+        }
         Statement stmt = conn.createStatement();
         try {
             stmt.execute(MGWFileSourceConstants.TABLE_EXISTENCE_SQL);
+            usageTableExists = true;
             return true;
         } catch (SQLException e) {
             //  logging is not required here.
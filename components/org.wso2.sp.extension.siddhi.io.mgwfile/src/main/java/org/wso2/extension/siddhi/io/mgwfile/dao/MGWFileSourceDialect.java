@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.dao;
+
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+
+/**
+ * Database vendor specific SQL used by {@link MGWFileSourceDAO}. Resolved once from the metadata of the data source.
+ */
+enum MGWFileSourceDialect {
+
+    DEFAULT(MGWFileSourceConstants.CLAIM_NEXT_FILES_QUERY_DEFAULT, false, 0),
+    MYSQL(MGWFileSourceConstants.CLAIM_NEXT_FILES_QUERY_DEFAULT, false, Integer.MIN_VALUE),
+    POSTGRESQL(MGWFileSourceConstants.CLAIM_NEXT_FILES_QUERY_POSTGRESQL, true, 0),
+    ORACLE(null, MGWFileSourceConstants.SELECT_NEXT_FILES_QUERY_ORACLE, false, 0),
+    MSSQL(MGWFileSourceConstants.CLAIM_NEXT_FILES_QUERY_MSSQL, true, 0),
+    DB2(MGWFileSourceConstants.CLAIM_NEXT_FILES_QUERY_DB2, false, 0),
+    INFORMIX(null, MGWFileSourceConstants.SELECT_NEXT_FILES_QUERY_INFORMIX, false, 0);
+
+    private final String claimNextFilesQuery;
+    private final String selectNextFilesQuery;
+    private final boolean binaryFileContent;
+    private final int fileContentFetchSize;
+
+    MGWFileSourceDialect(String claimNextFilesQuery, boolean binaryFileContent, int fileContentFetchSize) {
+        this(claimNextFilesQuery, null, binaryFileContent, fileContentFetchSize);
+    }
+
+    MGWFileSourceDialect(String claimNextFilesQuery, String selectNextFilesQuery, boolean binaryFileContent,
+                         int fileContentFetchSize) {
+        this.claimNextFilesQuery = claimNextFilesQuery;
+        this.selectNextFilesQuery = selectNextFilesQuery;
+        this.binaryFileContent = binaryFileContent;
+        this.fileContentFetchSize = fileContentFetchSize;
+    }
+
+    /**
+     * Gets the statement claiming the next files, or null if the dialect cannot claim them with a single statement.
+     *
+     * @return query taking the lease owner, the lease expiry time and the limit
+     */
+    String getClaimNextFilesQuery() {
+        return claimNextFilesQuery;
+    }
+
+    /**
+     * Gets the query selecting the names of the next files to be claimed by name, used when the dialect has no single
+     * statement claim. The query may select more files than the limit, of which only the first ones are claimed.
+     *
+     * @param limit number of files to be selected
+     * @return query without parameters
+     */
+    String getSelectNextFilesQuery(int limit) {
+        return String.format(selectNextFilesQuery, limit);
+    }
+
+    /**
+     * Whether the file content column is read as a binary stream instead of a Blob. Postgres bytea does not support
+     * reading it as a Blob, and the SQL Server driver only streams VARBINARY(max) through a binary stream, when the
+     * default adaptive response buffering is used.
+     *
+     * @return true if the file content is read as a binary stream
+     */
+    boolean isBinaryFileContent() {
+        return binaryFileContent;
+    }
+
+    /**
+     * Gets the fetch size of the forward only query reading the file content, or 0 to keep the driver default.
+     * MySQL Connector/J only streams a result set with a fetch size of {@link Integer#MIN_VALUE}, otherwise it
+     * buffers the whole result set, including a copy of the content held by the Blob.
+     * <p>
+     * Only the Oracle, DB2, Informix and H2 drivers return Blob locators, and SQL Server a binary stream, which
+     * are read from the database as the content is consumed. MySQL still reads a whole row at once, and Postgres
+     * returns bytea values whole, so with those databases the content of one file is held in memory while it is
+     * published. Staging mode avoids this for large files.
+     *
+     * @return fetch size of the file content query
+     */
+    int getFileContentFetchSize() {
+        return fileContentFetchSize;
+    }
+
+    static MGWFileSourceDialect resolve(DatabaseMetaData metaData) throws SQLException {
+        String productName = metaData.getDatabaseProductName();
+        if (metaData.getDriverName().contains("Oracle")) {
+            return ORACLE;
+        } else if (productName.contains("Microsoft")) {
+            return MSSQL;
+        } else if (productName.contains("DB2")) {
+            return DB2;
+        } else if (productName.contains("MySQL") || productName.contains("MariaDB")) {
+            return MYSQL;
+        } else if (productName.contains("PostgreSQL")) {
+            return POSTGRESQL;
+        } else if (productName.contains("Informix")) {
+            return INFORMIX;
+        }
+        return DEFAULT;
+    }
+}
@@ -24,6 +24,9 @@ package org.wso2.extension.siddhi.io.mgwfile.dto;
 public class MGWFileInfoDTO {
     private String fileName;
     private long timeStamp;
+    private String leaseOwner;
+    private long checkpoint;
+    private String contentHash;
 
     /**
      * Constructor.
@@ -36,6 +39,20 @@ public class MGWFileInfoDTO {
         this.timeStamp = timeStamp;
     }
 
+    /**
+     * Constructor for a file claimed for processing.
+     *
+     * @param fileName   name of the file
+     * @param timeStamp  Timestamp of the file creation
+     * @param leaseOwner Owner of the lease acquired when claiming the file
+     * @param checkpoint Number of lines already published, when the file was claimed again
+     */
+    public MGWFileInfoDTO(String fileName, long timeStamp, String leaseOwner, long checkpoint) {
+        this(fileName, timeStamp);
+        this.leaseOwner = leaseOwner;
+        this.checkpoint = checkpoint;
+    }
+
     /**
      * Get the file name set by a constructor.
      * @return String name of the file
@@ -53,6 +70,38 @@ public class MGWFileInfoDTO {
         return timeStamp;
     }
 
+    /**
+     * Get the owner of the lease acquired when claiming the file.
+     * @return String lease owner, or null if the file was not claimed
+     */
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    /**
+     * Get the number of lines published before the file was claimed.
+     * @return long checkpoint of the file
+     */
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Get the hex encoded SHA-256 checksum of the content of the file.
+     * @return String checksum, or null if it is not known
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Set the checksum of the content of the file. When set before persisting an uploaded file, it is the checksum
+     * expected by the uploader.
+     * @param contentHash hex encoded SHA-256 checksum
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
 
     @Override
     public String toString() {
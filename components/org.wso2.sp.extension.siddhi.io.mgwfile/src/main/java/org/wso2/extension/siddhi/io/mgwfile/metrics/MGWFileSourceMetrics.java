@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFilePublishGate;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileCleanUpTask;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderScheduler;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Metrics of the ingestion of uploaded usage files. Counters are updated by the publishing threads with a single
+ * atomic operation, per batch rather than per event where possible, and gauges are read from the scheduler, the
+ * publish gate and the cleanup task when the metrics are collected. The metrics are exposed through JMX and in the
+ * Prometheus text format.
+ */
+public final class MGWFileSourceMetrics {
+
+    private static final Log log = LogFactory.getLog(MGWFileSourceMetrics.class);
+
+    public static final String OBJECT_NAME = "org.wso2.analytics.apim:type=MGWFileSource";
+
+    // upper bounds of the file processing time histogram in milliseconds
+    private static final long[] PROCESSING_TIME_BUCKETS = {1000, 5000, 10000, 30000, 60000, 300000, 900000,
+            1800000, 3600000};
+
+    private static final AtomicLong filesClaimed = new AtomicLong();
+    private static final AtomicLong filesProcessed = new AtomicLong();
+    private static final AtomicLong filesFailed = new AtomicLong();
+    private static final AtomicLong bytesInflated = new AtomicLong();
+    private static final AtomicLong parseErrors = new AtomicLong();
+    private static final ConcurrentMap<String, AtomicLong> eventsParsed = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, AtomicLong> eventsPublished = new ConcurrentHashMap<>();
+    private static final AtomicLongArray processingTimeBuckets =
+            new AtomicLongArray(PROCESSING_TIME_BUCKETS.length + 1);
+    private static final AtomicLong processingTimeSum = new AtomicLong();
+    // timestamp of the oldest file waiting to be published, refreshed on every poll, or -1 if there is none
+    private static volatile long oldestUnprocessedFileTimestamp = -1;
+
+    private static final MGWFileSourceMetricsMXBean view = new MetricsView();
+
+    private MGWFileSourceMetrics() {
+    }
+
+    public static void filesClaimed(int count) {
+        filesClaimed.addAndGet(count);
+    }
+
+    /**
+     * Records a file which was published successfully.
+     *
+     * @param processingTime time taken to publish the file in milliseconds
+     */
+    public static void fileProcessed(long processingTime) {
+        filesProcessed.incrementAndGet();
+        processingTimeSum.addAndGet(processingTime);
+        int bucket = 0;
+        while (bucket < PROCESSING_TIME_BUCKETS.length && processingTime > PROCESSING_TIME_BUCKETS[bucket]) {
+            bucket++;
+        }
+        processingTimeBuckets.incrementAndGet(bucket);
+    }
+
+    public static void fileFailed() {
+        filesFailed.incrementAndGet();
+    }
+
+    public static void bytesInflated(long count) {
+        bytesInflated.addAndGet(count);
+    }
+
+    public static void parseErrors(int count) {
+        parseErrors.addAndGet(count);
+    }
+
+    public static void eventsParsed(String streamId, long count) {
+        getCounter(eventsParsed, streamId).addAndGet(count);
+    }
+
+    public static void eventsPublished(String streamId, long count) {
+        getCounter(eventsPublished, streamId).addAndGet(count);
+    }
+
+    public static void setOldestUnprocessedFileTimestamp(long timestamp) {
+        oldestUnprocessedFileTimestamp = timestamp;
+    }
+
+    public static MGWFileSourceMetricsMXBean getMetrics() {
+        return view;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(view, MGWFileSourceMetricsMXBean.class, true), name);
+            }
+        } catch (JMException e) {
+            log.error("Error occurred while registering the mgwfile source metrics with JMX.", e);
+        }
+    }
+
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.error("Error occurred while unregistering the mgwfile source metrics from JMX.", e);
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     *
+     * @return metrics in the format of version 0.0.4
+     */
+    public static String toPrometheusText() {
+        StringBuilder builder = new StringBuilder();
+        appendMetric(builder, "mgwfile_files_claimed_total", "counter", "Uploaded usage files claimed.",
+                view.getFilesClaimed());
+        appendMetric(builder, "mgwfile_files_processed_total", "counter", "Uploaded usage files published.",
+                view.getFilesProcessed());
+        appendMetric(builder, "mgwfile_files_failed_total", "counter", "Uploaded usage files which failed.",
+                view.getFilesFailed());
+        appendMetric(builder, "mgwfile_inflated_bytes_total", "counter", "Bytes of usage data inflated.",
+                view.getBytesInflated());
+        appendMetric(builder, "mgwfile_parse_errors_total", "counter", "Usage events which could not be parsed.",
+                view.getParseErrors());
+        appendStreamMetric(builder, "mgwfile_events_parsed_total", "Usage events parsed per stream.",
+                view.getEventsParsed());
+        appendStreamMetric(builder, "mgwfile_events_published_total",
+                "Usage events delivered to the sources per stream.", view.getEventsPublished());
+
+        String histogram = "mgwfile_file_processing_seconds";
+        appendHeader(builder, histogram, "histogram", "Time taken to publish an uploaded usage file.");
+        long count = 0;
+        for (int i = 0; i < PROCESSING_TIME_BUCKETS.length; i++) {
+            count += processingTimeBuckets.get(i);
+            builder.append(histogram).append("_bucket{le=\"").append(PROCESSING_TIME_BUCKETS[i] / 1000.0)
+                    .append("\"} ").append(count).append('\n');
+        }
+        count += processingTimeBuckets.get(PROCESSING_TIME_BUCKETS.length);
+        builder.append(histogram).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        builder.append(histogram).append("_sum ").append(processingTimeSum.get() / 1000.0).append('\n');
+        builder.append(histogram).append("_count ").append(count).append('\n');
+
+        appendMetric(builder, "mgwfile_queue_depth", "gauge", "Claimed files waiting for a publishing thread.",
+                view.getQueueDepth());
+        appendMetric(builder, "mgwfile_active_workers", "gauge", "Claimed files being published or waiting.",
+                view.getActiveWorkerCount());
+        appendMetric(builder, "mgwfile_oldest_unprocessed_file_age_seconds", "gauge",
+                "Age of the oldest uploaded usage file waiting to be published.",
+                view.getOldestUnprocessedFileAge() / 1000.0);
+        appendMetric(builder, "mgwfile_paused", "gauge", "Whether publishing is paused by a source.",
+                view.isPaused() ? 1 : 0);
+        appendMetric(builder, "mgwfile_paused_seconds_total", "counter", "Time publishing has been paused.",
+                view.getPausedTime() / 1000.0);
+        appendMetric(builder, "mgwfile_blocked_seconds_total", "counter",
+                "Time publishing threads have waited while paused.", view.getBlockedTime() / 1000.0);
+        appendMetric(builder, "mgwfile_cleanup_deleted_files_total", "counter",
+                "Old uploaded usage files deleted by the cleanup task.", view.getCleanupDeletedFiles());
+        appendMetric(builder, "mgwfile_cleanup_deleted_chunks_total", "counter",
+                "Chunks of old uploaded usage files deleted by the cleanup task.", view.getCleanupDeletedChunks());
+        appendMetric(builder, "mgwfile_cleanup_last_run_deleted_files", "gauge",
+                "Old uploaded usage files deleted by the last run of the cleanup task.",
+                view.getCleanupLastRunDeletedFiles());
+        appendMetric(builder, "mgwfile_cleanup_last_run_duration_seconds", "gauge",
+                "Duration of the last run of the cleanup task.", view.getCleanupLastRunDuration() / 1000.0);
+        return builder.toString();
+    }
+
+    private static AtomicLong getCounter(ConcurrentMap<String, AtomicLong> counters, String streamId) {
+        AtomicLong counter = counters.get(streamId);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(streamId, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counters) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    private static void appendHeader(StringBuilder builder, String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendMetric(StringBuilder builder, String name, String type, String help, Number value) {
+        appendHeader(builder, name, type, help);
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendStreamMetric(StringBuilder builder, String name, String help,
+                                           Map<String, Long> values) {
+        appendHeader(builder, name, "counter", help);
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            builder.append(name).append("{stream_id=\"").append(escapeLabelValue(entry.getKey())).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Read only view of the metrics registered with JMX.
+     */
+    private static class MetricsView implements MGWFileSourceMetricsMXBean {
+
+        @Override
+        public long getFilesClaimed() {
+            return filesClaimed.get();
+        }
+
+        @Override
+        public long getFilesProcessed() {
+            return filesProcessed.get();
+        }
+
+        @Override
+        public long getFilesFailed() {
+            return filesFailed.get();
+        }
+
+        @Override
+        public long getBytesInflated() {
+            return bytesInflated.get();
+        }
+
+        @Override
+        public long getParseErrors() {
+            return parseErrors.get();
+        }
+
+        @Override
+        public Map<String, Long> getEventsParsed() {
+            return snapshot(eventsParsed);
+        }
+
+        @Override
+        public Map<String, Long> getEventsPublished() {
+            return snapshot(eventsPublished);
+        }
+
+        @Override
+        public long getFileProcessingCount() {
+            long count = 0;
+            for (int i = 0; i < processingTimeBuckets.length(); i++) {
+                count += processingTimeBuckets.get(i);
+            }
+            return count;
+        }
+
+        @Override
+        public long getFileProcessingTime() {
+            return processingTimeSum.get();
+        }
+
+        @Override
+        public Map<String, Long> getFileProcessingTimeHistogram() {
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            long count = 0;
+            for (int i = 0; i < PROCESSING_TIME_BUCKETS.length; i++) {
+                count += processingTimeBuckets.get(i);
+                histogram.put(String.valueOf(PROCESSING_TIME_BUCKETS[i]), count);
+            }
+            histogram.put("+Inf", count + processingTimeBuckets.get(PROCESSING_TIME_BUCKETS.length));
+            return histogram;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return MGWFileReaderScheduler.getQueueDepth();
+        }
+
+        @Override
+        public int getActiveWorkerCount() {
+            return MGWFileReaderScheduler.getActiveWorkerCount();
+        }
+
+        @Override
+        public long getOldestUnprocessedFileAge() {
+            long timestamp = oldestUnprocessedFileTimestamp;
+            return timestamp < 0 ? 0 : Math.max(0, System.currentTimeMillis() - timestamp);
+        }
+
+        @Override
+        public boolean isPaused() {
+            return MGWFilePublishGate.isPaused();
+        }
+
+        @Override
+        public long getPausedTime() {
+            return MGWFilePublishGate.getPausedTime();
+        }
+
+        @Override
+        public long getBlockedTime() {
+            return MGWFilePublishGate.getBlockedTime();
+        }
+
+        @Override
+        public long getCleanupDeletedFiles() {
+            return MGWFileCleanUpTask.getDeletedFileCount();
+        }
+
+        @Override
+        public long getCleanupDeletedChunks() {
+            return MGWFileCleanUpTask.getDeletedChunkCount();
+        }
+
+        @Override
+        public long getCleanupLastRunDeletedFiles() {
+            return MGWFileCleanUpTask.getLastRunDeletedFileCount();
+        }
+
+        @Override
+        public long getCleanupLastRunDuration() {
+            return MGWFileCleanUpTask.getLastRunDuration();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics of the mgwfile source, registered as
+ * {@value MGWFileSourceMetrics#OBJECT_NAME}. Times are in milliseconds.
+ */
+public interface MGWFileSourceMetricsMXBean {
+
+    long getFilesClaimed();
+
+    long getFilesProcessed();
+
+    long getFilesFailed();
+
+    long getBytesInflated();
+
+    long getParseErrors();
+
+    Map<String, Long> getEventsParsed();
+
+    Map<String, Long> getEventsPublished();
+
+    long getFileProcessingCount();
+
+    long getFileProcessingTime();
+
+    /**
+     * Number of files processed within each upper bound of the file processing time histogram, cumulative as in
+     * Prometheus.
+     *
+     * @return map of upper bounds in milliseconds to file counts
+     */
+    Map<String, Long> getFileProcessingTimeHistogram();
+
+    int getQueueDepth();
+
+    int getActiveWorkerCount();
+
+    long getOldestUnprocessedFileAge();
+
+    boolean isPaused();
+
+    long getPausedTime();
+
+    long getBlockedTime();
+
+    long getCleanupDeletedFiles();
+
+    long getCleanupDeletedChunks();
+
+    long getCleanupLastRunDeletedFiles();
+
+    long getCleanupLastRunDuration();
+}
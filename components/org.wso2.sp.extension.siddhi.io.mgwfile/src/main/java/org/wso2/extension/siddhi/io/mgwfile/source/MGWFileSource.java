@@ -34,14 +34,14 @@ import io.siddhi.core.util.transport.OptionHolder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.databridge.commons.StreamDefinition;
-import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFilePublishGate;
 import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceRegistrationManager;
 import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
-import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderTask;
+import org.wso2.extension.siddhi.io.mgwfile.task.MGWFileReaderScheduler;
 import org.wso2.extension.siddhi.io.mgwfile.util.FileDataRetrieverUtil;
 import org.wso2.extension.siddhi.map.wso2event.source.WSO2SourceMapper;
 
-import java.util.Timer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Micro Gateway File Source.
@@ -68,13 +68,136 @@ import java.util.Timer;
                 DataType.STRING },
                 optional = true,
                 defaultValue = "5"),
+        @Parameter(name = "usage.cleanup.chunk.size",
+                description = "Maximum number of old uploaded files deleted in a single transaction by the cleanup "
+                        + "task.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "100"),
+        @Parameter(name = "usage.cleanup.chunk.interval",
+                description = "Time in milliseconds the cleanup task waits between deleting two chunks of old "
+                        + "uploaded files, so that the table is not held by the cleanup while files are uploaded.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "1000"),
         @Parameter(name = "usage.publishing.thread.count",
                 description = "Number of threads to use for data retrieval when the timer task runs. A single thread "
                         + "will process data from a single file.",
                 type = {
                 DataType.STRING },
                 optional = true,
-                defaultValue = "3"), },
+                defaultValue = "3"),
+        @Parameter(name = "usage.publishing.batch.size",
+                description = "Maximum number of events of a stream delivered to the mapper in a single batch "
+                        + "while publishing data from a file.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "100"),
+        @Parameter(name = "usage.publishing.parse.parallelism",
+                description = "Number of threads used to parse a single large file in parallel. Files are parsed "
+                        + "by the publishing thread itself when this is 1. The usage data entries of a zip file "
+                        + "with several entries, such as api-usage-data-0001.dat, are inflated and published in "
+                        + "parallel by this number of threads only when usage.staging.directory is set, and not "
+                        + "when a file is resumed from a checkpoint. Otherwise the entries are inflated one after "
+                        + "the other, as they are read from a single stream, and only their parsing is parallel.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "1"),
+        @Parameter(name = "usage.publishing.parse.chunk.size",
+                description = "Number of characters of a file parsed as a single unit when parsing in parallel.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "262144"),
+        @Parameter(name = "usage.publishing.checkpoint.interval",
+                description = "Number of lines of a usage file published between two checkpoints. A file claimed "
+                        + "again after the node publishing it stopped is resumed from its last checkpoint. Set to 0 "
+                        + "to disable checkpoints.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "10000"),
+        @Parameter(name = "usage.publishing.lease.timeout",
+                description = "Time in milliseconds for which a file being published is leased to a node. The "
+                        + "lease is renewed on every run of the data retrieval timer task, and files whose lease "
+                        + "has expired, such as files of a node which stopped while publishing, are published "
+                        + "again. The clocks of the nodes sharing the database must be synchronized.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "1800000"),
+        @Parameter(name = "usage.publishing.node.id",
+                description = "Identifier of this node, recorded as the owner of the files it claims for "
+                        + "publishing. Each claim is made with a unique lease owner derived from this identifier.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "name of the Java runtime"),
+        @Parameter(name = "usage.staging.directory",
+                description = "Directory in which the content of uploaded files is staged instead of the database. "
+                        + "Only the file information is stored in the database when this is set. The directory "
+                        + "must be shared by all the nodes which accept uploads or publish usage data.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "none"),
+        @Parameter(name = "usage.upload.session.directory",
+                description = "Directory in which the chunks of resumable uploads are kept until the upload is "
+                        + "committed. Uploads can only be resumed while the directory is kept, so it must be on "
+                        + "persistent storage, and it must be shared by all the nodes which accept uploads, such as "
+                        + "the nodes behind a load balancer. The default directory is local to the node and may be "
+                        + "cleared on restart, so it is only suitable for a single node.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "mgwfile-upload-sessions in the temporary directory"),
+        @Parameter(name = "usage.upload.session.timeout",
+                description = "Time in milliseconds after which a resumable upload which did not receive a chunk "
+                        + "is deleted by the cleanup task.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "86400000"),
+        @Parameter(name = "usage.upload.session.max.size",
+                description = "Maximum number of bytes of a file uploaded with a resumable upload. Chunks which "
+                        + "would make the file larger are rejected with 413.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "1073741824"),
+        @Parameter(name = "usage.upload.spool.directory",
+                description = "Directory in which uploaded files are spooled. When it is set, an uploaded file is "
+                        + "synced to the spool and acknowledged with a tracking id, and is persisted in the database "
+                        + "in the background. Uploaded files are persisted before responding when it is not set.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "none"),
+        @Parameter(name = "usage.upload.spool.size",
+                description = "Maximum number of bytes kept in the upload spool. Uploads are rejected with 503 "
+                        + "while the spool is full.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "1073741824"),
+        @Parameter(name = "usage.upload.spool.batch.size",
+                description = "Maximum number of spooled files persisted in the database in one run of the spool "
+                        + "writer.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "20"),
+        @Parameter(name = "usage.upload.spool.write.frequency",
+                description = "Time in milliseconds between the periodic runs of the spool writer, which retry the "
+                        + "spooled files which could not be persisted. Spooled files are written at once otherwise.",
+                type = {
+                DataType.STRING },
+                optional = true,
+                defaultValue = "10000"), },
         examples = {
                 @Example(
                         syntax = "@source(type = 'mgwfile', wso2.stream.id = 'org.wso2.apimgt.statistics.request:3.0.0'"
@@ -90,7 +213,8 @@ public class MGWFileSource extends Source {
     private SourceEventListener sourceEventListener;
     private OptionHolder optionHolder;
     private String streamId;
-    private MGWFileReaderTask fileReaderTask;
+    private final AtomicBoolean connected = new AtomicBoolean();
+    private final AtomicBoolean paused = new AtomicBoolean();
 
     @Override
     protected ServiceDeploymentInfo exposeServiceDeploymentInfo() {
@@ -141,25 +265,27 @@ public class MGWFileSource extends Source {
         try {
             FileDataRetrieverUtil.addStreamDefinition(streamDefinition, streamId);
             MGWFileSourceRegistrationManager.registerEventConsumer(streamId, sourceEventListener);
-            readFileFromDatabase();
+            if (connected.compareAndSet(false, true)) {
+                // a single scheduler polls for the files of all the sources of the node
+                MGWFileReaderScheduler.registerSource();
+            }
         } catch (MGWFileSourceException e) {
             log.error("Error during parsing stream definition for stream " + streamId
                     + " TimerTask will not be scheduled", e);
         }
     }
 
-    private void readFileFromDatabase() {
-        fileReaderTask = new MGWFileReaderTask();
-        Timer readTimer = new Timer();
-        readTimer.schedule(fileReaderTask, 0, Long.parseLong(MGWFileSourceDS.getFileReaderFrequency()));
-    }
-
     /**
      * This method can be called when it is needed to disconnect from the end point.
      */
     @Override
     public void disconnect() {
-        MGWFileSourceRegistrationManager.unregisterEventConsumer(streamId);
+        MGWFileSourceRegistrationManager.unregisterEventConsumer(streamId, sourceEventListener);
+        // a source which is no longer connected must not hold back the other sources
+        resume();
+        if (connected.compareAndSet(true, false)) {
+            MGWFileReaderScheduler.unregisterSource();
+        }
     }
 
     /**
@@ -167,7 +293,7 @@ public class MGWFileSource extends Source {
      */
     @Override
     public void destroy() {
-        MGWFileSourceRegistrationManager.unregisterEventConsumer(streamId);
+        disconnect();
     }
 
     /**
@@ -175,8 +301,8 @@ public class MGWFileSource extends Source {
      */
     @Override
     public void pause() {
-        if (fileReaderTask != null) {
-            fileReaderTask.setPaused(true);
+        if (paused.compareAndSet(false, true)) {
+            MGWFilePublishGate.pause();
         }
     }
 
@@ -185,8 +311,8 @@ public class MGWFileSource extends Source {
      */
     @Override
     public void resume() {
-        if (fileReaderTask != null) {
-            fileReaderTask.setPaused(false);
+        if (paused.compareAndSet(true, false)) {
+            MGWFilePublishGate.resume();
         }
     }
 }
@@ -23,20 +23,34 @@ import org.apache.commons.logging.LogFactory;
 import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
 import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
 import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSessionUtil;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSpoolUtil;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Task for cleaning uploaded old usage files in db.
+ * Task for cleaning uploaded old usage files in db. Files are deleted in chunks of
+ * {@code usage.cleanup.chunk.size}, each in a transaction of its own, waiting {@code usage.cleanup.chunk.interval}
+ * milliseconds between the chunks, so that the cleanup does not lock the table against uploads for long. Resumable
+ * uploads which did not receive a chunk within {@code usage.upload.session.timeout} are deleted as well, and so are
+ * the recorded outcomes of the spooled files which are older than the retained files.
  */
 public class MGWFileCleanUpTask extends TimerTask {
 
     private static final Log log = LogFactory.getLog(MGWFileCleanUpTask.class);
+
+    private static final AtomicLong deletedFileCount = new AtomicLong();
+    private static final AtomicLong deletedChunkCount = new AtomicLong();
+    private static volatile long lastRunDeletedFileCount;
+    private static volatile long lastRunDuration;
+
     private DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private volatile boolean cancelled;
 
 
     /**
@@ -62,11 +76,103 @@ public class MGWFileCleanUpTask extends TimerTask {
             log.debug("Uploaded API Usage data in the db will be cleaned up to : " +
                     dateFormat.format(lastKeptDate));
         }
+        int chunkSize = Integer.parseInt(MGWFileSourceDS.getCleanupChunkSize());
+        long chunkInterval = Long.parseLong(MGWFileSourceDS.getCleanupChunkInterval());
+        long startTime = System.currentTimeMillis();
+        long deletedFiles = 0;
         try {
-            MGWFileSourceDAO.deleteProcessedOldFiles(lastKeptDate);
+            int deletedChunkFiles;
+            do {
+                deletedChunkFiles = MGWFileSourceDAO.deleteProcessedOldFiles(lastKeptDate, chunkSize);
+                if (deletedChunkFiles > 0) {
+                    deletedFiles += deletedChunkFiles;
+                    deletedFileCount.addAndGet(deletedChunkFiles);
+                    deletedChunkCount.incrementAndGet();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Deleted " + deletedFiles + " uploaded usage files so far.");
+                    }
+                }
+                // a full chunk means there may be more files to delete
+            } while (deletedChunkFiles == chunkSize && !cancelled && pause(chunkInterval));
         } catch (MGWFileSourceException e) {
             log.error("Error occurred while cleaning the uploaded usage data.", e);
+        } finally {
+            lastRunDeletedFileCount = deletedFiles;
+            lastRunDuration = System.currentTimeMillis() - startTime;
+        }
+        if (deletedFiles > 0) {
+            log.info("Deleted " + deletedFiles + " uploaded usage files in " + lastRunDuration + " ms.");
+        }
+        long sessionTimeout = Long.parseLong(MGWFileSourceDS.getUploadSessionTimeout());
+        int deletedSessions = MGWFileUploadSessionUtil.deleteExpiredSessions(System.currentTimeMillis()
+                - sessionTimeout);
+        if (deletedSessions > 0) {
+            log.info("Deleted " + deletedSessions + " expired upload sessions.");
+        }
+        if (MGWFileUploadSpoolUtil.isSpoolEnabled()) {
+            int deletedResults = MGWFileUploadSpoolUtil.deleteExpiredResults(lastKeptDate.getTime());
+            if (log.isDebugEnabled()) {
+                log.debug("Deleted " + deletedResults + " expired outcomes of spooled usage files.");
+            }
+        }
+    }
+
+    /**
+     * Stops the task, including a run which is deleting files.
+     */
+    @Override
+    public boolean cancel() {
+        cancelled = true;
+        return super.cancel();
+    }
+
+    private static boolean pause(long interval) {
+        if (interval <= 0) {
+            return true;
         }
+        try {
+            Thread.sleep(interval);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Total number of uploaded files deleted since the server started.
+     *
+     * @return deleted file count
+     */
+    public static long getDeletedFileCount() {
+        return deletedFileCount.get();
+    }
+
+    /**
+     * Total number of chunks of uploaded files deleted since the server started.
+     *
+     * @return deleted chunk count
+     */
+    public static long getDeletedChunkCount() {
+        return deletedChunkCount.get();
+    }
+
+    /**
+     * Number of uploaded files deleted by the last run.
+     *
+     * @return deleted file count of the last run
+     */
+    public static long getLastRunDeletedFileCount() {
+        return lastRunDeletedFileCount;
+    }
+
+    /**
+     * Time in milliseconds taken to delete the old uploaded files in the last run.
+     *
+     * @return duration of the last run
+     */
+    public static long getLastRunDuration() {
+        return lastRunDuration;
     }
 
 }
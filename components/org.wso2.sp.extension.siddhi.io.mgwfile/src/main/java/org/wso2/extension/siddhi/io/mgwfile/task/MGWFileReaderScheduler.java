@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileDataRetriever;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileDataRetrieverThreadFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileEntryPipeline;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileParsePipeline;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFilePublishGate;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
+import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Claims uploaded usage files and hands them over to the usage publishing threads. A claim is requested by the
+ * periodic {@link MGWFileReaderTask}, by a file upload in the same JVM and by a publishing thread which becomes idle
+ * while there are more files waiting. Claims are run one at a time on a dedicated thread and only claim as many files
+ * as there are idle publishing threads, so a backlog is drained as fast as the files can be published, and the
+ * periodic poll is only relied upon once the backlog is empty.
+ * <p>
+ * Claimed files are leased for {@code usage.publishing.lease.timeout} milliseconds. The leases of the files being
+ * published are renewed on every poll, and files whose lease has expired, such as the files of a node which stopped
+ * while publishing, are made available to be claimed again. Completions of files which finish together are recorded
+ * with a single batch on the claim thread.
+ * <p>
+ * The scheduler is shared by all the mgwfile sources of the node. It is started when the first source connects and
+ * stopped when the last one disconnects, so there is a single poller per node however many sources are deployed,
+ * and no thread is left behind once the Siddhi apps are undeployed. {@link org.wso2.extension.siddhi.io.mgwfile
+ * .MGWFileSourceDS} stops it when the component is deactivated.
+ */
+public class MGWFileReaderScheduler {
+
+    private static final Log log = LogFactory.getLog(MGWFileReaderScheduler.class);
+
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    private static int sourceCount;
+    private static volatile int workerThreadCount;
+    private static volatile long leaseTimeout;
+    private static volatile ThreadPoolExecutor usagePublisherPool;
+    private static volatile ExecutorService claimExecutor;
+    private static Timer readerTimer;
+
+    private static final AtomicInteger activeWorkers = new AtomicInteger();
+    private static final AtomicBoolean claimPending = new AtomicBoolean();
+    private static final AtomicBoolean completionPending = new AtomicBoolean();
+    private static final Queue<MGWFileInfoDTO> completedFiles = new ConcurrentLinkedQueue<>();
+    private static final Map<String, MGWFileInfoDTO> inFlightFiles = new ConcurrentHashMap<>();
+    private static volatile boolean backlogPending;
+
+    private static final Runnable claimTask = new Runnable() {
+        @Override
+        public void run() {
+            claimFiles();
+        }
+    };
+
+    private static final Runnable completionTask = new Runnable() {
+        @Override
+        public void run() {
+            updateCompletion();
+        }
+    };
+
+    private MGWFileReaderScheduler() {
+    }
+
+    /**
+     * Registers a connected source, starting the scheduler if it is the first one.
+     */
+    public static synchronized void registerSource() {
+        if (sourceCount++ > 0) {
+            return;
+        }
+        workerThreadCount = Integer.parseInt(MGWFileSourceDS.getWorkerThreadCount());
+        leaseTimeout = Long.parseLong(MGWFileSourceDS.getLeaseTimeout());
+        // bounded, so that claimed files never wait in memory behind a busy pool
+        usagePublisherPool = new ThreadPoolExecutor(workerThreadCount, workerThreadCount, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(workerThreadCount),
+                new MGWFileDataRetrieverThreadFactory("mgwfile-thread"));
+        claimExecutor = Executors.newSingleThreadExecutor(
+                new MGWFileDataRetrieverThreadFactory("mgwfile-claim-thread"));
+        readerTimer = new Timer("mgwfile-reader-timer", true);
+        readerTimer.schedule(new MGWFileReaderTask(), 0, Long.parseLong(MGWFileSourceDS.getFileReaderFrequency()));
+        log.info("Started publishing micro-gateway API Usage data with " + workerThreadCount + " threads.");
+    }
+
+    /**
+     * Unregisters a disconnected source, stopping the scheduler if it was the last one.
+     */
+    public static synchronized void unregisterSource() {
+        if (sourceCount == 0) {
+            return;
+        }
+        if (--sourceCount == 0) {
+            stop();
+        }
+    }
+
+    /**
+     * Stops the scheduler regardless of the registered sources. The files being published are given a short time to
+     * complete, after which their publishing threads are interrupted and the files are left to be reclaimed once
+     * their leases expire.
+     */
+    public static synchronized void shutdown() {
+        sourceCount = 0;
+        stop();
+    }
+
+    private static void stop() {
+        if (readerTimer == null) {
+            return;
+        }
+        readerTimer.cancel();
+        readerTimer = null;
+        ThreadPoolExecutor publisherPool = usagePublisherPool;
+        ExecutorService claimPool = claimExecutor;
+        usagePublisherPool = null;
+        claimExecutor = null;
+        claimPool.shutdown();
+        publisherPool.shutdown();
+        try {
+            if (!publisherPool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Interrupting the micro-gateway API Usage files being published : " + inFlightFiles.keySet());
+                publisherPool.shutdownNow();
+            }
+            claimPool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            publisherPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        // completions which could not be handed over to the claim thread any more
+        if (!completedFiles.isEmpty()) {
+            updateCompletion();
+        }
+        MGWFileParsePipeline.shutdownPool();
+        MGWFileEntryPipeline.shutdownPool();
+        log.info("Stopped publishing micro-gateway API Usage data.");
+    }
+
+    /**
+     * Notifies that a usage file was uploaded, so that it is picked up without waiting for the next poll.
+     */
+    public static void notifyFileUploaded() {
+        if (!MGWFilePublishGate.isPaused()) {
+            requestClaim();
+        }
+    }
+
+    /**
+     * Renews the leases of the files being published, reclaims the files with expired leases, refreshes the age of
+     * the oldest waiting file and, unless paused, requests claiming the next set of files. Called on every run of
+     * the {@link MGWFileReaderTask}.
+     *
+     * @param paused whether publishing is paused
+     */
+    static void poll(boolean paused) {
+        long currentTime = System.currentTimeMillis();
+        // completed files keep their leases until their completion is recorded
+        List<MGWFileInfoDTO> leasedFiles = new ArrayList<>(inFlightFiles.values());
+        leasedFiles.addAll(completedFiles);
+        try {
+            MGWFileSourceDAO.renewLeases(leasedFiles, currentTime + leaseTimeout);
+            int reclaimedFiles = MGWFileSourceDAO.reclaimExpiredLeases(currentTime);
+            if (reclaimedFiles > 0) {
+                log.warn("Reclaimed " + reclaimedFiles + " micro-gateway API Usage files whose lease has expired.");
+            }
+            MGWFileSourceMetrics.setOldestUnprocessedFileTimestamp(
+                    MGWFileSourceDAO.getOldestUnprocessedFileTimestamp());
+        } catch (MGWFileSourceException e) {
+            log.error("Error occurred while renewing the leases of micro-gateway API Usage files.", e);
+        }
+        // retries the completions which could not be recorded
+        if (!completedFiles.isEmpty() && completionPending.compareAndSet(false, true)
+                && !execute(completionTask)) {
+            completionPending.set(false);
+        }
+        if (!paused) {
+            requestClaim();
+        }
+    }
+
+    /**
+     * Requests claiming the next set of files. Requests made while a claim is pending are merged into it.
+     */
+    static void requestClaim() {
+        if (claimPending.compareAndSet(false, true)) {
+            if (!execute(claimTask)) {
+                // not running, the next claim is requested once a source connects
+                claimPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Records the completion of publishing a file. Files completed while an update is pending are updated together
+     * with a single batch. If the update fails, the files are kept with their leases renewed and the update is
+     * retried on the next poll, so that they are not reclaimed and published again.
+     *
+     * @param dto Processed file represented by {@link MGWFileInfoDTO}
+     */
+    public static void completeFile(MGWFileInfoDTO dto) {
+        completedFiles.add(dto);
+        if (completionPending.compareAndSet(false, true) && !execute(completionTask)) {
+            // stopping, so the completion is recorded by the publishing thread itself
+            updateCompletion();
+        }
+    }
+
+    /**
+     * Runs the given task on the claim thread.
+     *
+     * @return false if the scheduler is not running
+     */
+    private static boolean execute(Runnable task) {
+        ExecutorService executor = claimExecutor;
+        if (executor == null) {
+            return false;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Number of claimed files waiting for a publishing thread.
+     *
+     * @return queue depth of the publishing pool
+     */
+    public static int getQueueDepth() {
+        ThreadPoolExecutor publisherPool = usagePublisherPool;
+        return publisherPool != null ? publisherPool.getQueue().size() : 0;
+    }
+
+    /**
+     * Number of claimed files which are being published or waiting for a publishing thread.
+     *
+     * @return active worker count
+     */
+    public static int getActiveWorkerCount() {
+        return activeWorkers.get();
+    }
+
+    private static void claimFiles() {
+        // cleared before claiming, so that a request made during this claim triggers another one
+        claimPending.set(false);
+        ThreadPoolExecutor publisherPool = usagePublisherPool;
+        if (publisherPool == null) {
+            return;
+        }
+        int idleWorkers = workerThreadCount - activeWorkers.get();
+        if (idleWorkers <= 0) {
+            return;
+        }
+        try {
+            List<MGWFileInfoDTO> uploadedFileList = MGWFileSourceDAO.getNextFilesToProcess(idleWorkers,
+                    System.currentTimeMillis() + leaseTimeout);
+            // if all the idle workers got a file, there may be more files waiting
+            backlogPending = uploadedFileList.size() == idleWorkers;
+            MGWFileSourceMetrics.filesClaimed(uploadedFileList.size());
+            for (MGWFileInfoDTO dto : uploadedFileList) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Scheduled publishing micro-gateway API Usage data for : " + dto.getFileName());
+                }
+                schedule(publisherPool, dto);
+            }
+        } catch (MGWFileSourceException e) {
+            backlogPending = false;
+            log.error("Error occurred while publishing micro-gateway API Usage data.", e);
+        }
+    }
+
+    private static void updateCompletion() {
+        completionPending.set(false);
+        List<MGWFileInfoDTO> files = new ArrayList<>();
+        MGWFileInfoDTO dto;
+        while ((dto = completedFiles.poll()) != null) {
+            files.add(dto);
+        }
+        try {
+            MGWFileSourceDAO.updateCompletion(files);
+        } catch (MGWFileSourceException e) {
+            completedFiles.addAll(files);
+            log.error("Error occurred while updating the completion of micro-gateway API Usage files : " + files
+                    + ". The update will be retried.", e);
+        }
+    }
+
+    private static void schedule(ThreadPoolExecutor publisherPool, MGWFileInfoDTO dto)
+            throws MGWFileSourceException {
+        activeWorkers.incrementAndGet();
+        inFlightFiles.put(dto.getFileName(), dto);
+        try {
+            publisherPool.execute(new ClaimedFileWorker(dto.getFileName(), new MGWFileDataRetriever(dto)));
+        } catch (RejectedExecutionException e) {
+            activeWorkers.decrementAndGet();
+            inFlightFiles.remove(dto.getFileName());
+            log.warn("Publishing pool is full or stopped. Releasing micro-gateway API Usage file : "
+                    + dto.getFileName());
+            MGWFileSourceDAO.releaseFile(dto);
+        }
+    }
+
+    /**
+     * Publishes a claimed file and claims the next file once done, if there are more files waiting.
+     */
+    private static class ClaimedFileWorker implements Runnable {
+
+        private final String fileName;
+        private final Runnable retriever;
+
+        ClaimedFileWorker(String fileName, Runnable retriever) {
+            this.fileName = fileName;
+            this.retriever = retriever;
+        }
+
+        @Override
+        public void run() {
+            try {
+                retriever.run();
+            } finally {
+                inFlightFiles.remove(fileName);
+                activeWorkers.decrementAndGet();
+                if (backlogPending && !MGWFilePublishGate.isPaused()) {
+                    requestClaim();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.task;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileDataRetrieverThreadFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
+import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSpoolUtil;
+
+import java.io.InputStream;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes the files accepted into the upload spool to the database. A write is requested when a file is spooled, and
+ * periodically every {@code usage.upload.spool.write.frequency} milliseconds, which picks up the files spooled before
+ * the server restarted and retries the files which could not be written. Writes are run one at a time on a dedicated
+ * thread, each writing up to {@code usage.upload.spool.batch.size} files oldest first, and the reader is signalled
+ * once per write so that the new files are claimed together.
+ * <p>
+ * A file which fails because of the file itself, such as content the database rejects, is recorded as failed and
+ * removed from the spool, and the write moves on to the next file. Any other failure leaves the file in the spool and
+ * stops the write, as the database is most likely unavailable, so the files are retried in their order by the next
+ * periodic write.
+ */
+public class MGWFileSpoolWriter {
+
+    private static final Log log = LogFactory.getLog(MGWFileSpoolWriter.class);
+
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    private static volatile ScheduledExecutorService writerExecutor;
+    private static volatile int batchSize;
+
+    private static final AtomicBoolean writePending = new AtomicBoolean();
+
+    private static final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writeSpooledFiles();
+        }
+    };
+
+    private static final Runnable periodicTask = new Runnable() {
+        @Override
+        public void run() {
+            requestWrite();
+        }
+    };
+
+    private MGWFileSpoolWriter() {
+    }
+
+    /**
+     * Starts writing the spooled files.
+     */
+    public static synchronized void start() {
+        if (writerExecutor != null) {
+            return;
+        }
+        batchSize = Integer.parseInt(MGWFileSourceDS.getUploadSpoolBatchSize());
+        writerExecutor = Executors.newSingleThreadScheduledExecutor(
+                new MGWFileDataRetrieverThreadFactory("mgwfile-spool-writer"));
+        long writeFrequency = Long.parseLong(MGWFileSourceDS.getUploadSpoolWriteFrequency());
+        writerExecutor.scheduleWithFixedDelay(periodicTask, 0, writeFrequency, TimeUnit.MILLISECONDS);
+        log.info("Started writing spooled micro-gateway API Usage files to the database.");
+    }
+
+    /**
+     * Stops writing the spooled files. A write in progress is completed with the file being written, and the rest of
+     * the files are left in the spool for the next start.
+     */
+    public static synchronized void shutdown() {
+        ScheduledExecutorService executor = writerExecutor;
+        if (executor == null) {
+            return;
+        }
+        writerExecutor = null;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Interrupting the write of spooled micro-gateway API Usage files.");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Stopped writing spooled micro-gateway API Usage files to the database.");
+    }
+
+    /**
+     * Notifies that a usage file was spooled, so that it is written without waiting for the next periodic write.
+     */
+    public static void notifyFileSpooled() {
+        requestWrite();
+    }
+
+    /**
+     * Requests writing the spooled files. Requests made while a write is pending are merged into it.
+     */
+    private static void requestWrite() {
+        if (writePending.compareAndSet(false, true)) {
+            ScheduledExecutorService executor = writerExecutor;
+            try {
+                if (executor != null) {
+                    executor.execute(writeTask);
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                // stopping, the files are written on the next start
+            }
+            writePending.set(false);
+        }
+    }
+
+    private static void writeSpooledFiles() {
+        // cleared before writing, so that a file spooled during this write triggers another one
+        writePending.set(false);
+        List<String> trackingIds = MGWFileUploadSpoolUtil.getSpooledFiles(batchSize);
+        int persistedFiles = 0;
+        boolean failed = false;
+        for (String trackingId : trackingIds) {
+            if (writerExecutor == null) {
+                break;
+            }
+            try {
+                if (writeSpooledFile(trackingId)) {
+                    persistedFiles++;
+                }
+            } catch (MGWFileSourceException e) {
+                if (!isFileFailure(e)) {
+                    log.error("Error occurred while writing spooled micro-gateway API Usage file : " + trackingId
+                            + ". The file will be retried.", e);
+                    failed = true;
+                    break;
+                }
+                log.error("Error occurred while writing spooled micro-gateway API Usage file : " + trackingId
+                        + ". The file is discarded.", e);
+                if (!discardSpooledFile(trackingId)) {
+                    failed = true;
+                    break;
+                }
+            }
+        }
+        if (persistedFiles > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug("Wrote " + persistedFiles + " spooled micro-gateway API Usage files to the database.");
+            }
+            //Signal the reader, so that the files are published without waiting for the next poll
+            MGWFileReaderScheduler.notifyFileUploaded();
+        }
+        // a full batch means there may be more files waiting
+        if (!failed && trackingIds.size() == batchSize) {
+            requestWrite();
+        }
+    }
+
+    /**
+     * Writes a spooled file to the database and removes it from the spool.
+     *
+     * @return true if the file was persisted
+     */
+    private static boolean writeSpooledFile(String trackingId) throws MGWFileSourceException {
+        MGWFileInfoDTO dto = MGWFileUploadSpoolUtil.getFileInfo(trackingId);
+        if (dto == null) {
+            return false;
+        }
+        MGWFileSourceDAO.UploadStatus status;
+        InputStream contentStream = MGWFileUploadSpoolUtil.openContent(trackingId);
+        try {
+            status = MGWFileSourceDAO.persistUploadedFile(dto, contentStream);
+        } finally {
+            IOUtils.closeQuietly(contentStream);
+        }
+        MGWFileUploadSpoolUtil.complete(trackingId, dto.getFileName(), status);
+        if (status == MGWFileSourceDAO.UploadStatus.PERSISTED) {
+            log.info("Successfully persisted the spooled API Usage file [" + dto.getFileName() + "] of tracking id ["
+                    + trackingId + "]");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a spooled file which cannot be written to the database as failed and removes it from the spool.
+     *
+     * @return true if the file was removed
+     */
+    private static boolean discardSpooledFile(String trackingId) {
+        String fileName = null;
+        try {
+            MGWFileInfoDTO dto = MGWFileUploadSpoolUtil.getFileInfo(trackingId);
+            fileName = dto != null ? dto.getFileName() : null;
+        } catch (MGWFileSourceException e) {
+            // the information of the file is what could not be read
+        }
+        try {
+            MGWFileUploadSpoolUtil.fail(trackingId, fileName);
+            return true;
+        } catch (MGWFileSourceException e) {
+            log.error("Error occurred while discarding spooled micro-gateway API Usage file : " + trackingId, e);
+            return false;
+        }
+    }
+
+    /**
+     * Whether writing a file failed because of the file itself, so that retrying it would fail again. Those are
+     * spooled files whose information is not valid, and content or names the database rejects with a data exception
+     * (SQLSTATE class 22), such as a value too long for its column. Other failures, such as an unavailable database
+     * or spool, are retried.
+     */
+    private static boolean isFileFailure(MGWFileSourceException e) {
+        if (e.getCause() == null) {
+            return true;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLDataException) {
+                return true;
+            }
+            if (cause instanceof SQLException) {
+                for (SQLException error = (SQLException) cause; error != null; error = error.getNextException()) {
+                    if (error.getSQLState() != null && error.getSQLState().startsWith("22")) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -18,15 +18,13 @@
 
 package org.wso2.extension.siddhi.io.mgwfile.util;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
 import org.wso2.carbon.databridge.commons.AttributeType;
+import org.wso2.carbon.databridge.commons.Event;
 import org.wso2.carbon.databridge.commons.StreamDefinition;
 import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
 import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,38 +33,83 @@ import java.util.Map;
  */
 public class FileDataRetrieverUtil {
 
-    private static volatile Map<String, JSONArray> streamDefinitions = new HashMap<>();
+    /**
+     * Immutable registry of the compiled payload decoders. It is replaced as a whole when a stream definition is
+     * added, so readers always see a fully built map.
+     */
+    private static volatile Map<String, MGWFilePayloadDecoder> payloadDecoders = Collections.emptyMap();
+    private static volatile Map<String, StreamDefinition> streamDefinitions = Collections.emptyMap();
 
-    public static void addStreamDefinition(StreamDefinition streamDefinition, String streamId) throws
+    public static synchronized void addStreamDefinition(StreamDefinition streamDefinition, String streamId) throws
             MGWFileSourceException {
-        try {
-            String jsonStr = streamDefinition.toString();
-            JSONParser jsonParser = new JSONParser();
-            JSONObject jsonObject = (JSONObject) jsonParser.parse(jsonStr);
-            streamDefinitions.put(streamId, (JSONArray) jsonObject.get("payloadData"));
-        } catch (ParseException e) {
-            throw new MGWFileSourceException("Error during parsing stream definition", e);
+        if (streamDefinition == null) {
+            throw new MGWFileSourceException("Stream definition is not available for stream " + streamId);
         }
+        Map<String, MGWFilePayloadDecoder> decoders = new HashMap<>(payloadDecoders);
+        decoders.put(streamId, MGWFilePayloadDecoder.compile(streamDefinition));
+        payloadDecoders = Collections.unmodifiableMap(decoders);
+        Map<String, StreamDefinition> definitions = new HashMap<>(streamDefinitions);
+        definitions.put(streamId, streamDefinition);
+        streamDefinitions = Collections.unmodifiableMap(definitions);
     }
 
-    public static Object createMetaData(String str) {
-        if (str.isEmpty() || "null".equals(str)) {
-            return null;
-        }
-        return new Object[]{str};
+    /**
+     * Returns the definition of the given stream.
+     *
+     * @param streamId stream id
+     * @return stream definition or null if the stream definition is not added
+     */
+    public static StreamDefinition getStreamDefinition(String streamId) {
+        return streamDefinitions.get(streamId);
+    }
+
+    /**
+     * Returns the compiled payload decoder of the given stream.
+     *
+     * @param streamId stream id
+     * @return payload decoder or null if the stream definition is not added
+     */
+    public static MGWFilePayloadDecoder getPayloadDecoder(String streamId) {
+        return payloadDecoders.get(streamId);
     }
 
-    public static Object[] createPayload(String streamId, String str) throws NumberFormatException {
+    /**
+     * Whether the usage data entry with the given name holds protobuf messages. Kept apart from the protobuf reader,
+     * so that checking an entry does not load the protobuf library.
+     *
+     * @param entryName name of the usage data entry, or null if the usage data is not stored in an entry
+     * @return true if the entry is in the protobuf format
+     */
+    public static boolean isProtobufEntry(String entryName) {
+        return entryName != null && entryName.endsWith(MGWFileSourceConstants.PROTOBUF_ENTRY_EXTENSION);
+    }
+
+    /**
+     * Creates an event from the current line of the tokenizer.
+     *
+     * @param tokenizer tokenizer positioned at a valid event
+     * @return event read from the line
+     * @throws NumberFormatException if the timestamp or a numeric field cannot be parsed
+     */
+    public static Event createEvent(MGWFileEventTokenizer tokenizer) throws NumberFormatException {
+        String streamId = tokenizer.getStreamId();
+        return new Event(streamId, tokenizer.getTimestamp(), tokenizer.getMetaData(), tokenizer.getCorrelationData(),
+                createPayload(streamId, tokenizer));
+    }
 
-        JSONArray jsonArray = streamDefinitions.get(streamId);
-        if (jsonArray != null) {
-            String[] strings = str.split(MGWFileSourceConstants.OBJECT_SEPARATOR);
-            Object[] objects = new Object[strings.length];
-            for (int i = 0; i < strings.length; i++) {
-                JSONObject obj = (JSONObject) jsonArray.get(i);
-                objects[i] = getPayloadObject(AttributeType.valueOf(obj.get("type").toString()), strings[i].trim());
-            }
-            return objects;
+    /**
+     * Creates the payload of the current event of the tokenizer using the compiled decoder of the stream.
+     *
+     * @param streamId  stream id of the event
+     * @param tokenizer tokenizer positioned at the event
+     * @return payload data of the event
+     * @throws NumberFormatException if a numeric field cannot be parsed
+     */
+    public static Object[] createPayload(String streamId, MGWFileEventTokenizer tokenizer)
+            throws NumberFormatException {
+        MGWFilePayloadDecoder decoder = payloadDecoders.get(streamId);
+        if (decoder != null) {
+            return decoder.decode(tokenizer);
         }
         return new Object[0];
     }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.databridge.commons.Event;
+import org.wso2.extension.siddhi.io.mgwfile.metrics.MGWFileSourceMetrics;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of the binary columnar format described in {@link MGWFileBinaryFormat}. A block of events is read and its
+ * columns decoded at once, and the events are then returned one by one. Blocks of a stream whose schema does not
+ * match the registered stream definition are skipped. Instances are not thread safe.
+ */
+public class MGWFileBinaryEventReader implements MGWFileEventReader {
+
+    private static final Log log = LogFactory.getLog(MGWFileBinaryEventReader.class);
+
+    private final DataInputStream inputStream;
+    private final List<StreamSchema> schemas = new ArrayList<>();
+    private byte[] blockBuffer = new byte[8192];
+    private long eventCount;
+
+    private String streamId;
+    private int count;
+    private int position;
+    private long[] timestamps = new long[0];
+    private Object[] metaData = new Object[0];
+    private Object[] correlationData = new Object[0];
+    private Object[][] payloads = new Object[0][];
+
+    /**
+     * Creates a reader and reads the file header.
+     *
+     * @param inputStream stream of the usage data in the binary format
+     * @throws IOException if the header is not valid or the version is not supported
+     */
+    public MGWFileBinaryEventReader(InputStream inputStream) throws IOException {
+        this.inputStream = new DataInputStream(inputStream);
+        byte[] magic = new byte[MGWFileBinaryFormat.MAGIC.length];
+        this.inputStream.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != MGWFileBinaryFormat.MAGIC[i]) {
+                throw new IOException("Usage data is not in the binary format.");
+            }
+        }
+        byte version = this.inputStream.readByte();
+        if (version > MGWFileBinaryFormat.VERSION) {
+            throw new IOException("Unsupported version of the binary usage data format : " + version);
+        }
+    }
+
+    @Override
+    public Event next() throws IOException {
+        while (position >= count) {
+            if (!readBlock()) {
+                return null;
+            }
+        }
+        int row = position++;
+        eventCount++;
+        return new Event(streamId, timestamps[row], (Object[]) metaData[row], (Object[]) correlationData[row],
+                payloads[row]);
+    }
+
+    @Override
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    private boolean readBlock() throws IOException {
+        int type = inputStream.read();
+        if (type < 0) {
+            return false;
+        }
+        int length = inputStream.readInt();
+        if (length < 0 || length > MGWFileBinaryFormat.MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid block length : " + length);
+        }
+        if (blockBuffer.length < length) {
+            blockBuffer = new byte[Math.max(length, blockBuffer.length * 2)];
+        }
+        inputStream.readFully(blockBuffer, 0, length);
+        ByteBuffer block = ByteBuffer.wrap(blockBuffer, 0, length);
+        try {
+            if (type == MGWFileBinaryFormat.SCHEMA_BLOCK) {
+                readSchema(block);
+            } else if (type == MGWFileBinaryFormat.EVENTS_BLOCK) {
+                readEvents(block);
+            }
+        } catch (RuntimeException e) {
+            // buffer underflows and invalid values of a corrupted block
+            throw new IOException("Invalid block in the binary usage data.", e);
+        }
+        return true;
+    }
+
+    private void readSchema(ByteBuffer block) throws IOException {
+        int index = block.getShort() & 0xffff;
+        String schemaStreamId = readString(block, block.getShort() & 0xffff);
+        long fingerprint = block.getLong();
+        byte[] types = new byte[block.getShort() & 0xffff];
+        block.get(types);
+        if (index != schemas.size()) {
+            throw new IOException("Unexpected stream index : " + index + " for stream : " + schemaStreamId);
+        }
+        MGWFilePayloadDecoder decoder = FileDataRetrieverUtil.getPayloadDecoder(schemaStreamId);
+        boolean matching = decoder == null || decoder.getSchemaFingerprint() == fingerprint;
+        if (!matching) {
+            log.error("Schema of stream : " + schemaStreamId + " in the usage data does not match the stream "
+                    + "definition. Events of the stream will be skipped.");
+        }
+        schemas.add(new StreamSchema(schemaStreamId, types, matching));
+    }
+
+    private void readEvents(ByteBuffer block) throws IOException {
+        int index = block.getShort() & 0xffff;
+        if (index >= schemas.size()) {
+            throw new IOException("Events of an unknown stream index : " + index);
+        }
+        StreamSchema schema = schemas.get(index);
+        int eventsInBlock = block.getInt();
+        // each event takes at least its timestamp, which bounds the count before the buffers are sized for it
+        if (eventsInBlock < 0 || eventsInBlock > block.remaining() / 8) {
+            throw new IOException("Invalid event count : " + eventsInBlock + " in a block of stream : "
+                    + schema.streamId);
+        }
+        if (!schema.matching) {
+            MGWFileSourceMetrics.parseErrors(eventsInBlock);
+            eventCount += eventsInBlock;
+            return;
+        }
+        ensureCapacity(eventsInBlock);
+        for (int row = 0; row < eventsInBlock; row++) {
+            timestamps[row] = block.getLong();
+        }
+        readMetaColumn(block, metaData, eventsInBlock);
+        readMetaColumn(block, correlationData, eventsInBlock);
+        for (int row = 0; row < eventsInBlock; row++) {
+            payloads[row] = new Object[schema.types.length];
+        }
+        for (int column = 0; column < schema.types.length; column++) {
+            readPayloadColumn(block, column, schema.types[column], eventsInBlock);
+        }
+        streamId = schema.streamId;
+        count = eventsInBlock;
+        position = 0;
+    }
+
+    private void readMetaColumn(ByteBuffer block, Object[] values, int rows) throws IOException {
+        int bitmapStart = block.position();
+        block.position(bitmapStart + (rows + 7) / 8);
+        for (int row = 0; row < rows; row++) {
+            if (isNull(block, bitmapStart, row)) {
+                values[row] = null;
+            } else {
+                values[row] = new Object[]{readString(block, block.getInt())};
+            }
+        }
+    }
+
+    private void readPayloadColumn(ByteBuffer block, int column, byte type, int rows) throws IOException {
+        int bitmapStart = block.position();
+        block.position(bitmapStart + (rows + 7) / 8);
+        for (int row = 0; row < rows; row++) {
+            if (isNull(block, bitmapStart, row)) {
+                continue;
+            }
+            Object value;
+            switch (type) {
+            case MGWFileBinaryFormat.INT:
+                value = block.getInt();
+                break;
+            case MGWFileBinaryFormat.LONG:
+                value = block.getLong();
+                break;
+            case MGWFileBinaryFormat.FLOAT:
+                value = block.getFloat();
+                break;
+            case MGWFileBinaryFormat.DOUBLE:
+                value = block.getDouble();
+                break;
+            case MGWFileBinaryFormat.BOOL:
+                value = block.get() != 0;
+                break;
+            case MGWFileBinaryFormat.STRING:
+                value = readString(block, block.getInt());
+                break;
+            default:
+                throw new IOException("Unknown attribute type code : " + type);
+            }
+            payloads[row][column] = value;
+        }
+    }
+
+    private static boolean isNull(ByteBuffer block, int bitmapStart, int row) {
+        return (block.get(bitmapStart + (row >> 3)) & (1 << (row & 7))) != 0;
+    }
+
+    private static String readString(ByteBuffer block, int length) throws IOException {
+        if (length < 0 || length > block.remaining()) {
+            throw new EOFException("Invalid string length : " + length);
+        }
+        String value = new String(block.array(), block.arrayOffset() + block.position(), length,
+                StandardCharsets.UTF_8);
+        block.position(block.position() + length);
+        return value;
+    }
+
+    private void ensureCapacity(int rows) {
+        if (timestamps.length < rows) {
+            timestamps = new long[rows];
+            metaData = new Object[rows];
+            correlationData = new Object[rows];
+            payloads = new Object[rows][];
+        }
+    }
+
+    /**
+     * Schema of a stream read from the usage data.
+     */
+    private static class StreamSchema {
+        private final String streamId;
+        private final byte[] types;
+        private final boolean matching;
+
+        StreamSchema(String streamId, byte[] types, boolean matching) {
+            this.streamId = streamId;
+            this.types = types;
+            this.matching = matching;
+        }
+    }
+}
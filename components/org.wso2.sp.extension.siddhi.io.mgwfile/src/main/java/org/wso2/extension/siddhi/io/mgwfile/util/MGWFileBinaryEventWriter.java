@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.wso2.carbon.databridge.commons.Attribute;
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference writer of the binary columnar format described in {@link MGWFileBinaryFormat}. The events of each stream
+ * are buffered and written as a block of columns once the block size is reached. Instances are not thread safe.
+ */
+public class MGWFileBinaryEventWriter implements Closeable {
+
+    private final DataOutputStream outputStream;
+    private final int blockSize;
+    private final Map<String, StreamBlock> streams = new HashMap<>();
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream block = new DataOutputStream(blockBuffer);
+
+    /**
+     * Creates a writer and writes the file header.
+     *
+     * @param outputStream stream to write the usage data to
+     * @param blockSize    maximum number of events of a stream written as a single block
+     * @throws IOException if the header cannot be written
+     */
+    public MGWFileBinaryEventWriter(OutputStream outputStream, int blockSize) throws IOException {
+        this.outputStream = new DataOutputStream(outputStream);
+        this.blockSize = Math.max(1, blockSize);
+        this.outputStream.write(MGWFileBinaryFormat.MAGIC);
+        this.outputStream.writeByte(MGWFileBinaryFormat.VERSION);
+    }
+
+    /**
+     * Writes the schema of a stream. A stream has to be added before its events are written.
+     *
+     * @param streamId          stream id
+     * @param payloadAttributes payload attributes of the stream definition
+     * @throws IOException if the schema cannot be written
+     */
+    public void addStream(String streamId, List<Attribute> payloadAttributes) throws IOException {
+        if (streams.containsKey(streamId)) {
+            throw new IllegalArgumentException("Stream is already added : " + streamId);
+        }
+        byte[] types = new byte[payloadAttributes == null ? 0 : payloadAttributes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = MGWFileBinaryFormat.typeCode(payloadAttributes.get(i).getType());
+        }
+        StreamBlock stream = new StreamBlock(streams.size(), types);
+        byte[] streamIdBytes = streamId.getBytes(StandardCharsets.UTF_8);
+        block.writeShort(stream.index);
+        block.writeShort(streamIdBytes.length);
+        block.write(streamIdBytes);
+        block.writeLong(MGWFileBinaryFormat.fingerprint(payloadAttributes));
+        block.writeShort(types.length);
+        block.write(types);
+        writeBlock(MGWFileBinaryFormat.SCHEMA_BLOCK);
+        streams.put(streamId, stream);
+    }
+
+    /**
+     * Buffers an event, writing the block of its stream once it is full.
+     *
+     * @param event event of a stream which has been added
+     * @throws IOException if a block cannot be written or is larger than the maximum block size
+     */
+    public void write(Event event) throws IOException {
+        StreamBlock stream = streams.get(event.getStreamId());
+        if (stream == null) {
+            throw new IllegalArgumentException("Stream is not added : " + event.getStreamId());
+        }
+        stream.events.add(event);
+        if (stream.events.size() >= blockSize) {
+            writeEvents(stream);
+        }
+    }
+
+    /**
+     * Writes the buffered events of all the streams and flushes the underlying stream.
+     *
+     * @throws IOException if a block cannot be written
+     */
+    public void flush() throws IOException {
+        for (StreamBlock stream : streams.values()) {
+            if (!stream.events.isEmpty()) {
+                writeEvents(stream);
+            }
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private void writeEvents(StreamBlock stream) throws IOException {
+        List<Event> events = stream.events;
+        int count = events.size();
+        block.writeShort(stream.index);
+        block.writeInt(count);
+        for (Event event : events) {
+            block.writeLong(event.getTimeStamp());
+        }
+        writeStringColumn(events, true);
+        writeStringColumn(events, false);
+        for (int column = 0; column < stream.types.length; column++) {
+            writePayloadColumn(events, column, stream.types[column]);
+        }
+        writeBlock(MGWFileBinaryFormat.EVENTS_BLOCK);
+        events.clear();
+    }
+
+    private void writeStringColumn(List<Event> events, boolean metaData) throws IOException {
+        byte[] nullBitmap = new byte[(events.size() + 7) / 8];
+        for (int row = 0; row < events.size(); row++) {
+            if (getFirst(metaData ? events.get(row).getMetaData() : events.get(row).getCorrelationData()) == null) {
+                nullBitmap[row >> 3] |= 1 << (row & 7);
+            }
+        }
+        block.write(nullBitmap);
+        for (Event event : events) {
+            Object value = getFirst(metaData ? event.getMetaData() : event.getCorrelationData());
+            if (value != null) {
+                writeString(value.toString());
+            }
+        }
+    }
+
+    private void writePayloadColumn(List<Event> events, int column, byte type) throws IOException {
+        byte[] nullBitmap = new byte[(events.size() + 7) / 8];
+        for (int row = 0; row < events.size(); row++) {
+            if (getPayloadValue(events.get(row), column) == null) {
+                nullBitmap[row >> 3] |= 1 << (row & 7);
+            }
+        }
+        block.write(nullBitmap);
+        for (Event event : events) {
+            Object value = getPayloadValue(event, column);
+            if (value == null) {
+                continue;
+            }
+            switch (type) {
+            case MGWFileBinaryFormat.INT:
+                block.writeInt(((Number) value).intValue());
+                break;
+            case MGWFileBinaryFormat.LONG:
+                block.writeLong(((Number) value).longValue());
+                break;
+            case MGWFileBinaryFormat.FLOAT:
+                block.writeFloat(((Number) value).floatValue());
+                break;
+            case MGWFileBinaryFormat.DOUBLE:
+                block.writeDouble(((Number) value).doubleValue());
+                break;
+            case MGWFileBinaryFormat.BOOL:
+                block.writeBoolean((Boolean) value);
+                break;
+            default:
+                writeString(value.toString());
+            }
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        block.writeInt(bytes.length);
+        block.write(bytes);
+    }
+
+    private void writeBlock(byte type) throws IOException {
+        block.flush();
+        if (blockBuffer.size() > MGWFileBinaryFormat.MAX_BLOCK_SIZE) {
+            int size = blockBuffer.size();
+            blockBuffer.reset();
+            throw new IOException("Block of " + size + " bytes exceeds the maximum block size of "
+                    + MGWFileBinaryFormat.MAX_BLOCK_SIZE + " bytes. Use a smaller block size.");
+        }
+        outputStream.writeByte(type);
+        outputStream.writeInt(blockBuffer.size());
+        blockBuffer.writeTo(outputStream);
+        blockBuffer.reset();
+    }
+
+    private static Object getFirst(Object[] values) {
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    private static Object getPayloadValue(Event event, int column) {
+        Object[] payload = event.getPayloadData();
+        return payload == null || column >= payload.length ? null : payload[column];
+    }
+
+    /**
+     * Schema and buffered events of a stream.
+     */
+    private static class StreamBlock {
+        private final int index;
+        private final byte[] types;
+        private final List<Event> events = new ArrayList<>();
+
+        StreamBlock(int index, byte[] types) {
+            this.index = index;
+            this.types = types;
+        }
+    }
+}
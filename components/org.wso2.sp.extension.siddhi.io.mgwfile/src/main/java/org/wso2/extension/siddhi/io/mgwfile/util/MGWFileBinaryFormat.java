@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.wso2.carbon.databridge.commons.Attribute;
+import org.wso2.carbon.databridge.commons.AttributeType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Definition of the binary columnar format of the usage data, written by {@link MGWFileBinaryEventWriter} and read by
+ * {@link MGWFileBinaryEventReader}. All numbers are big endian.
+ * <pre>
+ * file   := MAGIC VERSION block*
+ * block  := type:u8 length:i32 body[length]      length is at most MAX_BLOCK_SIZE, unknown types are skipped
+ * schema := streamIndex:u16 streamIdLength:u16 streamId:utf8 fingerprint:i64 attributeCount:u16 typeCode:u8*
+ * events := streamIndex:u16 count:i32 timestamp:i64[count] metaData correlationData payloadColumn*
+ * column := nullBitmap[(count + 7) / 8] value*   a value is written for each non null row
+ * </pre>
+ * String values are written as a length:i32 followed by the UTF-8 bytes. The fingerprint of a schema is computed from
+ * the names and types of the payload attributes, so that events are not decoded against a different stream
+ * definition.
+ */
+public final class MGWFileBinaryFormat {
+
+    static final byte[] MAGIC = {'M', 'G', 'W', 'B'};
+    static final byte VERSION = 1;
+
+    /**
+     * Maximum length of a block body, so that a corrupted length cannot make the reader allocate an arbitrary buffer.
+     */
+    static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+    static final byte SCHEMA_BLOCK = 1;
+    static final byte EVENTS_BLOCK = 2;
+
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte FLOAT = 3;
+    static final byte DOUBLE = 4;
+    static final byte BOOL = 5;
+    static final byte STRING = 6;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private MGWFileBinaryFormat() {
+    }
+
+    /**
+     * Wraps the given stream so that its format can be detected without consuming the magic bytes.
+     *
+     * @param inputStream stream of the usage data
+     * @return stream to be passed to {@link #isBinaryFormat(PushbackInputStream)} and read afterwards
+     */
+    public static PushbackInputStream wrap(InputStream inputStream) {
+        return new PushbackInputStream(inputStream, MAGIC.length);
+    }
+
+    /**
+     * Whether the given stream starts with the magic bytes of the binary format. The bytes read are pushed back.
+     *
+     * @param inputStream stream with a push back buffer of at least four bytes
+     * @return true if the stream is in the binary format
+     * @throws IOException if the stream cannot be read
+     */
+    public static boolean isBinaryFormat(PushbackInputStream inputStream) throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        int length = 0;
+        int read;
+        while (length < MAGIC.length && (read = inputStream.read(header, length, MAGIC.length - length)) > 0) {
+            length += read;
+        }
+        if (length > 0) {
+            inputStream.unread(header, 0, length);
+        }
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes the fingerprint of the given payload attributes.
+     *
+     * @param payloadAttributes payload attributes of a stream definition
+     * @return 64 bit FNV-1a hash of the attribute names and types
+     */
+    public static long fingerprint(List<Attribute> payloadAttributes) {
+        long hash = FNV_OFFSET_BASIS;
+        if (payloadAttributes == null) {
+            return hash;
+        }
+        for (Attribute attribute : payloadAttributes) {
+            String value = attribute.getName() + ":" + typeCode(attribute.getType()) + ";";
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    static byte typeCode(AttributeType type) {
+        if (type == null) {
+            return STRING;
+        }
+        switch (type) {
+        case INT:
+            return INT;
+        case LONG:
+            return LONG;
+        case FLOAT:
+            return FLOAT;
+        case DOUBLE:
+            return DOUBLE;
+        case BOOL:
+            return BOOL;
+        default:
+            return STRING;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Util class for the SHA-256 checksums of the uploaded usage data, which are exchanged hex encoded.
+ */
+public class MGWFileChecksumUtil {
+
+    private static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+    /**
+     * Creates a digest computing the checksum.
+     *
+     * @return SHA-256 message digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException("Checksum algorithm " + CHECKSUM_ALGORITHM + " is not available.", e);
+        }
+    }
+
+    /**
+     * Encodes a checksum with lower case hex digits.
+     *
+     * @param checksum digest of the content
+     * @return hex encoded checksum
+     */
+    public static String toHex(byte[] checksum) {
+        StringBuilder builder = new StringBuilder(checksum.length * 2);
+        for (byte b : checksum) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
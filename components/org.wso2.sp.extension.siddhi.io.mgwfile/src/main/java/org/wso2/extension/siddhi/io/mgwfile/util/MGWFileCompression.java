@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression formats of the uploaded usage files, detected from the magic bytes at the start of the content. A zip
+ * file may hold several usage data entries, while the other formats are framed streams of a single usage data file.
+ * The zstd and LZ4 formats are only supported when the zstd-jni and lz4-java libraries are installed. Their classes
+ * are only referenced from holder classes which are loaded on first use, so the other formats keep working when the
+ * libraries are missing.
+ */
+public enum MGWFileCompression {
+
+    ZIP("zip", new byte[]{0x50, 0x4B, 0x03, 0x04}, null) {
+        @Override
+        public InputStream decompress(InputStream inputStream) {
+            // entries are read by the caller
+            return inputStream;
+        }
+    },
+    GZIP("gz", new byte[]{0x1F, (byte) 0x8B}, null) {
+        @Override
+        public InputStream decompress(InputStream inputStream) throws IOException {
+            return new GZIPInputStream(inputStream, BUFFER_SIZE);
+        }
+    },
+    ZSTD("zst", new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD}, "com.github.luben.zstd.ZstdInputStream") {
+        @Override
+        public InputStream decompress(InputStream inputStream) throws IOException {
+            if (!isAvailable()) {
+                throw new IOException("zstd-jni library is required to decompress zstd usage files.");
+            }
+            return ZstdCodec.decompress(inputStream);
+        }
+    },
+    LZ4("lz4", new byte[]{0x04, 0x22, 0x4D, 0x18}, "net.jpountz.lz4.LZ4FrameInputStream") {
+        @Override
+        public InputStream decompress(InputStream inputStream) throws IOException {
+            if (!isAvailable()) {
+                throw new IOException("lz4-java library is required to decompress LZ4 usage files.");
+            }
+            return LZ4Codec.decompress(inputStream);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int MAGIC_LENGTH = 4;
+
+    private final String extension;
+    private final byte[] magic;
+    private final boolean available;
+
+    MGWFileCompression(String extension, byte[] magic, String codecClassName) {
+        this.extension = extension;
+        this.magic = magic;
+        this.available = codecClassName == null || isClassPresent(codecClassName);
+    }
+
+    /**
+     * File name extension of the format.
+     *
+     * @return extension without the leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Whether the codec of the format is installed, so that files in the format can be decompressed.
+     *
+     * @return true if files in the format can be read
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Finds the format with the given file name extension.
+     *
+     * @param extension extension without the leading dot
+     * @return compression format or null if the extension is not known
+     */
+    public static MGWFileCompression fromExtension(String extension) {
+        for (MGWFileCompression compression : values()) {
+            if (compression.extension.equalsIgnoreCase(extension)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wraps the given compressed stream with a stream of the decompressed content.
+     *
+     * @param inputStream compressed content
+     * @return decompressed content
+     * @throws IOException if the stream header is not valid or the codec is not available
+     */
+    public abstract InputStream decompress(InputStream inputStream) throws IOException;
+
+    /**
+     * Wraps the given stream so that its format can be detected without consuming the magic bytes.
+     *
+     * @param inputStream content of the uploaded file
+     * @return stream to be passed to {@link #detect(PushbackInputStream)} and read afterwards
+     */
+    public static PushbackInputStream wrap(InputStream inputStream) {
+        return new PushbackInputStream(inputStream, MAGIC_LENGTH);
+    }
+
+    /**
+     * Detects the format of the content from its magic bytes. Content in an unknown format is treated as a zip file,
+     * which is rejected as it has no usage data entries.
+     *
+     * @param inputStream content of the uploaded file
+     * @return compression format of the content
+     * @throws IOException if the content cannot be read
+     */
+    public static MGWFileCompression detect(PushbackInputStream inputStream) throws IOException {
+        byte[] header = new byte[MAGIC_LENGTH];
+        int length = 0;
+        int read;
+        while (length < MAGIC_LENGTH && (read = inputStream.read(header, length, MAGIC_LENGTH - length)) > 0) {
+            length += read;
+        }
+        if (length > 0) {
+            inputStream.unread(header, 0, length);
+        }
+        for (MGWFileCompression compression : values()) {
+            if (compression.matches(header, length)) {
+                return compression;
+            }
+        }
+        return ZIP;
+    }
+
+    private static boolean isClassPresent(String className) {
+        try {
+            Class.forName(className, false, MGWFileCompression.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private boolean matches(byte[] header, int length) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Holder of the zstd codec, loaded only once a zstd file is read.
+     */
+    private static class ZstdCodec {
+
+        static InputStream decompress(InputStream inputStream) throws IOException {
+            return new ZstdInputStream(inputStream);
+        }
+    }
+
+    /**
+     * Holder of the LZ4 codec, loaded only once an LZ4 file is read.
+     */
+    private static class LZ4Codec {
+
+        static InputStream decompress(InputStream inputStream) throws IOException {
+            return new LZ4FrameInputStream(inputStream);
+        }
+    }
+}
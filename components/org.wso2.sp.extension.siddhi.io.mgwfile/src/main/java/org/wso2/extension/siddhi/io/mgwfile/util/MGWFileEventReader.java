@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.io.IOException;
+
+/**
+ * Reader of usage data stored as a sequence of encoded events, as opposed to the lines of the text format.
+ */
+public interface MGWFileEventReader {
+
+    /**
+     * Returns the next event.
+     *
+     * @return next event or null if there are no more events
+     * @throws IOException if the usage data cannot be read or is not valid
+     */
+    Event next() throws IOException;
+
+    /**
+     * Number of events read so far, including the events which were skipped. Each event is counted as a line of the
+     * file when checkpointing.
+     *
+     * @return event count
+     */
+    long getEventCount();
+}
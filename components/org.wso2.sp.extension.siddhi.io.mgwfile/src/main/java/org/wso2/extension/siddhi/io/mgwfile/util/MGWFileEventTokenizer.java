@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass tokenizer for the events persisted in the uploaded usage file.
+ * <p>
+ * Each line has the form
+ * {@code streamId-KS-<id>-ES-timeStamp-KS-<ts>-ES-metaData-KS-<meta>-ES-correlationData-KS-<corr>-ES-payLoadData-KS-
+ * <f1>-OS-<f2>...}. Lines are read into a reusable character buffer and scanned once, recording the offsets of the
+ * section values and payload fields. Numeric and boolean values are parsed directly from those offsets, so no
+ * intermediate strings are created for them. Instances are not thread safe.
+ */
+public class MGWFileEventTokenizer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int SECTION_COUNT = 5;
+    private static final int STREAM_ID = 0;
+    private static final int TIMESTAMP = 1;
+    private static final int META_DATA = 2;
+    private static final int CORRELATION_DATA = 3;
+    private static final int PAYLOAD_DATA = 4;
+    private static final char[] NULL_VALUE = {'n', 'u', 'l', 'l'};
+
+    private final Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+    private boolean valid;
+
+    private final int[] valueStarts = new int[SECTION_COUNT];
+    private final int[] valueEnds = new int[SECTION_COUNT];
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private int fieldCount;
+
+    private String lastStreamId;
+
+    public MGWFileEventTokenizer(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    public MGWFileEventTokenizer(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Creates a tokenizer over lines which are already in memory. The given array is used as the buffer and is not
+     * copied.
+     *
+     * @param data   characters to be tokenized
+     * @param length number of characters in the array
+     */
+    public MGWFileEventTokenizer(char[] data, int length) {
+        this.reader = null;
+        this.buffer = data;
+        this.limit = length;
+        this.endOfStream = true;
+    }
+
+    /**
+     * Advances to the next line of the underlying reader and tokenizes it.
+     *
+     * @return false if there are no more lines to read
+     * @throws IOException if an error occurs while reading from the underlying reader
+     */
+    public boolean next() throws IOException {
+        if (!readLine()) {
+            return false;
+        }
+        lineNumber++;
+        valid = tokenize();
+        return true;
+    }
+
+    /**
+     * Advances to the next line of the underlying reader without tokenizing it. The skipped line is not valid.
+     *
+     * @return false if there are no more lines to read
+     * @throws IOException if an error occurs while reading from the underlying reader
+     */
+    public boolean skip() throws IOException {
+        if (!readLine()) {
+            return false;
+        }
+        lineNumber++;
+        valid = false;
+        return true;
+    }
+
+    /**
+     * Whether the current line matches the expected event format.
+     *
+     * @return true if all the sections of the event were found
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the stream id of the current event. The previous instance is reused when consecutive events belong to
+     * the same stream.
+     *
+     * @return stream id of the current event
+     */
+    public String getStreamId() {
+        int start = valueStarts[STREAM_ID];
+        int length = valueEnds[STREAM_ID] - start;
+        if (lastStreamId == null || !regionEquals(start, length, lastStreamId)) {
+            lastStreamId = new String(buffer, start, length);
+        }
+        return lastStreamId;
+    }
+
+    public long getTimestamp() throws NumberFormatException {
+        return parseLong(valueStarts[TIMESTAMP], valueEnds[TIMESTAMP]);
+    }
+
+    public Object[] getMetaData() {
+        return createMetaData(META_DATA);
+    }
+
+    public Object[] getCorrelationData() {
+        return createMetaData(CORRELATION_DATA);
+    }
+
+    /**
+     * Number of payload fields found in the current event.
+     *
+     * @return payload field count
+     */
+    public int getPayloadFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Whether the given payload field is empty after trimming.
+     *
+     * @param field index of the payload field
+     * @return true if the field has no content
+     */
+    public boolean isPayloadFieldEmpty(int field) {
+        return fieldStarts[field] >= fieldEnds[field];
+    }
+
+    public String getPayloadString(int field) {
+        return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    public int getPayloadInt(int field) throws NumberFormatException {
+        long value = parseLong(fieldStarts[field], fieldEnds[field]);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw numberFormatException(fieldStarts[field], fieldEnds[field]);
+        }
+        return (int) value;
+    }
+
+    public long getPayloadLong(int field) throws NumberFormatException {
+        return parseLong(fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * Parses the given payload field with the semantics of {@link Boolean#parseBoolean(String)}.
+     *
+     * @param field index of the payload field
+     * @return true if the field is equal to "true" ignoring case
+     */
+    public boolean getPayloadBoolean(int field) {
+        int start = fieldStarts[field];
+        if (fieldEnds[field] - start != 4) {
+            return false;
+        }
+        return Character.toLowerCase(buffer[start]) == 't' && Character.toLowerCase(buffer[start + 1]) == 'r'
+                && Character.toLowerCase(buffer[start + 2]) == 'u' && Character.toLowerCase(buffer[start + 3]) == 'e';
+    }
+
+    /**
+     * Returns the current line. Intended for error reporting only, as it allocates a new string.
+     *
+     * @return content of the current line
+     */
+    @Override
+    public String toString() {
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    private Object[] createMetaData(int section) {
+        int start = valueStarts[section];
+        int length = valueEnds[section] - start;
+        if (length == 0 || (length == NULL_VALUE.length && regionEquals(start, NULL_VALUE))) {
+            return null;
+        }
+        return new Object[]{new String(buffer, start, length)};
+    }
+
+    /**
+     * Locates the next line in the buffer, refilling and growing it as required.
+     */
+    private boolean readLine() throws IOException {
+        int scanFrom = position;
+        while (true) {
+            for (int i = scanFrom; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (endOfStream) {
+                if (position < limit) {
+                    setLine(position, limit);
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scanFrom = limit - position;
+            fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        lineStart = start;
+        lineEnd = end;
+    }
+
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            char[] newBuffer = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, remaining);
+            buffer = newBuffer;
+        }
+        position = 0;
+        limit = remaining;
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * Scans the current line once, recording the value offsets of each section and the payload field offsets. A
+     * value ends at the next event separator or at a repeated key-value separator, matching the way the file was
+     * previously split.
+     */
+    private boolean tokenize() {
+        int section = 0;
+        boolean keyFound = false;
+        boolean valueEnded = false;
+        fieldCount = 0;
+        int fieldStart = -1;
+        int i = lineStart;
+        int lastSeparatorStart = lineEnd - 3;
+        while (i < lastSeparatorStart) {
+            char type = buffer[i + 1];
+            if (buffer[i] != '-' || buffer[i + 2] != 'S' || buffer[i + 3] != '-'
+                    || (type != 'E' && type != 'K' && type != 'O')) {
+                i++;
+                continue;
+            }
+            if (type == 'E') {
+                if (!keyFound) {
+                    return false;
+                }
+                if (!valueEnded) {
+                    endValue(section, i, fieldStart);
+                }
+                section++;
+                if (section == SECTION_COUNT) {
+                    return true;
+                }
+                keyFound = false;
+                valueEnded = false;
+            } else if (type == 'K') {
+                if (!keyFound) {
+                    keyFound = true;
+                    valueStarts[section] = i + 4;
+                    fieldStart = i + 4;
+                } else if (!valueEnded) {
+                    endValue(section, i, fieldStart);
+                    valueEnded = true;
+                }
+            } else if (section == PAYLOAD_DATA && keyFound && !valueEnded) {
+                addField(fieldStart, i);
+                fieldStart = i + 4;
+            }
+            i += 4;
+        }
+        if (section != PAYLOAD_DATA || !keyFound) {
+            return false;
+        }
+        if (!valueEnded) {
+            endValue(section, lineEnd, fieldStart);
+        }
+        return true;
+    }
+
+    private void endValue(int section, int end, int fieldStart) {
+        valueEnds[section] = end;
+        if (section == PAYLOAD_DATA) {
+            addField(fieldStart, end);
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStarts.length) {
+            int[] newStarts = new int[fieldCount * 2];
+            int[] newEnds = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+            fieldStarts = newStarts;
+            fieldEnds = newEnds;
+        }
+        while (start < end && buffer[start] <= ' ') {
+            start++;
+        }
+        while (end > start && buffer[end - 1] <= ' ') {
+            end--;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldCount++;
+    }
+
+    private boolean regionEquals(int start, int length, String value) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, char[] value) {
+        for (int i = 0; i < value.length; i++) {
+            if (buffer[start + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a signed decimal long from the buffer with the semantics of {@link Long#parseLong(String)}.
+     */
+    private long parseLong(int start, int end) throws NumberFormatException {
+        if (start >= end) {
+            throw numberFormatException(start, end);
+        }
+        int i = start;
+        boolean negative = false;
+        long limitValue = -Long.MAX_VALUE;
+        char first = buffer[i];
+        if (first == '-' || first == '+') {
+            if (end - start == 1) {
+                throw numberFormatException(start, end);
+            }
+            if (first == '-') {
+                negative = true;
+                limitValue = Long.MIN_VALUE;
+            }
+            i++;
+        }
+        long multiplyLimit = limitValue / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                throw numberFormatException(start, end);
+            }
+            result *= 10;
+            if (result < limitValue + digit) {
+                throw numberFormatException(start, end);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    private NumberFormatException numberFormatException(int start, int end) {
+        return new NumberFormatException("For input string: \"" + new String(buffer, start, end - start) + "\"");
+    }
+}
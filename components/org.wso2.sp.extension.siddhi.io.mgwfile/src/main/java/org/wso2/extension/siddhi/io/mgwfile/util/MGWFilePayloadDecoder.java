@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.wso2.carbon.databridge.commons.Attribute;
+import org.wso2.carbon.databridge.commons.AttributeType;
+import org.wso2.carbon.databridge.commons.StreamDefinition;
+
+import java.util.List;
+
+/**
+ * Payload decoder compiled once from a {@link StreamDefinition}. It holds a parser for each payload attribute, indexed
+ * by the attribute position, so decoding an event does not require any lookups on the stream definition.
+ */
+public class MGWFilePayloadDecoder {
+
+    private static final FieldParser STRING_PARSER = new FieldParser() {
+        @Override
+        public Object parse(MGWFileEventTokenizer tokenizer, int field) {
+            return tokenizer.getPayloadString(field);
+        }
+    };
+
+    private static final FieldParser INT_PARSER = new FieldParser() {
+        @Override
+        public Object parse(MGWFileEventTokenizer tokenizer, int field) {
+            return tokenizer.getPayloadInt(field);
+        }
+    };
+
+    private static final FieldParser LONG_PARSER = new FieldParser() {
+        @Override
+        public Object parse(MGWFileEventTokenizer tokenizer, int field) {
+            return tokenizer.getPayloadLong(field);
+        }
+    };
+
+    private static final FieldParser BOOL_PARSER = new FieldParser() {
+        @Override
+        public Object parse(MGWFileEventTokenizer tokenizer, int field) {
+            return tokenizer.getPayloadBoolean(field);
+        }
+    };
+
+    private static final FieldParser FLOAT_PARSER = new FieldParser() {
+        @Override
+        public Object parse(MGWFileEventTokenizer tokenizer, int field) {
+            return Float.parseFloat(tokenizer.getPayloadString(field));
+        }
+    };
+
+    private static final FieldParser DOUBLE_PARSER = new FieldParser() {
+        @Override
+        public Object parse(MGWFileEventTokenizer tokenizer, int field) {
+            return Double.parseDouble(tokenizer.getPayloadString(field));
+        }
+    };
+
+    private final FieldParser[] parsers;
+    private final long schemaFingerprint;
+
+    private MGWFilePayloadDecoder(FieldParser[] parsers, long schemaFingerprint) {
+        this.parsers = parsers;
+        this.schemaFingerprint = schemaFingerprint;
+    }
+
+    /**
+     * Compiles a decoder for the payload attributes of the given stream definition.
+     *
+     * @param streamDefinition stream definition of the stream
+     * @return decoder for the payload of the stream
+     */
+    public static MGWFilePayloadDecoder compile(StreamDefinition streamDefinition) {
+        List<Attribute> payloadAttributes = streamDefinition.getPayloadData();
+        long schemaFingerprint = MGWFileBinaryFormat.fingerprint(payloadAttributes);
+        if (payloadAttributes == null) {
+            return new MGWFilePayloadDecoder(new FieldParser[0], schemaFingerprint);
+        }
+        FieldParser[] parsers = new FieldParser[payloadAttributes.size()];
+        for (int i = 0; i < parsers.length; i++) {
+            parsers[i] = getParser(payloadAttributes.get(i).getType());
+        }
+        return new MGWFilePayloadDecoder(parsers, schemaFingerprint);
+    }
+
+    /**
+     * Decodes the payload of the current event of the tokenizer. Missing or empty fields are decoded as null and
+     * fields which are not part of the stream definition are ignored.
+     *
+     * @param tokenizer tokenizer positioned at the event
+     * @return payload data of the event
+     * @throws NumberFormatException if a numeric field cannot be parsed
+     */
+    public Object[] decode(MGWFileEventTokenizer tokenizer) throws NumberFormatException {
+        Object[] payload = new Object[parsers.length];
+        int fieldCount = Math.min(parsers.length, tokenizer.getPayloadFieldCount());
+        for (int i = 0; i < fieldCount; i++) {
+            if (!tokenizer.isPayloadFieldEmpty(i)) {
+                payload[i] = parsers[i].parse(tokenizer, i);
+            }
+        }
+        return payload;
+    }
+
+    /**
+     * Fingerprint of the payload attributes of the stream definition, as defined by {@link MGWFileBinaryFormat}.
+     *
+     * @return schema fingerprint
+     */
+    public long getSchemaFingerprint() {
+        return schemaFingerprint;
+    }
+
+    private static FieldParser getParser(AttributeType type) {
+        if (type == null) {
+            return STRING_PARSER;
+        }
+        switch (type) {
+        case INT:
+            return INT_PARSER;
+        case LONG:
+            return LONG_PARSER;
+        case BOOL:
+            return BOOL_PARSER;
+        case FLOAT:
+            return FLOAT_PARSER;
+        case DOUBLE:
+            return DOUBLE_PARSER;
+        default:
+            return STRING_PARSER;
+        }
+    }
+
+    /**
+     * Parser for a single payload field.
+     */
+    private interface FieldParser {
+        Object parse(MGWFileEventTokenizer tokenizer, int field) throws NumberFormatException;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors;
+import org.wso2.analytics.mgw.grpc.service.AnalyticsStreamMessage;
+import org.wso2.carbon.databridge.commons.Attribute;
+import org.wso2.carbon.databridge.commons.AttributeType;
+import org.wso2.carbon.databridge.commons.Event;
+import org.wso2.carbon.databridge.commons.StreamDefinition;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader of usage data stored as a length delimited stream of {@link AnalyticsStreamMessage}, the message sent by the
+ * microgateway over gRPC. Each message is routed to the stream named by its messageStreamName, and its fields are
+ * mapped to the attributes of the stream definition by name, the meta attributes being prefixed with "meta_" as in
+ * the gRPC stream. Instances are not thread safe.
+ */
+public class MGWFileProtobufEventReader implements MGWFileEventReader {
+
+    private static final String META_PREFIX = "meta_";
+    private static final String CORRELATION_PREFIX = "correlation_";
+    private static final Map<String, String> STREAM_IDS;
+
+    static {
+        Map<String, String> streamIds = new HashMap<>();
+        streamIds.put("InComingRequestStream", MGWFileSourceConstants.REQUEST_STREAM_ID);
+        streamIds.put("ThrottledOutStream", MGWFileSourceConstants.THROTTLE_STREAM_ID);
+        streamIds.put("FaultStream", MGWFileSourceConstants.FAULT_STREAM_ID);
+        STREAM_IDS = Collections.unmodifiableMap(streamIds);
+    }
+
+    private final CodedInputStream inputStream;
+    private final Map<String, MessageDecoder> decoders = new HashMap<>();
+    private long eventCount;
+
+    /**
+     * Creates a reader over the given stream.
+     *
+     * @param inputStream stream of length delimited messages
+     * @throws IOException if the protobuf library or the gRPC service bundle is not available
+     */
+    public MGWFileProtobufEventReader(InputStream inputStream) throws IOException {
+        try {
+            this.inputStream = CodedInputStream.newInstance(inputStream);
+            // initializes the generated message class
+            AnalyticsStreamMessage.getDescriptor();
+        } catch (NoClassDefFoundError e) {
+            throw new IOException("gRPC service bundle is required to read protobuf usage files.", e);
+        }
+    }
+
+    @Override
+    public Event next() throws IOException {
+        if (inputStream.isAtEnd()) {
+            return null;
+        }
+        int length = inputStream.readRawVarint32();
+        int oldLimit = inputStream.pushLimit(length);
+        AnalyticsStreamMessage message = AnalyticsStreamMessage.parser().parseFrom(inputStream);
+        inputStream.popLimit(oldLimit);
+        // the size limit applies to each message rather than the whole file
+        inputStream.resetSizeCounter();
+        eventCount++;
+
+        String streamId = STREAM_IDS.get(message.getMessageStreamName());
+        if (streamId == null) {
+            streamId = message.getMessageStreamName();
+        }
+        MessageDecoder decoder = decoders.get(streamId);
+        if (decoder == null) {
+            decoder = new MessageDecoder(FileDataRetrieverUtil.getStreamDefinition(streamId));
+            decoders.put(streamId, decoder);
+        }
+        long timestamp = message.getRequestTimestamp() != 0 ? message.getRequestTimestamp()
+                : message.getThrottledOutTimestamp();
+        return new Event(streamId, timestamp, decoder.metaData.decode(message),
+                decoder.correlationData.decode(message), decoder.payloadData.decode(message));
+    }
+
+    @Override
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Decoder of the messages of a stream, compiled once from the stream definition.
+     */
+    private static class MessageDecoder {
+
+        private final AttributesDecoder metaData;
+        private final AttributesDecoder correlationData;
+        private final AttributesDecoder payloadData;
+
+        MessageDecoder(StreamDefinition streamDefinition) {
+            if (streamDefinition == null) {
+                // the event is reported as not having an event source when published
+                metaData = new AttributesDecoder(null, "", true);
+                correlationData = new AttributesDecoder(null, "", true);
+                payloadData = new AttributesDecoder(null, "", false);
+                return;
+            }
+            metaData = new AttributesDecoder(streamDefinition.getMetaData(), META_PREFIX, true);
+            correlationData = new AttributesDecoder(streamDefinition.getCorrelationData(), CORRELATION_PREFIX,
+                    true);
+            payloadData = new AttributesDecoder(streamDefinition.getPayloadData(), "", false);
+        }
+    }
+
+    /**
+     * Decoder of the message fields mapped to a list of attributes.
+     */
+    private static class AttributesDecoder {
+
+        private final Descriptors.FieldDescriptor[] fields;
+        private final AttributeType[] types;
+        private final boolean nullIfUndefined;
+
+        AttributesDecoder(List<Attribute> attributes, String prefix, boolean nullIfUndefined) {
+            int size = attributes != null ? attributes.size() : 0;
+            this.fields = new Descriptors.FieldDescriptor[size];
+            this.types = new AttributeType[size];
+            this.nullIfUndefined = nullIfUndefined;
+            Descriptors.Descriptor descriptor = AnalyticsStreamMessage.getDescriptor();
+            for (int i = 0; i < size; i++) {
+                fields[i] = descriptor.findFieldByName(prefix + attributes.get(i).getName());
+                types[i] = attributes.get(i).getType();
+            }
+        }
+
+        /**
+         * Decodes the attribute values of the message. Meta and correlation data are null if the stream does not
+         * define any such attribute.
+         */
+        Object[] decode(AnalyticsStreamMessage message) {
+            if (fields.length == 0 && nullIfUndefined) {
+                return null;
+            }
+            Object[] values = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null) {
+                    values[i] = convert(message.getField(fields[i]), types[i]);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Converts a field value to the type of the attribute. Empty strings are read as null, as in the text format.
+         */
+        private static Object convert(Object value, AttributeType type) {
+            if (value instanceof String) {
+                return ((String) value).isEmpty() ? null : FileDataRetrieverUtil.getPayloadObject(type,
+                        (String) value);
+            }
+            if (value instanceof Number && type != null) {
+                Number number = (Number) value;
+                switch (type) {
+                case INT:
+                    return number.intValue();
+                case LONG:
+                    return number.longValue();
+                case FLOAT:
+                    return number.floatValue();
+                case DOUBLE:
+                    return number.doubleValue();
+                case STRING:
+                    return number.toString();
+                default:
+                    return number;
+                }
+            }
+            if (value instanceof Boolean && type == AttributeType.STRING) {
+                return value.toString();
+            }
+            return value;
+        }
+    }
+}
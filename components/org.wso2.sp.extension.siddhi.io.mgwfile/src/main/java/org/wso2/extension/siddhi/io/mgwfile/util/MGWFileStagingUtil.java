@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.ZipFile;
+
+/**
+ * Util class for the file system staging mode, in which the content of the uploaded files is kept in a spool directory
+ * instead of the database. The staging mode is enabled by setting the staging directory.
+ */
+public class MGWFileStagingUtil {
+
+    private static final Log log = LogFactory.getLog(MGWFileStagingUtil.class);
+
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+
+    /**
+     * Whether uploaded files are staged in the file system.
+     *
+     * @return true if the staging directory is configured
+     */
+    public static boolean isStagingEnabled() {
+        return StringUtils.isNotEmpty(MGWFileSourceDS.getStagingDirectory());
+    }
+
+    /**
+     * Writes the uploaded content into the staging directory under a name unique to this upload. The file is synced
+     * to disk, and only becomes visible under the name of the uploaded file once it is published with
+     * {@link #publishStagedFile(Path, String)}, so uploads of the same file never overwrite or delete each other's
+     * content. A file which is not published must be removed with {@link #discardStagedFile(Path)}.
+     *
+     * @param fileName            name of the uploaded file
+     * @param uploadedInputStream content of the uploaded file
+     * @return staged file to be published
+     * @throws MGWFileSourceException if the file cannot be written
+     */
+    public static Path stage(String fileName, InputStream uploadedInputStream) throws MGWFileSourceException {
+        Path stagedFile = getStagedFile(fileName);
+        Path partialFile = stagedFile.resolveSibling(stagedFile.getFileName() + "." + UUID.randomUUID()
+                + PARTIAL_FILE_SUFFIX);
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(stagedFile.getParent());
+            channel = FileChannel.open(partialFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputStream outputStream = Channels.newOutputStream(channel);
+            IOUtils.copyLarge(uploadedInputStream, outputStream);
+            channel.force(true);
+            channel.close();
+            return partialFile;
+        } catch (IOException e) {
+            IOUtils.closeQuietly(channel);
+            deleteQuietly(partialFile);
+            throw new MGWFileSourceException("Error occurred while staging the uploaded file : " + fileName, e);
+        }
+    }
+
+    /**
+     * Makes a staged file visible under the name of the uploaded file with an atomic rename, replacing a file left
+     * by an upload which was not persisted. Called while the uploaded file is being persisted, so that no other
+     * upload of the same file can publish its content meanwhile.
+     *
+     * @param partialFile staged file returned by {@link #stage(String, InputStream)}
+     * @param fileName    name of the uploaded file
+     * @throws MGWFileSourceException if the file cannot be renamed
+     */
+    public static void publishStagedFile(Path partialFile, String fileName) throws MGWFileSourceException {
+        try {
+            Files.move(partialFile, getStagedFile(fileName), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while publishing the staged file : " + fileName, e);
+        }
+    }
+
+    /**
+     * Deletes a staged file which was not published.
+     *
+     * @param partialFile staged file returned by {@link #stage(String, InputStream)}
+     */
+    public static void discardStagedFile(Path partialFile) {
+        deleteQuietly(partialFile);
+    }
+
+    /**
+     * Opens the staged content of the given file through a memory mapped channel.
+     *
+     * @param fileName name of the uploaded file
+     * @return stream with the content or null if the file is not staged
+     * @throws MGWFileSourceException if the staged file cannot be opened
+     */
+    public static InputStream openStagedFile(String fileName) throws MGWFileSourceException {
+        Path stagedFile = getStagedFile(fileName);
+        if (!Files.isRegularFile(stagedFile)) {
+            return null;
+        }
+        try {
+            return new MappedFileInputStream(stagedFile);
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while opening the staged file : " + fileName, e);
+        }
+    }
+
+    /**
+     * Opens the staged content of the given file as a zip file, so that its entries can be read independently.
+     *
+     * @param fileName name of the uploaded file
+     * @return zip file or null if the file is not staged
+     * @throws IOException            if the staged file is not a valid zip file
+     * @throws MGWFileSourceException if the file name is not valid
+     */
+    public static ZipFile openStagedZipFile(String fileName) throws IOException, MGWFileSourceException {
+        Path stagedFile = getStagedFile(fileName);
+        if (!Files.isRegularFile(stagedFile)) {
+            return null;
+        }
+        return new ZipFile(stagedFile.toFile());
+    }
+
+    /**
+     * Deletes the staged content of the given file, if present.
+     *
+     * @param fileName name of the uploaded file
+     */
+    public static void deleteStagedFile(String fileName) {
+        try {
+            deleteQuietly(getStagedFile(fileName));
+        } catch (MGWFileSourceException e) {
+            log.warn("Could not resolve the staged file of : " + fileName, e);
+        }
+    }
+
+    private static Path getStagedFile(String fileName) throws MGWFileSourceException {
+        Path stagingDirectory = Paths.get(MGWFileSourceDS.getStagingDirectory()).toAbsolutePath().normalize();
+        Path stagedFile = stagingDirectory.resolve(fileName).normalize();
+        if (!stagingDirectory.equals(stagedFile.getParent())) {
+            throw new MGWFileSourceException("Invalid uploaded file name : " + fileName);
+        }
+        return stagedFile;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete the staged file : " + path, e);
+        }
+    }
+}
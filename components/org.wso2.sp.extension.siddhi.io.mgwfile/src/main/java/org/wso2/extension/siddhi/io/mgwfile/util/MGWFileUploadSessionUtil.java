@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Util class for the resumable upload sessions, in which an uploaded file is received as a sequence of chunks. Each
+ * session is a directory in {@code usage.upload.session.directory} holding the name of the file and the chunks
+ * received so far. A chunk is written to a temporary file which is synced to disk and then atomically renamed to a
+ * name holding its offset and checksum, so a session only ever holds complete chunks and the offset of the next chunk
+ * is derived from the chunks themselves. Chunks never touch the database, which only receives the complete file when
+ * the session is committed.
+ * <p>
+ * As sessions only live in the directory, a session can be resumed on another node or after a restart only if the
+ * directory is persistent and shared by all the nodes which accept uploads.
+ */
+public class MGWFileUploadSessionUtil {
+
+    private static final Log log = LogFactory.getLog(MGWFileUploadSessionUtil.class);
+
+    private static final String FILE_NAME_FILE = "file-name";
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+    private static final String COMMITTING_SUFFIX = ".committing";
+    private static final String CHUNK_SUFFIX = ".chunk";
+    private static final int BUFFER_SIZE = 65536;
+    private static final Pattern CHUNK_PATTERN = Pattern.compile("(\\d{19})\\.([0-9a-f]{64})\\.chunk");
+    private static final Pattern SESSION_ID_PATTERN = Pattern
+            .compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final Object[] SESSION_LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < SESSION_LOCKS.length; i++) {
+            SESSION_LOCKS[i] = new Object();
+        }
+    }
+
+    /**
+     * Outcome of writing a chunk.
+     */
+    public enum ChunkStatus {
+        /**
+         * The chunk was written, or had already been written with the same checksum.
+         */
+        ACCEPTED,
+        /**
+         * The offset of the chunk is not the end of the chunks received so far.
+         */
+        OFFSET_MISMATCH,
+        /**
+         * The content of the chunk does not match its checksum.
+         */
+        CHECKSUM_MISMATCH,
+        /**
+         * The chunk has no content.
+         */
+        EMPTY_CHUNK,
+        /**
+         * The chunk would make the uploaded file larger than {@code usage.upload.session.max.size}.
+         */
+        SESSION_TOO_LARGE,
+        /**
+         * The session does not exist or is being committed.
+         */
+        SESSION_NOT_FOUND
+    }
+
+    /**
+     * Whether the given id has the format of a session id.
+     *
+     * @param sessionId id of the session
+     * @return true if the id is valid
+     */
+    public static boolean isValidSessionId(String sessionId) {
+        return sessionId != null && SESSION_ID_PATTERN.matcher(sessionId).matches();
+    }
+
+    /**
+     * Creates an upload session for the given file.
+     *
+     * @param fileName name of the uploaded file
+     * @return id of the session
+     * @throws MGWFileSourceException if the session directory cannot be created
+     */
+    public static String createSession(String fileName) throws MGWFileSourceException {
+        String sessionId = UUID.randomUUID().toString();
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        Path partialDirectory = sessionDirectory.resolveSibling(sessionId + PARTIAL_FILE_SUFFIX);
+        try {
+            Files.createDirectories(partialDirectory);
+            writeSynced(partialDirectory.resolve(FILE_NAME_FILE), fileName.getBytes(StandardCharsets.UTF_8));
+            Files.move(partialDirectory, sessionDirectory, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteDirectory(partialDirectory);
+            throw new MGWFileSourceException("Error occurred while creating an upload session for : " + fileName, e);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Created upload session : " + sessionId + " for file : " + fileName);
+        }
+        return sessionId;
+    }
+
+    /**
+     * Gets the name of the file uploaded in the given session.
+     *
+     * @param sessionId id of the session
+     * @return name of the file or null if the session does not exist
+     * @throws MGWFileSourceException if the session cannot be read
+     */
+    public static String getFileName(String sessionId) throws MGWFileSourceException {
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        try {
+            return new String(Files.readAllBytes(sessionDirectory.resolve(FILE_NAME_FILE)), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while reading the upload session : " + sessionId, e);
+        }
+    }
+
+    /**
+     * Gets the number of bytes received in the given session, which is the offset of the next chunk.
+     *
+     * @param sessionId id of the session
+     * @return offset of the next chunk or -1 if the session does not exist
+     * @throws MGWFileSourceException if the session cannot be read
+     */
+    public static long getOffset(String sessionId) throws MGWFileSourceException {
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        if (!Files.isDirectory(sessionDirectory)) {
+            return -1;
+        }
+        List<Chunk> chunks = getChunks(sessionId, sessionDirectory);
+        if (chunks.isEmpty()) {
+            return 0;
+        }
+        Chunk lastChunk = chunks.get(chunks.size() - 1);
+        return lastChunk.offset + lastChunk.size;
+    }
+
+    /**
+     * Writes a chunk of the uploaded file. A chunk is only accepted at the end of the chunks received so far. A chunk
+     * which was already accepted, such as one resent after a dropped connection, is accepted again without being
+     * written if its checksum is the same. Empty chunks and chunks exceeding the maximum size of the uploaded file
+     * are rejected.
+     *
+     * @param sessionId   id of the session
+     * @param offset      offset of the chunk in the uploaded file
+     * @param checksum    hex encoded SHA-256 checksum of the chunk
+     * @param chunkStream content of the chunk
+     * @return outcome of writing the chunk
+     * @throws MGWFileSourceException if the chunk cannot be written
+     */
+    public static ChunkStatus writeChunk(String sessionId, long offset, String checksum, InputStream chunkStream)
+            throws MGWFileSourceException {
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        String expectedChecksum = checksum.toLowerCase();
+        Path chunkFile = sessionDirectory.resolve(String.format("%019d", offset) + "." + expectedChecksum
+                + CHUNK_SUFFIX);
+        // rejected before reading the content, and checked again once it is written
+        ChunkStatus status = checkOffset(sessionId, offset, chunkFile);
+        if (status != null) {
+            return status;
+        }
+        long maxSize = Long.parseLong(MGWFileSourceDS.getUploadSessionMaxSize());
+        if (offset >= maxSize) {
+            return ChunkStatus.SESSION_TOO_LARGE;
+        }
+        Path partialFile = sessionDirectory.resolve(UUID.randomUUID() + PARTIAL_FILE_SUFFIX);
+        FileChannel channel = null;
+        try {
+            MessageDigest digest = MGWFileChecksumUtil.newDigest();
+            channel = FileChannel.open(partialFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputStream outputStream = Channels.newOutputStream(channel);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int read;
+            while ((read = chunkStream.read(buffer)) != -1) {
+                size += read;
+                if (offset + size > maxSize) {
+                    return ChunkStatus.SESSION_TOO_LARGE;
+                }
+                digest.update(buffer, 0, read);
+                outputStream.write(buffer, 0, read);
+            }
+            channel.force(true);
+            channel.close();
+            if (size == 0) {
+                // an empty chunk would leave two chunks at the offset of the next chunk
+                return ChunkStatus.EMPTY_CHUNK;
+            }
+            if (!expectedChecksum.equals(MGWFileChecksumUtil.toHex(digest.digest()))) {
+                return ChunkStatus.CHECKSUM_MISMATCH;
+            }
+            synchronized (getLock(sessionId)) {
+                status = checkOffset(sessionId, offset, chunkFile);
+                if (status != null) {
+                    return status;
+                }
+                Files.move(partialFile, chunkFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return ChunkStatus.ACCEPTED;
+        } catch (NoSuchFileException e) {
+            // the session was deleted or committed meanwhile
+            return ChunkStatus.SESSION_NOT_FOUND;
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while writing a chunk of upload session : " + sessionId,
+                    e);
+        } finally {
+            IOUtils.closeQuietly(channel);
+            deleteQuietly(partialFile);
+        }
+    }
+
+    /**
+     * Starts committing the given session and opens the content of the uploaded file. No more chunks are accepted
+     * once the commit starts. The commit must be ended with {@link #completeCommit(String)} once the file is
+     * persisted, or with {@link #abortCommit(String)} so that the session can be committed again.
+     *
+     * @param sessionId id of the session
+     * @return content of the uploaded file or null if the session does not exist or is already being committed
+     * @throws MGWFileSourceException if the session cannot be read
+     */
+    public static InputStream beginCommit(String sessionId) throws MGWFileSourceException {
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        Path committingDirectory = sessionDirectory.resolveSibling(sessionId + COMMITTING_SUFFIX);
+        try {
+            synchronized (getLock(sessionId)) {
+                Files.move(sessionDirectory, committingDirectory, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return null;
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while committing upload session : " + sessionId, e);
+        }
+        List<Chunk> chunks = getChunks(sessionId, committingDirectory);
+        List<InputStream> chunkStreams = new ArrayList<>(chunks.size());
+        try {
+            for (Chunk chunk : chunks) {
+                chunkStreams.add(Files.newInputStream(chunk.path));
+            }
+        } catch (IOException e) {
+            for (InputStream chunkStream : chunkStreams) {
+                IOUtils.closeQuietly(chunkStream);
+            }
+            abortCommit(sessionId);
+            throw new MGWFileSourceException("Error occurred while reading upload session : " + sessionId, e);
+        }
+        Enumeration<InputStream> streams = Collections.enumeration(chunkStreams);
+        return new BufferedInputStream(new SequenceInputStream(streams));
+    }
+
+    /**
+     * Deletes a session whose file has been persisted.
+     *
+     * @param sessionId id of the session
+     */
+    public static void completeCommit(String sessionId) {
+        try {
+            deleteDirectory(getSessionDirectory(sessionId).resolveSibling(sessionId + COMMITTING_SUFFIX));
+        } catch (MGWFileSourceException e) {
+            log.warn("Could not resolve the upload session : " + sessionId, e);
+        }
+    }
+
+    /**
+     * Makes a session whose file could not be persisted available again, so that the commit can be retried.
+     *
+     * @param sessionId id of the session
+     */
+    public static void abortCommit(String sessionId) {
+        try {
+            Path sessionDirectory = getSessionDirectory(sessionId);
+            Files.move(sessionDirectory.resolveSibling(sessionId + COMMITTING_SUFFIX), sessionDirectory,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | MGWFileSourceException e) {
+            log.warn("Could not restore the upload session : " + sessionId, e);
+        }
+    }
+
+    /**
+     * Deletes the given session and the chunks received in it.
+     *
+     * @param sessionId id of the session
+     * @return false if the session does not exist
+     * @throws MGWFileSourceException if the session id is not valid
+     */
+    public static boolean deleteSession(String sessionId) throws MGWFileSourceException {
+        Path sessionDirectory = getSessionDirectory(sessionId);
+        if (!Files.isDirectory(sessionDirectory)) {
+            return false;
+        }
+        deleteDirectory(sessionDirectory);
+        return true;
+    }
+
+    /**
+     * Deletes the sessions which have not been modified since the given time, including the partially created and
+     * committed ones left by a stopped server.
+     *
+     * @param expiryTime time in milliseconds before which the sessions expire
+     * @return number of sessions deleted
+     */
+    public static int deleteExpiredSessions(long expiryTime) {
+        Path sessionsDirectory = Paths.get(MGWFileSourceDS.getUploadSessionDirectory());
+        if (!Files.isDirectory(sessionsDirectory)) {
+            return 0;
+        }
+        int deletedSessions = 0;
+        try (DirectoryStream<Path> sessions = Files.newDirectoryStream(sessionsDirectory)) {
+            for (Path session : sessions) {
+                if (Files.isDirectory(session) && getLastModifiedTime(session) < expiryTime) {
+                    deleteDirectory(session);
+                    deletedSessions++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error occurred while deleting the expired upload sessions.", e);
+        }
+        return deletedSessions;
+    }
+
+    /**
+     * Checks whether a chunk can be written at the given offset.
+     *
+     * @return status of the chunk if it cannot be written, or null
+     */
+    private static ChunkStatus checkOffset(String sessionId, long offset, Path chunkFile)
+            throws MGWFileSourceException {
+        if (Files.exists(chunkFile)) {
+            return ChunkStatus.ACCEPTED;
+        }
+        long currentOffset = getOffset(sessionId);
+        if (currentOffset < 0) {
+            return ChunkStatus.SESSION_NOT_FOUND;
+        }
+        return offset == currentOffset ? null : ChunkStatus.OFFSET_MISMATCH;
+    }
+
+    /**
+     * Lock guarding the chunks of a session against concurrent requests of the same session on this node.
+     */
+    private static Object getLock(String sessionId) {
+        return SESSION_LOCKS[(sessionId.hashCode() & Integer.MAX_VALUE) % SESSION_LOCKS.length];
+    }
+
+    private static List<Chunk> getChunks(String sessionId, Path sessionDirectory) throws MGWFileSourceException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sessionDirectory, "*" + CHUNK_SUFFIX)) {
+            for (Path file : files) {
+                Matcher matcher = CHUNK_PATTERN.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    chunks.add(new Chunk(file, Long.parseLong(matcher.group(1)), Files.size(file)));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while reading upload session : " + sessionId, e);
+        }
+        Collections.sort(chunks);
+        long offset = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.offset != offset) {
+                throw new MGWFileSourceException("Chunk at offset " + chunk.offset + " of upload session : "
+                        + sessionId + " does not follow the previous chunk ending at " + offset);
+            }
+            offset += chunk.size;
+        }
+        return chunks;
+    }
+
+    private static Path getSessionDirectory(String sessionId) throws MGWFileSourceException {
+        if (!isValidSessionId(sessionId)) {
+            throw new MGWFileSourceException("Invalid upload session id : " + sessionId);
+        }
+        return Paths.get(MGWFileSourceDS.getUploadSessionDirectory()).toAbsolutePath().normalize()
+                .resolve(sessionId);
+    }
+
+    private static void writeSynced(Path path, byte[] content) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            Channels.newOutputStream(channel).write(content);
+            channel.force(true);
+        }
+    }
+
+    private static long getLastModifiedTime(Path session) throws IOException {
+        long lastModifiedTime = Files.getLastModifiedTime(session).toMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(session)) {
+            for (Path file : files) {
+                lastModifiedTime = Math.max(lastModifiedTime, Files.getLastModifiedTime(file).toMillis());
+            }
+        }
+        return lastModifiedTime;
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.warn("Could not list the upload session : " + directory, e);
+        }
+        deleteQuietly(directory);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete the upload session file : " + path, e);
+        }
+    }
+
+    /**
+     * Chunk of an upload session, ordered by its offset.
+     */
+    private static class Chunk implements Comparable<Chunk> {
+
+        private final Path path;
+        private final long offset;
+        private final long size;
+
+        Chunk(Path path, long offset, long size) {
+            this.path = path;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int compareTo(Chunk other) {
+            return Long.compare(offset, other.offset);
+        }
+    }
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceDS;
+import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Util class for the asynchronous upload mode, in which an uploaded file is accepted into a spool directory and
+ * persisted in the database in the background by the {@link org.wso2.extension.siddhi.io.mgwfile.task
+ * .MGWFileSpoolWriter}. The asynchronous mode is enabled by setting {@code usage.upload.spool.directory}.
+ * <p>
+ * Each spooled file is a directory named by its tracking id, holding the content and the information of the file. It
+ * is written under a temporary name, synced to disk and then atomically renamed, so the spool only ever holds
+ * complete files, which are persisted even if the server stops before they are written to the database. The spool
+ * holds at most {@code usage.upload.spool.size} bytes. Once a spooled file is written to the database, the outcome is
+ * recorded in the results directory, where it is kept as long as the uploaded files are retained, and the spooled
+ * file is deleted.
+ */
+public class MGWFileUploadSpoolUtil {
+
+    private static final Log log = LogFactory.getLog(MGWFileUploadSpoolUtil.class);
+
+    private static final String CONTENT_FILE = "content";
+    private static final String FILE_INFO_FILE = "file-info";
+    private static final String RESULTS_DIRECTORY = "results";
+    private static final String PARTIAL_FILE_SUFFIX = ".part";
+    private static final String FILE_NAME_PROPERTY = "fileName";
+    private static final String TIMESTAMP_PROPERTY = "timeStamp";
+    private static final String CONTENT_HASH_PROPERTY = "contentHash";
+    private static final String STATUS_PROPERTY = "status";
+    private static final String FAILED_STATUS = "FAILED";
+    private static final Pattern TRACKING_ID_PATTERN = Pattern
+            .compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final AtomicLong spoolSize = new AtomicLong();
+
+    /**
+     * Outcome of spooling an uploaded file.
+     */
+    public enum SpoolStatus {
+        /**
+         * The file was spooled and will be persisted in the background.
+         */
+        SPOOLED,
+        /**
+         * The spool does not have room for the file.
+         */
+        SPOOL_FULL,
+        /**
+         * The content of the file does not match the checksum expected by the uploader.
+         */
+        CHECKSUM_MISMATCH
+    }
+
+    /**
+     * Progress of a spooled file.
+     */
+    public enum UploadState {
+        /**
+         * The file is waiting in the spool to be written to the database.
+         */
+        SPOOLED,
+        /**
+         * The file is in the database, waiting to be published.
+         */
+        PERSISTED,
+        /**
+         * The file is claimed by a node, which is publishing it.
+         */
+        CLAIMED,
+        /**
+         * The file was published.
+         */
+        PROCESSED,
+        /**
+         * A file with the same name or content was already uploaded, so the file was not persisted.
+         */
+        DUPLICATE,
+        /**
+         * The content of the file did not match the checksum expected by the uploader.
+         */
+        CHECKSUM_MISMATCH,
+        /**
+         * The file could not be written to the database because of an error specific to it, so it was discarded.
+         */
+        FAILED
+    }
+
+    /**
+     * Whether uploaded files are spooled and persisted in the background.
+     *
+     * @return true if the spool directory is configured
+     */
+    public static boolean isSpoolEnabled() {
+        return StringUtils.isNotEmpty(MGWFileSourceDS.getUploadSpoolDirectory());
+    }
+
+    /**
+     * Whether the given id has the format of a tracking id.
+     *
+     * @param trackingId tracking id of a spooled file
+     * @return true if the id is valid
+     */
+    public static boolean isValidTrackingId(String trackingId) {
+        return trackingId != null && TRACKING_ID_PATTERN.matcher(trackingId).matches();
+    }
+
+    /**
+     * Deletes the files which were partially spooled when the server stopped and computes the size of the spooled
+     * files waiting to be written to the database. Called when the component is activated.
+     */
+    public static void initialize() {
+        Path spoolDirectory = getSpoolDirectory();
+        long size = 0;
+        int spooledFiles = 0;
+        try {
+            Files.createDirectories(spoolDirectory.resolve(RESULTS_DIRECTORY));
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(PARTIAL_FILE_SUFFIX)) {
+                        deleteDirectory(file);
+                    } else if (isValidTrackingId(name)) {
+                        size += Files.size(file.resolve(CONTENT_FILE));
+                        spooledFiles++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error occurred while reading the upload spool : " + spoolDirectory, e);
+        }
+        spoolSize.set(size);
+        if (spooledFiles > 0) {
+            log.info("Found " + spooledFiles + " spooled usage files of " + size + " bytes waiting to be persisted.");
+        }
+    }
+
+    /**
+     * Writes an uploaded file into the spool. The content is written to a temporary directory which is synced to disk
+     * and then atomically renamed, so a file is only acknowledged once it is durable. The space taken by the content
+     * is reserved as it is written, so concurrent uploads cannot exceed the size of the spool together.
+     *
+     * @param trackingId          tracking id of the file
+     * @param dto                 Uploaded File Information represented by {@link MGWFileInfoDTO}, which is updated
+     *                            with the checksum of the content
+     * @param uploadedInputStream content of the uploaded file
+     * @return outcome of spooling the file
+     * @throws MGWFileSourceException if the file cannot be written
+     */
+    public static SpoolStatus spool(String trackingId, MGWFileInfoDTO dto, InputStream uploadedInputStream)
+            throws MGWFileSourceException {
+        Path spooledFile = getSpooledFile(trackingId);
+        long maxSize = Long.parseLong(MGWFileSourceDS.getUploadSpoolSize());
+        if (spoolSize.get() >= maxSize) {
+            return SpoolStatus.SPOOL_FULL;
+        }
+        Path partialFile = spooledFile.resolveSibling(trackingId + PARTIAL_FILE_SUFFIX);
+        FileChannel channel = null;
+        long size = 0;
+        boolean spooled = false;
+        try {
+            Files.createDirectories(partialFile);
+            MessageDigest digest = MGWFileChecksumUtil.newDigest();
+            channel = FileChannel.open(partialFile.resolve(CONTENT_FILE), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            OutputStream outputStream = Channels.newOutputStream(channel);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = uploadedInputStream.read(buffer)) != -1) {
+                size += read;
+                if (spoolSize.addAndGet(read) > maxSize) {
+                    return SpoolStatus.SPOOL_FULL;
+                }
+                digest.update(buffer, 0, read);
+                outputStream.write(buffer, 0, read);
+            }
+            channel.force(true);
+            channel.close();
+            String contentHash = MGWFileChecksumUtil.toHex(digest.digest());
+            if (dto.getContentHash() != null && !dto.getContentHash().equalsIgnoreCase(contentHash)) {
+                return SpoolStatus.CHECKSUM_MISMATCH;
+            }
+            Properties fileInfo = new Properties();
+            fileInfo.setProperty(FILE_NAME_PROPERTY, dto.getFileName());
+            fileInfo.setProperty(TIMESTAMP_PROPERTY, String.valueOf(dto.getTimeStamp()));
+            fileInfo.setProperty(CONTENT_HASH_PROPERTY, contentHash);
+            writeSynced(partialFile.resolve(FILE_INFO_FILE), fileInfo);
+            Files.move(partialFile, spooledFile, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(spooledFile.getParent());
+            dto.setContentHash(contentHash);
+            spooled = true;
+            return SpoolStatus.SPOOLED;
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while spooling the uploaded file : " + dto.getFileName(),
+                    e);
+        } finally {
+            IOUtils.closeQuietly(channel);
+            if (!spooled) {
+                spoolSize.addAndGet(-size);
+                deleteDirectory(partialFile);
+            }
+        }
+    }
+
+    /**
+     * Lists the spooled files waiting to be written to the database, oldest first.
+     *
+     * @param limit maximum number of files to list
+     * @return tracking ids of the spooled files
+     */
+    public static List<String> getSpooledFiles(int limit) {
+        List<SpooledFile> spooledFiles = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(getSpoolDirectory())) {
+            for (Path file : files) {
+                String trackingId = file.getFileName().toString();
+                if (isValidTrackingId(trackingId)) {
+                    long spooledTime = Files.getLastModifiedTime(file.resolve(FILE_INFO_FILE)).toMillis();
+                    spooledFiles.add(new SpooledFile(trackingId, spooledTime));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return Collections.emptyList();
+        } catch (IOException e) {
+            log.error("Error occurred while listing the upload spool.", e);
+        }
+        Collections.sort(spooledFiles);
+        List<String> trackingIds = new ArrayList<>(Math.min(limit, spooledFiles.size()));
+        for (SpooledFile spooledFile : spooledFiles) {
+            if (trackingIds.size() == limit) {
+                break;
+            }
+            trackingIds.add(spooledFile.trackingId);
+        }
+        return trackingIds;
+    }
+
+    /**
+     * Gets the information of a spooled file.
+     *
+     * @param trackingId tracking id of the file
+     * @return Uploaded File Information represented by {@link MGWFileInfoDTO} or null if the file is not spooled
+     * @throws MGWFileSourceException if the file cannot be read
+     */
+    public static MGWFileInfoDTO getFileInfo(String trackingId) throws MGWFileSourceException {
+        Properties fileInfo = readProperties(getSpooledFile(trackingId).resolve(FILE_INFO_FILE));
+        if (fileInfo == null) {
+            return null;
+        }
+        String fileName = fileInfo.getProperty(FILE_NAME_PROPERTY);
+        String timeStamp = fileInfo.getProperty(TIMESTAMP_PROPERTY);
+        if (fileName == null || timeStamp == null || !timeStamp.matches("\\d+")) {
+            throw new MGWFileSourceException("Information of spooled file : " + trackingId + " is not valid.");
+        }
+        MGWFileInfoDTO dto = new MGWFileInfoDTO(fileName, Long.parseLong(timeStamp));
+        dto.setContentHash(fileInfo.getProperty(CONTENT_HASH_PROPERTY));
+        return dto;
+    }
+
+    /**
+     * Opens the content of a spooled file.
+     *
+     * @param trackingId tracking id of the file
+     * @return content of the file
+     * @throws MGWFileSourceException if the file cannot be read
+     */
+    public static InputStream openContent(String trackingId) throws MGWFileSourceException {
+        try {
+            return new BufferedInputStream(Files.newInputStream(getSpooledFile(trackingId).resolve(CONTENT_FILE)),
+                    BUFFER_SIZE);
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while reading the spooled file : " + trackingId, e);
+        }
+    }
+
+    /**
+     * Records the outcome of writing a spooled file to the database and deletes it from the spool.
+     *
+     * @param trackingId tracking id of the file
+     * @param fileName   name of the file
+     * @param status     outcome of persisting the file
+     * @throws MGWFileSourceException if the outcome cannot be recorded, in which case the file is kept in the spool
+     */
+    public static void complete(String trackingId, String fileName, MGWFileSourceDAO.UploadStatus status)
+            throws MGWFileSourceException {
+        recordOutcome(trackingId, fileName, status.name());
+    }
+
+    /**
+     * Records that a spooled file could not be written to the database because of an error specific to it, and
+     * deletes it from the spool, so that it does not hold back the files spooled after it.
+     *
+     * @param trackingId tracking id of the file
+     * @param fileName   name of the file, or null if the information of the file cannot be read
+     * @throws MGWFileSourceException if the outcome cannot be recorded, in which case the file is kept in the spool
+     */
+    public static void fail(String trackingId, String fileName) throws MGWFileSourceException {
+        recordOutcome(trackingId, fileName, FAILED_STATUS);
+    }
+
+    private static void recordOutcome(String trackingId, String fileName, String status)
+            throws MGWFileSourceException {
+        Path spooledFile = getSpooledFile(trackingId);
+        Path resultFile = getSpoolDirectory().resolve(RESULTS_DIRECTORY).resolve(trackingId);
+        Path partialFile = resultFile.resolveSibling(trackingId + PARTIAL_FILE_SUFFIX);
+        Properties result = new Properties();
+        if (fileName != null) {
+            result.setProperty(FILE_NAME_PROPERTY, fileName);
+        }
+        result.setProperty(STATUS_PROPERTY, status);
+        long size;
+        try {
+            Files.createDirectories(resultFile.getParent());
+            Files.deleteIfExists(partialFile);
+            writeSynced(partialFile, result);
+            Files.move(partialFile, resultFile, StandardCopyOption.ATOMIC_MOVE);
+            // the content of a failed file may be missing
+            Path contentFile = spooledFile.resolve(CONTENT_FILE);
+            size = Files.exists(contentFile) ? Files.size(contentFile) : 0;
+        } catch (IOException e) {
+            deleteQuietly(partialFile);
+            throw new MGWFileSourceException("Error occurred while recording the outcome of spooled file : "
+                    + trackingId, e);
+        }
+        deleteDirectory(spooledFile);
+        spoolSize.addAndGet(-size);
+    }
+
+    /**
+     * Gets the progress of a spooled file. A file which was written to the database is tracked through the state of
+     * the uploaded file.
+     *
+     * @param trackingId tracking id of the file
+     * @return progress of the file or null if the tracking id is not known
+     * @throws MGWFileSourceException if the progress cannot be read
+     */
+    public static UploadState getUploadState(String trackingId) throws MGWFileSourceException {
+        // the outcome is recorded before the spooled file is deleted, so a file is never missing from both
+        if (Files.isDirectory(getSpooledFile(trackingId))) {
+            return UploadState.SPOOLED;
+        }
+        Properties result = readProperties(getSpoolDirectory().resolve(RESULTS_DIRECTORY).resolve(trackingId));
+        if (result == null) {
+            return null;
+        }
+        if (FAILED_STATUS.equals(result.getProperty(STATUS_PROPERTY))) {
+            return UploadState.FAILED;
+        }
+        MGWFileSourceDAO.UploadStatus status = MGWFileSourceDAO.UploadStatus
+                .valueOf(result.getProperty(STATUS_PROPERTY));
+        if (status == MGWFileSourceDAO.UploadStatus.CHECKSUM_MISMATCH) {
+            return UploadState.CHECKSUM_MISMATCH;
+        }
+        // a file recorded as a duplicate of its own name was persisted before the server stopped
+        switch (MGWFileSourceDAO.getFileProcessedState(result.getProperty(FILE_NAME_PROPERTY))) {
+            case 0:
+                return UploadState.PERSISTED;
+            case 1:
+                return UploadState.CLAIMED;
+            case 2:
+                return UploadState.PROCESSED;
+            default:
+                // a persisted file is only deleted by the cleanup task, once it is published
+                return status == MGWFileSourceDAO.UploadStatus.PERSISTED ? UploadState.PROCESSED
+                        : UploadState.DUPLICATE;
+        }
+    }
+
+    /**
+     * Deletes the recorded outcomes of the spooled files which were completed before the given time.
+     *
+     * @param expiryTime time in milliseconds before which the outcomes expire
+     * @return number of outcomes deleted
+     */
+    public static int deleteExpiredResults(long expiryTime) {
+        Path resultsDirectory = getSpoolDirectory().resolve(RESULTS_DIRECTORY);
+        if (!Files.isDirectory(resultsDirectory)) {
+            return 0;
+        }
+        int deletedResults = 0;
+        try (DirectoryStream<Path> results = Files.newDirectoryStream(resultsDirectory)) {
+            for (Path result : results) {
+                if (Files.getLastModifiedTime(result).toMillis() < expiryTime) {
+                    deleteQuietly(result);
+                    deletedResults++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error occurred while deleting the expired outcomes of spooled files.", e);
+        }
+        return deletedResults;
+    }
+
+    /**
+     * Number of bytes of the spooled files, including the files being spooled.
+     *
+     * @return size of the spool
+     */
+    public static long getSpoolSize() {
+        return spoolSize.get();
+    }
+
+    private static Path getSpoolDirectory() {
+        return Paths.get(MGWFileSourceDS.getUploadSpoolDirectory()).toAbsolutePath().normalize();
+    }
+
+    private static Path getSpooledFile(String trackingId) throws MGWFileSourceException {
+        if (!isValidTrackingId(trackingId)) {
+            throw new MGWFileSourceException("Invalid upload tracking id : " + trackingId);
+        }
+        return getSpoolDirectory().resolve(trackingId);
+    }
+
+    private static void writeSynced(Path path, Properties properties) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        properties.store(content, null);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            Channels.newOutputStream(channel).write(content.toByteArray());
+            channel.force(true);
+        }
+    }
+
+    private static Properties readProperties(Path path) throws MGWFileSourceException {
+        try (InputStream inputStream = Files.newInputStream(path)) {
+            Properties properties = new Properties();
+            properties.load(inputStream);
+            return properties;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new MGWFileSourceException("Error occurred while reading the spooled file : " + path, e);
+        }
+    }
+
+    /**
+     * Syncs the rename of a spooled file to disk. Not every platform supports syncing a directory, in which case the
+     * rename is left to be synced by the file system.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Could not sync the upload spool directory : " + directory, e);
+            }
+        }
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                deleteQuietly(file);
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            log.warn("Could not list the spooled file : " + directory, e);
+        }
+        deleteQuietly(directory);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete the spooled file : " + path, e);
+        }
+    }
+
+    /**
+     * Spooled file, ordered by the time it was spooled.
+     */
+    private static class SpooledFile implements Comparable<SpooledFile> {
+
+        private final String trackingId;
+        private final long spooledTime;
+
+        SpooledFile(String trackingId, long spooledTime) {
+            this.trackingId = trackingId;
+            this.spooledTime = spooledTime;
+        }
+
+        @Override
+        public int compareTo(SpooledFile other) {
+            return Long.compare(spooledTime, other.spooledTime);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.databridge.commons.Event;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests publishing usage data sliced into chunks and parsed in parallel with {@link MGWFileParsePipeline}.
+ */
+public class MGWFileParsePipelineTest {
+
+    private static final String STREAM_ID = "org.wso2.test.request:1.0.0";
+    private static final int CHUNK_SIZE = 1024;
+    private static final int PARALLELISM = 2;
+
+    @AfterClass
+    public void shutdownPool() {
+        MGWFileParsePipeline.shutdownPool();
+    }
+
+    @Test
+    public void testOrderingAcrossChunks() throws IOException, MGWFileSourceException {
+        TestPipeline pipeline = new TestPipeline(0, 0);
+        Assert.assertEquals(pipeline.process(new StringReader(lines(1, 200))), 200);
+        Assert.assertEquals(pipeline.getTimestamps(), range(1, 200));
+        Assert.assertTrue(pipeline.parseErrors.isEmpty());
+        // each published chunk is checkpointed once it is handed over, ending at the last line
+        Assert.assertTrue(pipeline.checkpoints.size() > 1);
+        Assert.assertEquals(pipeline.checkpoints.get(pipeline.checkpoints.size() - 1).longValue(), 200);
+    }
+
+    @Test
+    public void testLineLongerThanChunk() throws IOException, MGWFileSourceException {
+        char[] padding = new char[CHUNK_SIZE * 3];
+        Arrays.fill(padding, 'x');
+        String data = lines(1, 5) + line(6, new String(padding)) + lines(7, 10);
+        TestPipeline pipeline = new TestPipeline(0, 0);
+        Assert.assertEquals(pipeline.process(new StringReader(data)), 10);
+        Assert.assertEquals(pipeline.getTimestamps(), range(1, 10));
+        Assert.assertTrue(pipeline.parseErrors.isEmpty());
+    }
+
+    @Test
+    public void testResumeWithinChunk() throws IOException, MGWFileSourceException {
+        // a chunk holds about seven lines, so the resume line is in the middle of the first chunk
+        TestPipeline pipeline = new TestPipeline(2, 0);
+        Assert.assertEquals(pipeline.process(new StringReader(lines(1, 50))), 50);
+        Assert.assertEquals(pipeline.getTimestamps(), range(3, 50));
+
+        // resuming after lines of earlier entries, with the resume line in a later chunk
+        pipeline = new TestPipeline(130, 100);
+        Assert.assertEquals(pipeline.process(new StringReader(lines(1, 50))), 50);
+        Assert.assertEquals(pipeline.getTimestamps(), range(31, 50));
+    }
+
+    @Test
+    public void testParseErrorLineNumbers() throws IOException, MGWFileSourceException {
+        String data = lines(1, 4) + "invalid line\n" + lines(6, 40) + line(41, "").replace("1041", "x") + lines(42, 50);
+        TestPipeline pipeline = new TestPipeline(0, 100);
+        Assert.assertEquals(pipeline.process(new StringReader(data)), 50);
+        // numbered from the start of the file, after the lines of the earlier entries
+        Assert.assertEquals(pipeline.parseErrors, Arrays.asList(105L, 141L));
+        Assert.assertEquals(pipeline.events.size(), 48);
+
+        pipeline = new TestPipeline(120, 100);
+        Assert.assertEquals(pipeline.process(new StringReader(data)), 50);
+        Assert.assertEquals(pipeline.parseErrors, Collections.singletonList(141L));
+    }
+
+    private static String lines(int first, int last) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            builder.append(line(i, "PizzaShack"));
+        }
+        return builder.toString();
+    }
+
+    private static String line(int number, String payload) {
+        return "streamId-KS-" + STREAM_ID + "-ES-timeStamp-KS-" + (1000 + number) + "-ES-metaData-KS-null"
+                + "-ES-correlationData-KS-null-ES-payLoadData-KS-" + payload + "\n";
+    }
+
+    private static List<Long> range(int first, int last) {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            timestamps.add(1000L + i);
+        }
+        return timestamps;
+    }
+
+    /**
+     * Pipeline which records the events, checkpoints and parse errors of a file.
+     */
+    private static class TestPipeline extends MGWFileParsePipeline {
+
+        private final List<Event> events;
+        private final List<Long> checkpoints;
+        private final List<Long> parseErrors = new ArrayList<>();
+
+        TestPipeline(long resumeLine, long lineOffset) {
+            this(new MGWFileInfoDTO("api-usage-data.zip", 1000L, "node", resumeLine), new ArrayList<Event>(),
+                    new ArrayList<Long>(), lineOffset);
+        }
+
+        private TestPipeline(MGWFileInfoDTO infoDTO, final List<Event> events, final List<Long> checkpoints,
+                             long lineOffset) {
+            super(infoDTO, new MGWFileEventPublisher(1) {
+                @Override
+                public boolean add(String streamId, Event event) {
+                    events.add(event);
+                    return true;
+                }
+            }, new MGWFileCheckpoint(infoDTO, null, 0) {
+                @Override
+                public void linesPublished(long lineNumber) {
+                    checkpoints.add(lineNumber);
+                }
+            }, lineOffset, PARALLELISM, CHUNK_SIZE);
+            this.events = events;
+            this.checkpoints = checkpoints;
+        }
+
+        @Override
+        void parseError(long lineNumber, Exception cause) {
+            parseErrors.add(lineNumber);
+        }
+
+        List<Long> getTimestamps() {
+            List<Long> timestamps = new ArrayList<>();
+            for (Event event : events) {
+                timestamps.add(event.getTimeStamp());
+            }
+            return timestamps;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.databridge.commons.Attribute;
+import org.wso2.carbon.databridge.commons.AttributeType;
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests reading the usage data written by {@link MGWFileBinaryEventWriter} with {@link MGWFileBinaryEventReader}.
+ */
+public class MGWFileBinaryEventReaderTest {
+
+    private static final String REQUEST_STREAM = "org.wso2.test.request:1.0.0";
+    private static final String FAULT_STREAM = "org.wso2.test.fault:1.0.0";
+    private static final List<Attribute> REQUEST_ATTRIBUTES = Arrays.asList(
+            new Attribute("apiName", AttributeType.STRING),
+            new Attribute("responseCode", AttributeType.INT),
+            new Attribute("responseTime", AttributeType.LONG),
+            new Attribute("latency", AttributeType.DOUBLE),
+            new Attribute("backendLatency", AttributeType.FLOAT),
+            new Attribute("cacheHit", AttributeType.BOOL));
+    private static final List<Attribute> FAULT_ATTRIBUTES = Arrays.asList(
+            new Attribute("errorCode", AttributeType.STRING));
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Event[] events = {
+                new Event(REQUEST_STREAM, 1000L, new Object[]{"meta"}, new Object[]{"correlation"},
+                        new Object[]{"PizzaShack", 200, 15L, 1.5d, 2.5f, true}),
+                new Event(REQUEST_STREAM, 1001L, null, null, new Object[]{"PizzaShack", 404, 3L, 0.5d, 1.0f, false}),
+                new Event(FAULT_STREAM, 1002L, null, null, new Object[]{"101503"}),
+                new Event(REQUEST_STREAM, 1003L, new Object[]{"meta"}, null,
+                        new Object[]{null, null, null, null, null, null})
+        };
+        // a block size of two splits the request stream into several blocks
+        List<Event> readEvents = readAll(write(2, events));
+        Assert.assertEquals(readEvents.size(), events.length);
+        // events are grouped by stream once blocks are written, so they are matched by their timestamp
+        for (Event event : events) {
+            assertEvent(findEvent(readEvents, event.getTimeStamp()), event);
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        MGWFileBinaryEventReader reader = new MGWFileBinaryEventReader(new ByteArrayInputStream(write(10)));
+        Assert.assertNull(reader.next());
+        Assert.assertEquals(reader.getEventCount(), 0);
+    }
+
+    @Test
+    public void testBinaryFormatDetected() throws IOException {
+        PushbackInputStream binaryStream = MGWFileBinaryFormat.wrap(new ByteArrayInputStream(write(10)));
+        Assert.assertTrue(MGWFileBinaryFormat.isBinaryFormat(binaryStream));
+        // the magic bytes are pushed back for the reader
+        Assert.assertNull(new MGWFileBinaryEventReader(binaryStream).next());
+        PushbackInputStream textStream = MGWFileBinaryFormat.wrap(new ByteArrayInputStream(
+                "org.wso2.test.request:1.0.0-ES-1000".getBytes("UTF-8")));
+        Assert.assertFalse(MGWFileBinaryFormat.isBinaryFormat(textStream));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNotBinaryFormat() throws IOException {
+        new MGWFileBinaryEventReader(new ByteArrayInputStream("api-usage".getBytes("UTF-8")));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testNegativeEventCount() throws IOException {
+        readAll(withEventsBlock(write(10, new Event(FAULT_STREAM, 1000L, null, null, new Object[]{"101503"})),
+                -1));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testEventCountExceedingBlock() throws IOException {
+        // claims more events than the timestamps the block could hold
+        readAll(withEventsBlock(write(10, new Event(FAULT_STREAM, 1000L, null, null, new Object[]{"101503"})),
+                Integer.MAX_VALUE));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testBlockLengthExceedingMaximum() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataStream = new DataOutputStream(outputStream);
+        dataStream.write(write(10));
+        dataStream.writeByte(MGWFileBinaryFormat.EVENTS_BLOCK);
+        dataStream.writeInt(MGWFileBinaryFormat.MAX_BLOCK_SIZE + 1);
+        dataStream.flush();
+        // rejected from the length alone, before reading a body which is not there
+        readAll(outputStream.toByteArray());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testWriteBlockExceedingMaximum() throws IOException {
+        char[] errorCode = new char[MGWFileBinaryFormat.MAX_BLOCK_SIZE];
+        Arrays.fill(errorCode, 'x');
+        write(1, new Event(FAULT_STREAM, 1000L, null, null, new Object[]{new String(errorCode)}));
+    }
+
+    private static byte[] write(int blockSize, Event... events) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (MGWFileBinaryEventWriter writer = new MGWFileBinaryEventWriter(outputStream, blockSize)) {
+            writer.addStream(REQUEST_STREAM, REQUEST_ATTRIBUTES);
+            writer.addStream(FAULT_STREAM, FAULT_ATTRIBUTES);
+            for (Event event : events) {
+                writer.write(event);
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Appends an events block of the first stream, which holds the given event count and no events.
+     */
+    private static byte[] withEventsBlock(byte[] usageData, int eventCount) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream dataStream = new DataOutputStream(outputStream);
+        dataStream.write(usageData);
+        dataStream.writeByte(MGWFileBinaryFormat.EVENTS_BLOCK);
+        dataStream.writeInt(6);
+        dataStream.writeShort(0);
+        dataStream.writeInt(eventCount);
+        dataStream.flush();
+        return outputStream.toByteArray();
+    }
+
+    private static List<Event> readAll(byte[] usageData) throws IOException {
+        MGWFileBinaryEventReader reader = new MGWFileBinaryEventReader(new ByteArrayInputStream(usageData));
+        List<Event> events = new ArrayList<>();
+        Event event;
+        while ((event = reader.next()) != null) {
+            events.add(event);
+        }
+        Assert.assertEquals(reader.getEventCount(), events.size());
+        return events;
+    }
+
+    private static Event findEvent(List<Event> events, long timestamp) {
+        for (Event event : events) {
+            if (event.getTimeStamp() == timestamp) {
+                return event;
+            }
+        }
+        Assert.fail("Event with timestamp " + timestamp + " was not read.");
+        return null;
+    }
+
+    private static void assertEvent(Event actual, Event expected) {
+        Assert.assertEquals(actual.getStreamId(), expected.getStreamId());
+        Assert.assertEquals(actual.getMetaData(), expected.getMetaData());
+        Assert.assertEquals(actual.getCorrelationData(), expected.getCorrelationData());
+        Assert.assertEquals(actual.getPayloadData(), expected.getPayloadData());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Tests detecting the compression format of uploaded usage files with {@link MGWFileCompression}.
+ */
+public class MGWFileCompressionTest {
+
+    private static final byte[] USAGE_DATA = "org.wso2.test.request:1.0.0-ES-1000".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testDetectZip() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+            zipOutputStream.putNextEntry(new ZipEntry("api-usage-data.dat"));
+            zipOutputStream.write(USAGE_DATA);
+            zipOutputStream.closeEntry();
+        }
+        assertDetected(outputStream.toByteArray(), MGWFileCompression.ZIP);
+    }
+
+    @Test
+    public void testDetectAndDecompressGzip() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(USAGE_DATA);
+        }
+        PushbackInputStream inputStream = assertDetected(outputStream.toByteArray(), MGWFileCompression.GZIP);
+        try (InputStream decompressed = MGWFileCompression.GZIP.decompress(inputStream)) {
+            Assert.assertEquals(IOUtils.toByteArray(decompressed), USAGE_DATA);
+        }
+    }
+
+    @Test
+    public void testDetectZstd() throws IOException {
+        assertDetected(new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0x00}, MGWFileCompression.ZSTD);
+    }
+
+    @Test
+    public void testDetectLz4() throws IOException {
+        assertDetected(new byte[]{0x04, 0x22, 0x4D, 0x18, 0x00}, MGWFileCompression.LZ4);
+    }
+
+    @Test
+    public void testUnknownFormatDetectedAsZip() throws IOException {
+        assertDetected(USAGE_DATA, MGWFileCompression.ZIP);
+        // shorter than the magic bytes of every format
+        assertDetected(new byte[]{0x1F}, MGWFileCompression.ZIP);
+        assertDetected(new byte[0], MGWFileCompression.ZIP);
+    }
+
+    @Test
+    public void testFromExtension() {
+        Assert.assertEquals(MGWFileCompression.fromExtension("zip"), MGWFileCompression.ZIP);
+        Assert.assertEquals(MGWFileCompression.fromExtension("GZ"), MGWFileCompression.GZIP);
+        Assert.assertEquals(MGWFileCompression.fromExtension("zst"), MGWFileCompression.ZSTD);
+        Assert.assertEquals(MGWFileCompression.fromExtension("lz4"), MGWFileCompression.LZ4);
+        Assert.assertNull(MGWFileCompression.fromExtension("dat"));
+    }
+
+    @Test
+    public void testCodecsAvailable() {
+        Assert.assertTrue(MGWFileCompression.ZIP.isAvailable());
+        Assert.assertTrue(MGWFileCompression.GZIP.isAvailable());
+        // the optional codec libraries are on the test class path
+        Assert.assertTrue(MGWFileCompression.ZSTD.isAvailable());
+        Assert.assertTrue(MGWFileCompression.LZ4.isAvailable());
+    }
+
+    /**
+     * Detects the format of the given content and checks that the bytes read to detect it are pushed back.
+     */
+    private static PushbackInputStream assertDetected(byte[] content, MGWFileCompression expected)
+            throws IOException {
+        PushbackInputStream inputStream = MGWFileCompression.wrap(new ByteArrayInputStream(content));
+        Assert.assertEquals(MGWFileCompression.detect(inputStream), expected);
+        byte[] header = new byte[Math.min(content.length, 4)];
+        Assert.assertEquals(inputStream.read(header, 0, header.length), header.length);
+        for (int i = 0; i < header.length; i++) {
+            Assert.assertEquals(header[i], content[i]);
+        }
+        inputStream.unread(header);
+        return inputStream;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests tokenizing the lines of the text usage data with {@link MGWFileEventTokenizer}, comparing the values with the
+ * way the lines were previously split with {@link String#split(String)}.
+ */
+public class MGWFileEventTokenizerTest {
+
+    private static final String LINE = "streamId-KS-org.wso2.test.request:1.0.0-ES-timeStamp-KS-1000"
+            + "-ES-metaData-KS-meta-ES-correlationData-KS-null-ES-payLoadData-KS-PizzaShack-OS- 200 -OS-true";
+
+    @Test
+    public void testMatchesSplit() throws IOException {
+        MGWFileEventTokenizer tokenizer = tokenize(LINE);
+        Assert.assertTrue(tokenizer.isValid());
+        Assert.assertEquals(tokenizer.getStreamId(), splitValue(LINE, 0));
+        Assert.assertEquals(tokenizer.getTimestamp(), Long.parseLong(splitValue(LINE, 1)));
+        Assert.assertEquals(tokenizer.getMetaData(), new Object[]{splitValue(LINE, 2)});
+        Assert.assertNull(tokenizer.getCorrelationData());
+        Assert.assertEquals(getPayload(tokenizer), splitPayload(LINE));
+        Assert.assertEquals(tokenizer.getPayloadInt(1), 200);
+        Assert.assertTrue(tokenizer.getPayloadBoolean(2));
+    }
+
+    @Test
+    public void testEmptyPayload() throws IOException {
+        String line = "streamId-KS-org.wso2.test.request:1.0.0-ES-timeStamp-KS-1000-ES-metaData-KS-null"
+                + "-ES-correlationData-KS-null-ES-payLoadData-KS-";
+        try {
+            splitValue(line, 4);
+            Assert.fail("Splitting an empty payload was expected to fail.");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // the payload value was missing from the split key and value
+        }
+        // now read as an event with a single empty payload field
+        MGWFileEventTokenizer tokenizer = tokenize(line);
+        Assert.assertTrue(tokenizer.isValid());
+        Assert.assertEquals(tokenizer.getPayloadFieldCount(), 1);
+        Assert.assertTrue(tokenizer.isPayloadFieldEmpty(0));
+    }
+
+    @Test
+    public void testTrailingObjectSeparator() throws IOException {
+        String line = LINE + MGWFileSourceConstants.OBJECT_SEPARATOR;
+        // split drops the trailing empty field, while the tokenizer keeps it as an empty field
+        List<String> splitPayload = splitPayload(line);
+        MGWFileEventTokenizer tokenizer = tokenize(line);
+        Assert.assertTrue(tokenizer.isValid());
+        Assert.assertEquals(tokenizer.getPayloadFieldCount(), splitPayload.size() + 1);
+        Assert.assertEquals(getPayload(tokenizer).subList(0, splitPayload.size()), splitPayload);
+        Assert.assertTrue(tokenizer.isPayloadFieldEmpty(splitPayload.size()));
+    }
+
+    @Test
+    public void testCarriageReturn() throws IOException {
+        // the carriage return of a Windows line ending is not part of the last field
+        MGWFileEventTokenizer tokenizer = tokenize(LINE + "\r\n" + LINE);
+        Assert.assertTrue(tokenizer.isValid());
+        Assert.assertEquals(getPayload(tokenizer), splitPayload(LINE));
+        Assert.assertTrue(tokenizer.next());
+        Assert.assertEquals(getPayload(tokenizer), splitPayload(LINE));
+        Assert.assertFalse(tokenizer.next());
+
+        // an escaped carriage return within a value is kept as it is
+        String line = LINE.replace("PizzaShack", "Pizza\\rShack");
+        tokenizer = tokenize(line);
+        Assert.assertTrue(tokenizer.isValid());
+        Assert.assertEquals(tokenizer.getPayloadString(0), "Pizza\\rShack");
+        Assert.assertEquals(getPayload(tokenizer), splitPayload(line));
+    }
+
+    @Test
+    public void testRepeatedKeyValueSeparator() throws IOException {
+        // the value ends at a repeated key-value separator, as the second element of the split key and value
+        String line = LINE.replace("metaData-KS-meta", "metaData-KS-meta-KS-ignored");
+        MGWFileEventTokenizer tokenizer = tokenize(line);
+        Assert.assertTrue(tokenizer.isValid());
+        Assert.assertEquals(tokenizer.getMetaData(), new Object[]{splitValue(line, 2)});
+        Assert.assertEquals(tokenizer.getMetaData(), new Object[]{"meta"});
+    }
+
+    @Test
+    public void testInvalidLine() throws IOException {
+        MGWFileEventTokenizer tokenizer = tokenize("streamId-KS-org.wso2.test.request:1.0.0-ES-timeStamp-KS-1000");
+        Assert.assertFalse(tokenizer.isValid());
+        Assert.assertEquals(tokenizer.getLineNumber(), 1);
+    }
+
+    private static MGWFileEventTokenizer tokenize(String lines) throws IOException {
+        MGWFileEventTokenizer tokenizer = new MGWFileEventTokenizer(new StringReader(lines), 16);
+        Assert.assertTrue(tokenizer.next());
+        return tokenizer;
+    }
+
+    private static List<String> getPayload(MGWFileEventTokenizer tokenizer) {
+        List<String> payload = new ArrayList<>();
+        for (int i = 0; i < tokenizer.getPayloadFieldCount(); i++) {
+            payload.add(tokenizer.getPayloadString(i));
+        }
+        return payload;
+    }
+
+    /**
+     * Splits the value of a section of the line, the way the lines were previously read.
+     */
+    private static String splitValue(String line, int section) {
+        return line.split(MGWFileSourceConstants.EVENT_SEPARATOR)[section]
+                .split(MGWFileSourceConstants.KEY_VALUE_SEPARATOR)[1];
+    }
+
+    private static List<String> splitPayload(String line) {
+        List<String> payload = new ArrayList<>();
+        for (String field : splitValue(line, 4).split(MGWFileSourceConstants.OBJECT_SEPARATOR)) {
+            payload.add(field.trim());
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceTestUtil;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSessionUtil.ChunkStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests the resumable upload sessions of {@link MGWFileUploadSessionUtil}.
+ */
+public class MGWFileUploadSessionUtilTest {
+
+    private static final String FILE_NAME = "api-usage-data.zip";
+    private static final int MAX_SESSION_SIZE = 16;
+
+    private Path sessionDirectory;
+    private String sessionId;
+
+    @BeforeClass
+    public void initialize() throws IOException, ReflectiveOperationException {
+        sessionDirectory = Files.createTempDirectory("mgwfile-upload-sessions");
+        System.setProperty(MGWFileSourceConstants.UPLOAD_SESSION_DIRECTORY_PROPERTY, sessionDirectory.toString());
+        System.setProperty(MGWFileSourceConstants.UPLOAD_SESSION_MAX_SIZE_PROPERTY,
+                String.valueOf(MAX_SESSION_SIZE));
+        MGWFileSourceTestUtil.initializeSystemProperties();
+    }
+
+    @AfterMethod
+    public void deleteSession() throws MGWFileSourceException {
+        if (sessionId != null) {
+            MGWFileUploadSessionUtil.deleteSession(sessionId);
+            MGWFileUploadSessionUtil.completeCommit(sessionId);
+            sessionId = null;
+        }
+    }
+
+    @AfterClass
+    public void cleanUp() throws IOException {
+        System.clearProperty(MGWFileSourceConstants.UPLOAD_SESSION_DIRECTORY_PROPERTY);
+        System.clearProperty(MGWFileSourceConstants.UPLOAD_SESSION_MAX_SIZE_PROPERTY);
+        MGWFileSourceTestUtil.deleteDirectory(sessionDirectory);
+    }
+
+    @Test
+    public void testCreateSession() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertTrue(MGWFileUploadSessionUtil.isValidSessionId(sessionId));
+        Assert.assertEquals(MGWFileUploadSessionUtil.getFileName(sessionId), FILE_NAME);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 0);
+    }
+
+    @Test
+    public void testUnknownSession() throws MGWFileSourceException {
+        String unknownSessionId = "00000000-0000-0000-0000-000000000000";
+        Assert.assertNull(MGWFileUploadSessionUtil.getFileName(unknownSessionId));
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(unknownSessionId), -1);
+        Assert.assertEquals(writeChunk(unknownSessionId, 0, "usage"), ChunkStatus.SESSION_NOT_FOUND);
+        Assert.assertFalse(MGWFileUploadSessionUtil.deleteSession(unknownSessionId));
+    }
+
+    @Test(expectedExceptions = MGWFileSourceException.class)
+    public void testInvalidSessionId() throws MGWFileSourceException {
+        MGWFileUploadSessionUtil.getOffset("../" + FILE_NAME);
+    }
+
+    @Test
+    public void testWriteChunks() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 5);
+        Assert.assertEquals(writeChunk(sessionId, 5, "-data"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 10);
+    }
+
+    @Test
+    public void testResendAcceptedChunk() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(writeChunk(sessionId, 5, "-data"), ChunkStatus.ACCEPTED);
+        // a chunk resent after a dropped connection is accepted without being written again
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 10);
+    }
+
+    @Test
+    public void testOffsetMismatch() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 5, "-data"), ChunkStatus.OFFSET_MISMATCH);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        // a different chunk at the offset of an accepted chunk
+        Assert.assertEquals(writeChunk(sessionId, 0, "other"), ChunkStatus.OFFSET_MISMATCH);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 5);
+    }
+
+    @Test
+    public void testChecksumMismatch() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(MGWFileUploadSessionUtil.writeChunk(sessionId, 0, checksum("usage"),
+                toStream("other")), ChunkStatus.CHECKSUM_MISMATCH);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 0);
+    }
+
+    @Test
+    public void testEmptyChunk() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 0, ""), ChunkStatus.EMPTY_CHUNK);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 5);
+    }
+
+    @Test
+    public void testSessionTooLarge() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage-data"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(writeChunk(sessionId, 10, "-0001.zip"), ChunkStatus.SESSION_TOO_LARGE);
+        Assert.assertEquals(writeChunk(sessionId, 10, "-0001."), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), MAX_SESSION_SIZE);
+        Assert.assertEquals(writeChunk(sessionId, MAX_SESSION_SIZE, "z"), ChunkStatus.SESSION_TOO_LARGE);
+    }
+
+    @Test
+    public void testCommit() throws MGWFileSourceException, IOException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(writeChunk(sessionId, 5, "-data"), ChunkStatus.ACCEPTED);
+        try (InputStream content = MGWFileUploadSessionUtil.beginCommit(sessionId)) {
+            Assert.assertNotNull(content);
+            Assert.assertEquals(new String(IOUtils.toByteArray(content), StandardCharsets.UTF_8), "usage-data");
+            // no more chunks are accepted and the session cannot be committed twice
+            Assert.assertEquals(writeChunk(sessionId, 10, ".zip"), ChunkStatus.SESSION_NOT_FOUND);
+            Assert.assertNull(MGWFileUploadSessionUtil.beginCommit(sessionId));
+        }
+        MGWFileUploadSessionUtil.completeCommit(sessionId);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), -1);
+    }
+
+    @Test
+    public void testAbortCommit() throws MGWFileSourceException, IOException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(writeChunk(sessionId, 0, "usage"), ChunkStatus.ACCEPTED);
+        MGWFileUploadSessionUtil.beginCommit(sessionId).close();
+        MGWFileUploadSessionUtil.abortCommit(sessionId);
+        // the session accepts chunks again once the commit is aborted
+        Assert.assertEquals(writeChunk(sessionId, 5, "-data"), ChunkStatus.ACCEPTED);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), 10);
+    }
+
+    @Test
+    public void testDeleteExpiredSessions() throws MGWFileSourceException {
+        sessionId = MGWFileUploadSessionUtil.createSession(FILE_NAME);
+        Assert.assertEquals(MGWFileUploadSessionUtil.deleteExpiredSessions(0), 0);
+        Assert.assertEquals(MGWFileUploadSessionUtil.deleteExpiredSessions(System.currentTimeMillis() + 60000), 1);
+        Assert.assertEquals(MGWFileUploadSessionUtil.getOffset(sessionId), -1);
+    }
+
+    private static ChunkStatus writeChunk(String sessionId, long offset, String chunk)
+            throws MGWFileSourceException {
+        return MGWFileUploadSessionUtil.writeChunk(sessionId, offset, checksum(chunk), toStream(chunk));
+    }
+
+    private static String checksum(String chunk) {
+        byte[] checksum = MGWFileChecksumUtil.newDigest().digest(chunk.getBytes(StandardCharsets.UTF_8));
+        return MGWFileChecksumUtil.toHex(checksum);
+    }
+
+    private static InputStream toStream(String chunk) {
+        return new ByteArrayInputStream(chunk.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2020, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.extension.siddhi.io.mgwfile.util;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceConstants;
+import org.wso2.extension.siddhi.io.mgwfile.MGWFileSourceTestUtil;
+import org.wso2.extension.siddhi.io.mgwfile.dao.MGWFileSourceDAO;
+import org.wso2.extension.siddhi.io.mgwfile.dto.MGWFileInfoDTO;
+import org.wso2.extension.siddhi.io.mgwfile.exception.MGWFileSourceException;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSpoolUtil.SpoolStatus;
+import org.wso2.extension.siddhi.io.mgwfile.util.MGWFileUploadSpoolUtil.UploadState;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Tests the spool in which uploaded files are accepted before being persisted, kept by
+ * {@link MGWFileUploadSpoolUtil}.
+ */
+public class MGWFileUploadSpoolUtilTest {
+
+    private static final String FILE_NAME = "api-usage-data.zip";
+    private static final String CONTENT = "usage-data";
+    private static final int MAX_SPOOL_SIZE = 16;
+
+    private Path spoolDirectory;
+
+    @BeforeClass
+    public void initialize() throws IOException, ReflectiveOperationException {
+        spoolDirectory = Files.createTempDirectory("mgwfile-upload-spool");
+        System.setProperty(MGWFileSourceConstants.UPLOAD_SPOOL_DIRECTORY_PROPERTY, spoolDirectory.toString());
+        System.setProperty(MGWFileSourceConstants.UPLOAD_SPOOL_SIZE_PROPERTY, String.valueOf(MAX_SPOOL_SIZE));
+        MGWFileSourceTestUtil.initializeSystemProperties();
+    }
+
+    @BeforeMethod
+    public void clearSpool() throws IOException {
+        MGWFileSourceTestUtil.deleteDirectory(spoolDirectory);
+        MGWFileUploadSpoolUtil.initialize();
+    }
+
+    @AfterClass
+    public void cleanUp() throws IOException {
+        System.clearProperty(MGWFileSourceConstants.UPLOAD_SPOOL_DIRECTORY_PROPERTY);
+        System.clearProperty(MGWFileSourceConstants.UPLOAD_SPOOL_SIZE_PROPERTY);
+        MGWFileSourceTestUtil.deleteDirectory(spoolDirectory);
+    }
+
+    @Test
+    public void testSpoolEnabled() {
+        Assert.assertTrue(MGWFileUploadSpoolUtil.isSpoolEnabled());
+    }
+
+    @Test
+    public void testValidTrackingId() {
+        Assert.assertTrue(MGWFileUploadSpoolUtil.isValidTrackingId(UUID.randomUUID().toString()));
+        Assert.assertFalse(MGWFileUploadSpoolUtil.isValidTrackingId("../" + FILE_NAME));
+        Assert.assertFalse(MGWFileUploadSpoolUtil.isValidTrackingId(null));
+    }
+
+    @Test
+    public void testSpool() throws MGWFileSourceException, IOException {
+        String trackingId = UUID.randomUUID().toString();
+        MGWFileInfoDTO dto = new MGWFileInfoDTO(FILE_NAME, 1000L);
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(trackingId, dto, toStream(CONTENT)), SpoolStatus.SPOOLED);
+        Assert.assertEquals(dto.getContentHash(), checksum(CONTENT));
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpoolSize(), CONTENT.length());
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpooledFiles(10), Collections.singletonList(trackingId));
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getUploadState(trackingId), UploadState.SPOOLED);
+
+        MGWFileInfoDTO spooledDto = MGWFileUploadSpoolUtil.getFileInfo(trackingId);
+        Assert.assertEquals(spooledDto.getFileName(), FILE_NAME);
+        Assert.assertEquals(spooledDto.getTimeStamp(), 1000L);
+        Assert.assertEquals(spooledDto.getContentHash(), checksum(CONTENT));
+        try (InputStream content = MGWFileUploadSpoolUtil.openContent(trackingId)) {
+            Assert.assertEquals(new String(IOUtils.toByteArray(content), StandardCharsets.UTF_8), CONTENT);
+        }
+    }
+
+    @Test
+    public void testChecksumMismatch() throws MGWFileSourceException {
+        String trackingId = UUID.randomUUID().toString();
+        MGWFileInfoDTO dto = new MGWFileInfoDTO(FILE_NAME, 1000L);
+        dto.setContentHash(checksum("other"));
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(trackingId, dto, toStream(CONTENT)),
+                SpoolStatus.CHECKSUM_MISMATCH);
+        // the space reserved for the content is released
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpoolSize(), 0);
+        Assert.assertTrue(MGWFileUploadSpoolUtil.getSpooledFiles(10).isEmpty());
+        Assert.assertNull(MGWFileUploadSpoolUtil.getUploadState(trackingId));
+        Assert.assertNull(MGWFileUploadSpoolUtil.getFileInfo(trackingId));
+    }
+
+    @Test
+    public void testSpoolFull() throws MGWFileSourceException {
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(UUID.randomUUID().toString(),
+                new MGWFileInfoDTO(FILE_NAME, 1000L), toStream(CONTENT)), SpoolStatus.SPOOLED);
+        String trackingId = UUID.randomUUID().toString();
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(trackingId, new MGWFileInfoDTO("api-usage-data-2.zip",
+                1001L), toStream(CONTENT)), SpoolStatus.SPOOL_FULL);
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpoolSize(), CONTENT.length());
+        Assert.assertNull(MGWFileUploadSpoolUtil.getUploadState(trackingId));
+    }
+
+    @Test
+    public void testGetSpooledFilesLimit() throws MGWFileSourceException {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(MGWFileUploadSpoolUtil.spool(UUID.randomUUID().toString(),
+                    new MGWFileInfoDTO("api-usage-data-" + i + ".zip", 1000L + i), toStream("usage")),
+                    SpoolStatus.SPOOLED);
+        }
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpooledFiles(2).size(), 2);
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpooledFiles(10).size(), 3);
+    }
+
+    @Test
+    public void testComplete() throws MGWFileSourceException {
+        String trackingId = UUID.randomUUID().toString();
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(trackingId, new MGWFileInfoDTO(FILE_NAME, 1000L),
+                toStream(CONTENT)), SpoolStatus.SPOOLED);
+        MGWFileUploadSpoolUtil.complete(trackingId, FILE_NAME, MGWFileSourceDAO.UploadStatus.CHECKSUM_MISMATCH);
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpoolSize(), 0);
+        Assert.assertTrue(MGWFileUploadSpoolUtil.getSpooledFiles(10).isEmpty());
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getUploadState(trackingId), UploadState.CHECKSUM_MISMATCH);
+
+        Assert.assertEquals(MGWFileUploadSpoolUtil.deleteExpiredResults(0), 0);
+        Assert.assertEquals(MGWFileUploadSpoolUtil.deleteExpiredResults(System.currentTimeMillis() + 60000), 1);
+        Assert.assertNull(MGWFileUploadSpoolUtil.getUploadState(trackingId));
+    }
+
+    @Test
+    public void testFail() throws MGWFileSourceException {
+        String trackingId = UUID.randomUUID().toString();
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(trackingId, new MGWFileInfoDTO(FILE_NAME, 1000L),
+                toStream(CONTENT)), SpoolStatus.SPOOLED);
+        MGWFileUploadSpoolUtil.fail(trackingId, FILE_NAME);
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpoolSize(), 0);
+        Assert.assertTrue(MGWFileUploadSpoolUtil.getSpooledFiles(10).isEmpty());
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getUploadState(trackingId), UploadState.FAILED);
+    }
+
+    @Test(expectedExceptions = MGWFileSourceException.class)
+    public void testInvalidFileInfo() throws MGWFileSourceException, IOException {
+        String trackingId = UUID.randomUUID().toString();
+        Path spooledFile = spoolDirectory.resolve(trackingId);
+        Files.createDirectories(spooledFile);
+        Files.write(spooledFile.resolve("file-info"), "fileName=api-usage-data.zip".getBytes(StandardCharsets.UTF_8));
+        MGWFileUploadSpoolUtil.getFileInfo(trackingId);
+    }
+
+    @Test
+    public void testInitialize() throws MGWFileSourceException, IOException {
+        Assert.assertEquals(MGWFileUploadSpoolUtil.spool(UUID.randomUUID().toString(),
+                new MGWFileInfoDTO(FILE_NAME, 1000L), toStream(CONTENT)), SpoolStatus.SPOOLED);
+        // a file which was being spooled when the server stopped
+        Path partialFile = spoolDirectory.resolve(UUID.randomUUID() + ".part");
+        Files.createDirectories(partialFile);
+        Files.write(partialFile.resolve("content"), CONTENT.getBytes(StandardCharsets.UTF_8));
+
+        MGWFileUploadSpoolUtil.initialize();
+        Assert.assertFalse(Files.exists(partialFile));
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpoolSize(), CONTENT.length());
+        Assert.assertEquals(MGWFileUploadSpoolUtil.getSpooledFiles(10).size(), 1);
+    }
+
+    private static String checksum(String content) {
+        byte[] checksum = MGWFileChecksumUtil.newDigest().digest(content.getBytes(StandardCharsets.UTF_8));
+        return MGWFileChecksumUtil.toHex(checksum);
+    }
+
+    private static InputStream toStream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -4,5 +4,10 @@ CREATE TABLE IF NOT EXISTS AM_USAGE_UPLOADED_FILES (
   FILE_TIMESTAMP TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
   FILE_PROCESSED tinyint(1) DEFAULT 0,
   FILE_CONTENT MEDIUMBLOB DEFAULT NULL,
-  PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP)
+  FILE_OWNER varchar(255) DEFAULT NULL,
+  FILE_LEASE_EXPIRY TIMESTAMP DEFAULT NULL,
+  FILE_CHECKPOINT BIGINT DEFAULT 0,
+  FILE_CONTENT_HASH varchar(64) NOT NULL,
+  PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP),
+  CONSTRAINT UK_AM_USAGE_FILE_CONTENT_HASH UNIQUE (FILE_CONTENT_HASH)
 );
\ No newline at end of file
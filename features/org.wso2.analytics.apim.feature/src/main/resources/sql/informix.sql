@@ -4,5 +4,10 @@ CREATE TABLE IF NOT EXISTS AM_USAGE_UPLOADED_FILES (
    FILE_TIMESTAMP TIMESTAMP(0) DEFAULT CURRENT_TIMESTAMP,
    FILE_PROCESSED tinyint DEFAULT 0,
    FILE_CONTENT MEDIUMBLOB DEFAULT NULL,
-   PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP)
+   FILE_OWNER varchar(255) DEFAULT NULL,
+   FILE_LEASE_EXPIRY TIMESTAMP(0) DEFAULT NULL,
+   FILE_CHECKPOINT BIGINT DEFAULT 0,
+   FILE_CONTENT_HASH varchar(64) NOT NULL,
+   PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP),
+   UNIQUE (FILE_CONTENT_HASH) CONSTRAINT UK_AM_USAGE_FILE_CONTENT_HASH
 );
\ No newline at end of file
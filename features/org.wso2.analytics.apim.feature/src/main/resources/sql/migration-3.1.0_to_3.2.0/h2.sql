@@ -0,0 +1,11 @@
+-- Upgrades an AM_USAGE_UPLOADED_FILES table created by an earlier release. Run once, before starting the
+-- upgraded workers. Files left claimed by the old workers get an expired lease so that they are claimed again.
+
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD COLUMN IF NOT EXISTS FILE_OWNER varchar(255) DEFAULT NULL;
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD COLUMN IF NOT EXISTS FILE_LEASE_EXPIRY TIMESTAMP DEFAULT NULL;
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD COLUMN IF NOT EXISTS FILE_CHECKPOINT BIGINT DEFAULT 0;
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD COLUMN IF NOT EXISTS FILE_CONTENT_HASH varchar(64) DEFAULT NULL;
+
+UPDATE AM_USAGE_UPLOADED_FILES SET FILE_LEASE_EXPIRY = CURRENT_TIMESTAMP WHERE FILE_PROCESSED = 1;
+
+CREATE UNIQUE INDEX IF NOT EXISTS UK_AM_USAGE_FILE_CONTENT_HASH ON AM_USAGE_UPLOADED_FILES (FILE_CONTENT_HASH);
\ No newline at end of file
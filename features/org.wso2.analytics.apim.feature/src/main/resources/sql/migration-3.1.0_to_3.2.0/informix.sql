@@ -0,0 +1,17 @@
+-- Upgrades an AM_USAGE_UPLOADED_FILES table created by an earlier release. Run once, before starting the
+-- upgraded workers. Files left claimed by the old workers get an expired lease so that they are claimed again.
+-- Informix treats NULL keys of a unique index as equal, so the rows uploaded before the upgrade get a distinct
+-- placeholder checksum first.
+
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD (
+   FILE_OWNER varchar(255) DEFAULT NULL,
+   FILE_LEASE_EXPIRY DATETIME YEAR TO SECOND DEFAULT NULL,
+   FILE_CHECKPOINT BIGINT DEFAULT 0,
+   FILE_CONTENT_HASH varchar(64) DEFAULT NULL
+);
+
+UPDATE AM_USAGE_UPLOADED_FILES SET FILE_LEASE_EXPIRY = CURRENT YEAR TO SECOND WHERE FILE_PROCESSED = 1;
+
+UPDATE AM_USAGE_UPLOADED_FILES SET FILE_CONTENT_HASH = 'legacy-' || ROWID WHERE FILE_CONTENT_HASH IS NULL;
+
+CREATE UNIQUE INDEX UK_AM_USAGE_FILE_CONTENT_HASH ON AM_USAGE_UPLOADED_FILES (FILE_CONTENT_HASH);
\ No newline at end of file
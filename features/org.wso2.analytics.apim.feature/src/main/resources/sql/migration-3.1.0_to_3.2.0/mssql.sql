@@ -0,0 +1,16 @@
+-- Upgrades an AM_USAGE_UPLOADED_FILES table created by an earlier release. Run once, before starting the
+-- upgraded workers. Files left claimed by the old workers get an expired lease so that they are claimed again.
+
+IF COL_LENGTH('AM_USAGE_UPLOADED_FILES', 'FILE_OWNER') IS NULL
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD
+   FILE_OWNER varchar(255) DEFAULT NULL,
+   FILE_LEASE_EXPIRY DATETIME2(0) DEFAULT NULL,
+   FILE_CHECKPOINT bigint DEFAULT 0 WITH VALUES,
+   FILE_CONTENT_HASH varchar(64) DEFAULT NULL;
+GO
+
+UPDATE AM_USAGE_UPLOADED_FILES SET FILE_LEASE_EXPIRY = GETDATE() WHERE FILE_PROCESSED = 1;
+
+IF NOT EXISTS (SELECT * FROM SYS.INDEXES WHERE NAME = 'UK_AM_USAGE_FILE_CONTENT_HASH')
+CREATE UNIQUE INDEX UK_AM_USAGE_FILE_CONTENT_HASH ON AM_USAGE_UPLOADED_FILES (FILE_CONTENT_HASH)
+   WHERE FILE_CONTENT_HASH IS NOT NULL;
\ No newline at end of file
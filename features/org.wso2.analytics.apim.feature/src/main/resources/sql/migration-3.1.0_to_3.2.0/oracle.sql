@@ -0,0 +1,13 @@
+-- Upgrades an AM_USAGE_UPLOADED_FILES table created by an earlier release. Run once, before starting the
+-- upgraded workers. Files left claimed by the old workers get an expired lease so that they are claimed again.
+
+ALTER TABLE AM_USAGE_UPLOADED_FILES ADD (
+   FILE_OWNER varchar2(255) DEFAULT NULL,
+   FILE_LEASE_EXPIRY TIMESTAMP(0) DEFAULT NULL,
+   FILE_CHECKPOINT number(19) DEFAULT 0,
+   FILE_CONTENT_HASH varchar2(64) DEFAULT NULL
+);
+
+UPDATE AM_USAGE_UPLOADED_FILES SET FILE_LEASE_EXPIRY = SYSTIMESTAMP WHERE FILE_PROCESSED = 1;
+
+CREATE UNIQUE INDEX UK_AM_USAGE_FILE_CONTENT_HASH ON AM_USAGE_UPLOADED_FILES (FILE_CONTENT_HASH);
\ No newline at end of file
@@ -1,8 +1,14 @@
 
+IF NOT EXISTS (SELECT * FROM SYS.OBJECTS WHERE OBJECT_ID = OBJECT_ID(N'[DBO].[AM_USAGE_UPLOADED_FILES]') AND TYPE IN (N'U'))
 CREATE TABLE AM_USAGE_UPLOADED_FILES (
    FILE_NAME varchar(255) NOT NULL,
    FILE_TIMESTAMP DATETIME2(0) DEFAULT GETDATE(),
    FILE_PROCESSED smallint DEFAULT 0,
    FILE_CONTENT VARBINARY(max) DEFAULT NULL,
-   PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP)
+   FILE_OWNER varchar(255) DEFAULT NULL,
+   FILE_LEASE_EXPIRY DATETIME2(0) DEFAULT NULL,
+   FILE_CHECKPOINT bigint DEFAULT 0,
+   FILE_CONTENT_HASH varchar(64) NOT NULL,
+   PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP),
+   CONSTRAINT UK_AM_USAGE_FILE_CONTENT_HASH UNIQUE (FILE_CONTENT_HASH)
 );
\ No newline at end of file
@@ -4,5 +4,10 @@ CREATE TABLE AM_USAGE_UPLOADED_FILES (
    FILE_TIMESTAMP TIMESTAMP(0) DEFAULT SYSTIMESTAMP,
    FILE_PROCESSED number(3) DEFAULT 0,
    FILE_CONTENT BLOB DEFAULT NULL,
-   PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP)
+   FILE_OWNER varchar2(255) DEFAULT NULL,
+   FILE_LEASE_EXPIRY TIMESTAMP(0) DEFAULT NULL,
+   FILE_CHECKPOINT number(19) DEFAULT 0,
+   FILE_CONTENT_HASH varchar2(64) NOT NULL,
+   PRIMARY KEY (FILE_NAME, FILE_TIMESTAMP),
+   CONSTRAINT UK_AM_USAGE_FILE_CONTENT_HASH UNIQUE (FILE_CONTENT_HASH)
 );
\ No newline at end of file